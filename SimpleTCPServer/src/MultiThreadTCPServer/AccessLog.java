@@ -0,0 +1,920 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Name:        AccessLog
+ * Type:        Class
+ * Description: Access log in the combined format, and the error log of the
+ *              server. Connection threads publish fixed size records into a
+ *              preallocated ring buffer: claiming a slot is one compare and
+ *              set, copying the fields allocates nothing, and nothing waits
+ *              for the disk. When the ring is full the record is dropped and
+ *              counted instead of blocking the request. A single writer
+ *              thread formats the records into large buffered writes and
+ *              rotates the files by size or age
+ */
+public class AccessLog
+{
+    // Kinds of records
+    private static final int ACCESS = 0;
+    private static final int ERROR = 1;
+
+    /**
+     * Name:        Record
+     * Type:        Class
+     * Description: Slot of the ring buffer. Its sequence tells whose turn it
+     *              is: equal to the position when free for the producer of
+     *              that position, position + 1 once published for the writer
+     */
+    private static final class Record
+    {
+        // Turn of the slot
+        volatile long sequence;
+
+        // Kind of record and time it was published
+        int kind;
+        long time;
+
+        // Client address; 4 or 16 bytes
+        final byte address[] = new byte[16];
+        int addressLength;
+
+        // Request line: method, target (cut to the slot size) and version
+        String method;
+        final byte target[] = new byte[Constants.ACCESS_LOG_MAX_FIELD];
+        int targetLength;
+        boolean http11;
+
+        // Response status, size of the body and the time taken to produce it
+        int status;
+        long bytes;
+        long duration;
+
+        // Referer and User-Agent headers, -1 if not sent
+        final byte referer[] = new byte[Constants.ACCESS_LOG_MAX_FIELD];
+        int refererLength;
+        final byte userAgent[] = new byte[Constants.ACCESS_LOG_MAX_FIELD];
+        int userAgentLength;
+
+        // Message and cause of an error record
+        String message;
+        Throwable error;
+
+        Record(long sequence)
+        {
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * Name:        LogFile
+     * Type:        Class
+     * Description: Buffered log file that is moved aside and started anew
+     *              once it reaches a size or an age; written by the writer
+     *              thread only
+     */
+    private static final class LogFile
+    {
+        // Path of the current file
+        private final Path path;
+
+        // Size and age at which the file is rotated; 0 for no limit
+        private final long maxBytes;
+        private final long maxAgeMillis;
+
+        // Open file, its size and when it was opened
+        private OutputStream out = null;
+        private long size = 0;
+        private long openedAt = 0;
+
+        // Whether bytes were written since the last flush
+        private boolean dirty = false;
+
+        LogFile(Path path, long maxBytes, long maxAgeMillis)
+        {
+            this.path = path;
+            this.maxBytes = maxBytes;
+            this.maxAgeMillis = maxAgeMillis;
+        }
+
+        // Writes a line, rotating the file first if it is due
+        void write(byte line[], int length, long now) throws IOException
+        {
+            if ((out == null) || ((maxBytes > 0) && (size + length > maxBytes))
+                    || ((maxAgeMillis > 0) && (now - openedAt >= maxAgeMillis)))
+            {
+                rotate(now);
+            }
+            out.write(line, 0, length);
+            size += length;
+            dirty = true;
+        }
+
+        // Moves the current file aside with its date and opens a new one
+        void rotate(long now) throws IOException
+        {
+            close();
+            if (path.getParent() != null)
+            {
+                Files.createDirectories(path.getParent());
+            }
+            if (Files.exists(path) && (Files.size(path) > 0))
+            {
+                String stamp = ROTATION_FORMAT.format(Instant.ofEpochMilli(now));
+                Path rotated = path.resolveSibling(path.getFileName() + "." + stamp);
+                for (int i = 1; Files.exists(rotated); i++)
+                {
+                    rotated = path.resolveSibling(path.getFileName() + "." + stamp + "-" + i);
+                }
+                Files.move(path, rotated);
+            }
+            out = new BufferedOutputStream(new FileOutputStream(path.toFile(), true),
+                    Constants.ACCESS_LOG_WRITE_BUFFER_SIZE);
+            size = Files.size(path);
+            openedAt = now;
+        }
+
+        void flush() throws IOException
+        {
+            if (dirty && (out != null))
+            {
+                out.flush();
+                dirty = false;
+            }
+        }
+
+        void close() throws IOException
+        {
+            if (out != null)
+            {
+                out.close();
+                out = null;
+                dirty = false;
+            }
+        }
+    }
+
+    // Log of the server
+    public static final AccessLog SHARED = new AccessLog(Constants.ACCESS_LOG_RING_SIZE);
+
+    // Date of the access log and suffix of rotated files
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter
+            .ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter ROTATION_FORMAT = DateTimeFormatter
+            .ofPattern("yyyyMMdd-HHmmss", Locale.US).withZone(ZoneId.systemDefault());
+
+    // Ring buffer of records; its size is a power of two
+    private final Record ring[];
+    private final int mask;
+
+    // Next position to claim, and next position to write (writer only)
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+
+    // Records dropped because the ring was full, and the count reported
+    private final LongAdder dropped = new LongAdder();
+    private long droppedReported = 0;
+
+    // Log files; null if not written
+    private LogFile accessFile = null;
+    private LogFile errorFile = null;
+
+    // Whether the writer runs and access records are wanted
+    private volatile boolean running = false;
+    private volatile boolean accessEnabled = false;
+
+    // Writer thread
+    private Thread writer = null;
+
+    // Line being formatted and the cached date of the current second
+    private byte line[] = new byte[1024];
+    private int lineLength = 0;
+    private long dateSecond = -1;
+    private byte date[] = null;
+
+    /**
+     * Name       : AccessLog
+     * Input      : capacity as int
+     * Output     : none
+     * Description: Constructor that preallocates the ring, rounded up to a
+     *              power of two
+     * @param capacity
+     */
+    public AccessLog(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        ring = new Record[size];
+        for (int i = 0; i < size; i++)
+        {
+            ring[i] = new Record(i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Name       : start
+     * Input      : accessPath as String, errorPath as String,
+     *              maxBytes as long, maxAgeMillis as long
+     * Output     : none
+     * Description: Starts the writer. An empty access path turns the access
+     *              log off; with an empty error path errors go to the
+     *              standard error stream. Files are rotated at maxBytes and
+     *              after maxAgeMillis, 0 for no limit
+     * @param accessPath
+     * @param errorPath
+     * @param maxBytes
+     * @param maxAgeMillis
+     */
+    public synchronized void start(String accessPath, String errorPath,
+            long maxBytes, long maxAgeMillis)
+    {
+        if (running)
+        {
+            return;
+        }
+        if (!accessPath.isEmpty())
+        {
+            accessFile = new LogFile(Paths.get(accessPath), maxBytes, maxAgeMillis);
+            accessEnabled = true;
+        }
+        if (!errorPath.isEmpty())
+        {
+            errorFile = new LogFile(Paths.get(errorPath), maxBytes, maxAgeMillis);
+        }
+
+        running = true;
+        writer = new Thread(this::writeRecords, "access-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        // Write what is still in the ring when the server stops
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+    }
+
+    /**
+     * Name       : stop
+     * Input      : none
+     * Output     : none
+     * Description: Stops the writer once it has written the records
+     *              published so far
+     */
+    public void stop()
+    {
+        Thread thread;
+        synchronized (this)
+        {
+            if (!running)
+            {
+                return;
+            }
+            running = false;
+            thread = writer;
+        }
+
+        LockSupport.unpark(thread);
+        try
+        {
+            thread.join(Constants.ACCESS_LOG_FLUSH_INTERVAL_MS * 10);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Name       : logAccess
+     * Input      : request as HttpRequest, status as int, bytes as long,
+     *              duration as long
+     * Output     : none
+     * Description: Publishes the access record of a response, whose body
+     *              was bytes long; dropped if the ring is full
+     * @param request
+     * @param status
+     * @param bytes
+     * @param duration
+     */
+    public void logAccess(HttpRequest request, int status, long bytes, long duration)
+    {
+        if (!accessEnabled)
+        {
+            return;
+        }
+
+        Record record = claim();
+        if (record == null)
+        {
+            return;
+        }
+
+        record.kind = ACCESS;
+        record.time = System.currentTimeMillis();
+        record.status = status;
+        record.bytes = bytes;
+        record.duration = duration;
+        record.message = null;
+        record.error = null;
+
+        // Client address, kept by the connection
+        byte address[] = request.clientAddress;
+        if (address != null)
+        {
+            System.arraycopy(address, 0, record.address, 0, address.length);
+            record.addressLength = address.length;
+        }
+        else
+        {
+            record.addressLength = 0;
+        }
+
+        // Request line and headers, copied from the receive buffer
+        record.method = request.method;
+        record.http11 = request.http11;
+        record.targetLength = copy(request.data, request.targetStart,
+                request.targetEnd, record.target);
+        record.refererLength = copyHeader(request, "Referer", record.referer);
+        record.userAgentLength = copyHeader(request, "User-Agent", record.userAgent);
+
+        publish(record);
+    }
+
+    /**
+     * Name       : logError
+     * Input      : message as String, error as Throwable
+     * Output     : none
+     * Description: Publishes an error message with its cause, which may be
+     *              null. Before the writer starts it is printed at once
+     * @param message
+     * @param error
+     */
+    public void logError(String message, Throwable error)
+    {
+        if (!running)
+        {
+            System.err.println(formatError(message, error));
+            return;
+        }
+
+        Record record = claim();
+        if (record == null)
+        {
+            return;
+        }
+        record.kind = ERROR;
+        record.time = System.currentTimeMillis();
+        record.message = message;
+        record.error = error;
+        publish(record);
+    }
+
+    /**
+     * Name       : logFatal
+     * Input      : message as String, error as Throwable or null
+     * Output     : none
+     * Description: Logs an error that stops the server; when errors go to
+     *              a file it is also printed to the standard error stream,
+     *              so whoever started the server sees why it stopped
+     * @param message
+     * @param error
+     */
+    public void logFatal(String message, Throwable error)
+    {
+        logError(message, error);
+        if (running && (errorFile != null))
+        {
+            System.err.println(formatError(message, error));
+        }
+    }
+
+    /**
+     * Name       : getDropped
+     * Input      : none
+     * Output     : Number of records dropped
+     * Description: Returns how many records were lost to a full ring
+     * @return long
+     */
+    public long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    /**
+     * Name       : claim
+     * Input      : none
+     * Output     : Free record for the caller, or null if the ring is full
+     * Description: Claims the next position of the ring without locking
+     * @return record/null
+     */
+    private Record claim()
+    {
+        while (true)
+        {
+            long position = tail.get();
+            Record record = ring[(int) position & mask];
+            long turn = record.sequence - position;
+
+            if (turn == 0)
+            {
+                // Free for this position; take it unless another thread did
+                if (tail.compareAndSet(position, position + 1))
+                {
+                    return record;
+                }
+            }
+            else if (turn < 0)
+            {
+                // The writer hasn't freed it yet: the ring is full
+                dropped.increment();
+                return null;
+            }
+            // Another thread claimed the position meanwhile; try the next
+        }
+    }
+
+    /**
+     * Name       : publish
+     * Input      : record as Record
+     * Output     : none
+     * Description: Hands a filled record to the writer
+     * @param record
+     */
+    private void publish(Record record)
+    {
+        record.sequence += 1;
+    }
+
+    /**
+     * Name       : writeRecords
+     * Input      : none
+     * Output     : none
+     * Description: Body of the writer thread: writes published records in
+     *              batches and flushes the files when the ring runs empty
+     *              or at least every flush interval
+     */
+    private void writeRecords()
+    {
+        long lastFlush = System.currentTimeMillis();
+        while (true)
+        {
+            boolean stopping = !running;
+            int count = drain();
+
+            long now = System.currentTimeMillis();
+            if ((count == 0) || (now - lastFlush >= Constants.ACCESS_LOG_FLUSH_INTERVAL_MS))
+            {
+                reportDropped(now);
+                flush();
+                lastFlush = now;
+            }
+
+            if (stopping && (count == 0))
+            {
+                close();
+                return;
+            }
+            if (count == 0)
+            {
+                LockSupport.parkNanos(Constants.ACCESS_LOG_FLUSH_INTERVAL_MS * 1000000L);
+            }
+        }
+    }
+
+    /**
+     * Name       : drain
+     * Input      : none
+     * Output     : Number of records written
+     * Description: Writes the records published so far, freeing their slots
+     * @return int
+     */
+    private int drain()
+    {
+        int count = 0;
+        while (true)
+        {
+            Record record = ring[(int) head & mask];
+            if (record.sequence != head + 1)
+            {
+                return count;
+            }
+
+            try
+            {
+                if (record.kind == ACCESS)
+                {
+                    formatAccess(record);
+                    accessFile.write(line, lineLength, record.time);
+                }
+                else
+                {
+                    writeError(formatError(record.message, record.error), record.time);
+                }
+            }
+            catch (IOException e)
+            {
+                // Nowhere better to report it
+                System.err.println("Couldn't write log: " + e.getMessage());
+            }
+
+            // Free the slot for the producer one lap later
+            record.message = null;
+            record.error = null;
+            record.sequence = head + ring.length;
+            head += 1;
+            count += 1;
+        }
+    }
+
+    /**
+     * Name       : formatAccess
+     * Input      : record as Record
+     * Output     : none
+     * Description: Formats an access record as a line of the combined log
+     *              format, followed by the time taken in microseconds
+     * @param record
+     */
+    private void formatAccess(Record record)
+    {
+        lineLength = 0;
+
+        // Client address
+        if (record.addressLength == 4)
+        {
+            for (int i = 0; i < 4; i++)
+            {
+                if (i > 0)
+                {
+                    append('.');
+                }
+                append(Integer.toString(record.address[i] & 0xff));
+            }
+        }
+        else if (record.addressLength == 16)
+        {
+            append(formatAddress(record.address));
+        }
+        else
+        {
+            append('-');
+        }
+
+        // Identity, user and date
+        append(" - - [");
+        append(getDate(record.time));
+        append("] \"");
+
+        // Request line
+        if (record.method != null)
+        {
+            append(record.method);
+            append(' ');
+            append(record.target, record.targetLength);
+            append(record.http11 ? " HTTP/1.1" : " HTTP/1.0");
+        }
+        else
+        {
+            append('-');
+        }
+        append("\" ");
+
+        // Status and size of the body, without the headers
+        append(Integer.toString(record.status));
+        append(' ');
+        append(Long.toString(record.bytes));
+
+        // Referer, user agent and time taken
+        append(" \"");
+        appendHeader(record.referer, record.refererLength);
+        append("\" \"");
+        appendHeader(record.userAgent, record.userAgentLength);
+        append("\" ");
+        append(Long.toString(record.duration / 1000));
+        append('\n');
+    }
+
+    /**
+     * Name       : writeError
+     * Input      : text as String, now as long
+     * Output     : none
+     * Description: Writes an error message to the error log, or to the
+     *              standard error stream if there is none
+     * @param text
+     * @param now
+     * @throws java.io.IOException
+     */
+    private void writeError(String text, long now) throws IOException
+    {
+        if (errorFile == null)
+        {
+            System.err.println(text);
+            return;
+        }
+
+        lineLength = 0;
+        append('[');
+        append(getDate(now));
+        append("] ");
+        append(text);
+        append('\n');
+        errorFile.write(line, lineLength, now);
+    }
+
+    /**
+     * Name       : reportDropped
+     * Input      : now as long
+     * Output     : none
+     * Description: Writes to the error log how many records were dropped
+     *              since the last report
+     * @param now
+     */
+    private void reportDropped(long now)
+    {
+        long total = dropped.sum();
+        if (total == droppedReported)
+        {
+            return;
+        }
+
+        try
+        {
+            writeError("Log overloaded: " + (total - droppedReported)
+                    + " records dropped", now);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Couldn't write log: " + e.getMessage());
+        }
+        droppedReported = total;
+    }
+
+    /**
+     * Name       : flush
+     * Input      : none
+     * Output     : none
+     * Description: Flushes the buffered lines to the files
+     */
+    private void flush()
+    {
+        try
+        {
+            if (accessFile != null)
+            {
+                accessFile.flush();
+            }
+            if (errorFile != null)
+            {
+                errorFile.flush();
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println("Couldn't write log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Name       : close
+     * Input      : none
+     * Output     : none
+     * Description: Closes the files
+     */
+    private void close()
+    {
+        try
+        {
+            if (accessFile != null)
+            {
+                accessFile.close();
+            }
+            if (errorFile != null)
+            {
+                errorFile.close();
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println("Couldn't close log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Name       : getDate
+     * Input      : time as long
+     * Output     : Date as array of bytes
+     * Description: Formats the date of the log, once per second
+     * @param time
+     * @return date
+     */
+    private byte[] getDate(long time)
+    {
+        long second = time / 1000;
+        if (second != dateSecond)
+        {
+            date = DATE_FORMAT.format(Instant.ofEpochMilli(time))
+                    .getBytes(StandardCharsets.US_ASCII);
+            dateSecond = second;
+        }
+        return date;
+    }
+
+    /**
+     * Name       : append
+     * Input      : c as char
+     * Output     : none
+     * Description: Appends an ASCII character to the line
+     * @param c
+     */
+    private void append(char c)
+    {
+        ensureLine(1);
+        line[lineLength++] = (byte) c;
+    }
+
+    /**
+     * Name       : append
+     * Input      : s as String
+     * Output     : none
+     * Description: Appends a string to the line
+     * @param s
+     */
+    private void append(String s)
+    {
+        append(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Name       : append
+     * Input      : bytes as array of bytes
+     * Output     : none
+     * Description: Appends bytes to the line
+     * @param bytes
+     */
+    private void append(byte bytes[])
+    {
+        append(bytes, bytes.length);
+    }
+
+    /**
+     * Name       : append
+     * Input      : bytes as array of bytes, length as int
+     * Output     : none
+     * Description: Appends the first length bytes to the line
+     * @param bytes
+     * @param length
+     */
+    private void append(byte bytes[], int length)
+    {
+        ensureLine(length);
+        System.arraycopy(bytes, 0, line, lineLength, length);
+        lineLength += length;
+    }
+
+    /**
+     * Name       : appendHeader
+     * Input      : value as array of bytes, length as int
+     * Output     : none
+     * Description: Appends a header value with its quotes escaped, or '-'
+     *              if the header wasn't sent
+     * @param value
+     * @param length
+     */
+    private void appendHeader(byte value[], int length)
+    {
+        if (length < 0)
+        {
+            append('-');
+            return;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            if ((value[i] == '"') || (value[i] == '\\'))
+            {
+                append('\\');
+            }
+            append((char) (value[i] & 0xff));
+        }
+    }
+
+    /**
+     * Name       : ensureLine
+     * Input      : count as int
+     * Output     : none
+     * Description: Grows the line buffer to take count more bytes
+     * @param count
+     */
+    private void ensureLine(int count)
+    {
+        if (lineLength + count > line.length)
+        {
+            byte larger[] = new byte[Math.max(line.length * 2, lineLength + count)];
+            System.arraycopy(line, 0, larger, 0, lineLength);
+            line = larger;
+        }
+    }
+
+    /**
+     * Name       : copy
+     * Input      : data as array of bytes, start as int, end as int,
+     *              into as array of bytes
+     * Output     : Number of bytes copied
+     * Description: Copies data[start, end) into a record field, cut to the
+     *              size of the field
+     * @param data
+     * @param start
+     * @param end
+     * @param into
+     * @return int
+     */
+    private static int copy(byte data[], int start, int end, byte into[])
+    {
+        if (data == null)
+        {
+            return 0;
+        }
+        int length = Math.min(Math.max(0, end - start), into.length);
+        System.arraycopy(data, start, into, 0, length);
+        return length;
+    }
+
+    /**
+     * Name       : copyHeader
+     * Input      : request as HttpRequest, name as String,
+     *              into as array of bytes
+     * Output     : Number of bytes copied, -1 if the header wasn't sent
+     * Description: Copies the value of a header into a record field
+     * @param request
+     * @param name
+     * @param into
+     * @return int
+     */
+    private static int copyHeader(HttpRequest request, String name, byte into[])
+    {
+        int index = request.findHeader(name);
+        if (index < 0)
+        {
+            return -1;
+        }
+        return copy(request.data, request.valueStart[index], request.valueEnd[index], into);
+    }
+
+    /**
+     * Name       : formatAddress
+     * Input      : address as array of bytes
+     * Output     : Address as string
+     * Description: Formats an IPv6 address
+     * @param address
+     * @return address
+     */
+    private static String formatAddress(byte address[])
+    {
+        try
+        {
+            return InetAddress.getByAddress(address).getHostAddress();
+        }
+        catch (UnknownHostException e)
+        {
+            return "-";
+        }
+    }
+
+    /**
+     * Name       : formatError
+     * Input      : message as String, error as Throwable
+     * Output     : Text of the error
+     * Description: Joins an error message and its cause
+     * @param message
+     * @param error
+     * @return text
+     */
+    private static String formatError(String message, Throwable error)
+    {
+        if (error == null)
+        {
+            return message;
+        }
+        return message + ": " + error;
+    }
+}
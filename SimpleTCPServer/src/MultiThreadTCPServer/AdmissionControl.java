@@ -0,0 +1,288 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Name:        AdmissionControl
+ * Type:        Class
+ * Description: Limits on the connections served and the requests being
+ *              processed at once, so that a traffic spike is turned away
+ *              cheaply instead of exhausting threads and memory. Over the
+ *              connection limit the reject policy answers new connections
+ *              with a pre-encoded 503 and closes them; the pause policy
+ *              stops accepting until a connection closes, leaving the
+ *              clients waiting in the accept backlog. Requests over the
+ *              in-flight limit are always answered with 503. The limits
+ *              and the policy may be changed while the server runs
+ */
+public class AdmissionControl
+{
+    // Admission control of the server
+    public static final AdmissionControl SHARED = new AdmissionControl();
+
+    // Permits of a connection limit of 0, standing for no limit; far from
+    // overflowing when connections admitted under a lower limit give back
+    // their slots
+    private static final int UNLIMITED_CONNECTIONS = Integer.MAX_VALUE / 2;
+
+    /**
+     * Name:        Slots
+     * Type:        Class
+     * Description: Connection slots whose number follows the limit; slots
+     *              taken away while in use are missed by new connections
+     *              until enough connections close
+     */
+    private static final class Slots extends Semaphore
+    {
+        private static final long serialVersionUID = 1L;
+
+        Slots(int permits)
+        {
+            super(permits);
+        }
+
+        void reduce(int count)
+        {
+            reducePermits(count);
+        }
+    }
+
+    // Connections that may still be admitted, and the current limit
+    private final Slots connections = new Slots(UNLIMITED_CONNECTIONS);
+    private int connectionLimit = UNLIMITED_CONNECTIONS;
+
+    // Requests being processed and their limit, 0 for no limit
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int maxInFlight = Constants.DEFAULT_MAX_IN_FLIGHT;
+
+    // Whether to stop accepting instead of answering with 503
+    private volatile boolean pause = false;
+
+    // Seconds the client is asked to wait in the 503 response
+    private volatile int retryAfter = Constants.DEFAULT_RETRY_AFTER_SECONDS;
+
+    // Requests answered with 503, and times accepting was paused
+    private final LongAdder requestsShed = new LongAdder();
+    private final LongAdder acceptPauses = new LongAdder();
+
+    /**
+     * Name       : configure
+     * Input      : maxConnections as int, maxInFlight as int,
+     *              policy as String, retryAfter as int
+     * Output     : none
+     * Description: Sets the limits, 0 for no limit, and the overload policy.
+     *              Connections already admitted count against a new limit
+     * @param maxConnections
+     * @param maxInFlight
+     * @param policy
+     * @param retryAfter
+     */
+    public synchronized void configure(int maxConnections, int maxInFlight, String policy,
+            int retryAfter)
+    {
+        if (!policy.equals(Constants.OVERLOAD_POLICY_REJECT)
+                && !policy.equals(Constants.OVERLOAD_POLICY_PAUSE))
+        {
+            throw new IllegalArgumentException("overload policy " + policy);
+        }
+        if ((maxConnections < 0) || (maxInFlight < 0) || (retryAfter < 0))
+        {
+            throw new IllegalArgumentException("negative admission limit");
+        }
+
+        // Add or take away the slots the limit changed by
+        int limit = (maxConnections > 0) ? maxConnections : UNLIMITED_CONNECTIONS;
+        if (limit > connectionLimit)
+        {
+            connections.release(limit - connectionLimit);
+        }
+        else if (limit < connectionLimit)
+        {
+            connections.reduce(connectionLimit - limit);
+        }
+        connectionLimit = limit;
+
+        this.maxInFlight = maxInFlight;
+        this.pause = policy.equals(Constants.OVERLOAD_POLICY_PAUSE);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Name       : isPausing
+     * Input      : none
+     * Output     : True if accepting stops at the connection limit
+     * Description: Returns whether the pause policy is used
+     * @return true/false
+     */
+    public boolean isPausing()
+    {
+        return pause;
+    }
+
+    /**
+     * Name       : getRetryAfter
+     * Input      : none
+     * Output     : Seconds as int
+     * Description: Returns the Retry-After value of the 503 response
+     * @return int
+     */
+    public int getRetryAfter()
+    {
+        return retryAfter;
+    }
+
+    /**
+     * Name       : tryAdmitConnection
+     * Input      : none
+     * Output     : True if the connection may be served
+     * Description: Takes a connection slot if one is free. An admitted
+     *              connection must give it back with connectionClosed()
+     * @return true/false
+     */
+    public boolean tryAdmitConnection()
+    {
+        return connections.tryAcquire();
+    }
+
+    /**
+     * Name       : awaitConnection
+     * Input      : none
+     * Output     : none
+     * Description: Takes a connection slot, waiting for one to be given
+     *              back if there is none; used by the blocking accept loop
+     *              with the pause policy
+     * @throws java.lang.InterruptedException
+     */
+    public void awaitConnection() throws InterruptedException
+    {
+        if (!connections.tryAcquire())
+        {
+            acceptPaused();
+            connections.acquire();
+        }
+    }
+
+    /**
+     * Name       : hasConnectionCapacity
+     * Input      : none
+     * Output     : True if a connection slot is free
+     * Description: Tells a paused accept loop whether to resume
+     * @return true/false
+     */
+    public boolean hasConnectionCapacity()
+    {
+        return connections.availablePermits() > 0;
+    }
+
+    /**
+     * Name       : connectionClosed
+     * Input      : none
+     * Output     : none
+     * Description: Gives back the slot of an admitted connection
+     */
+    public void connectionClosed()
+    {
+        connections.release();
+    }
+
+    /**
+     * Name       : acceptPaused
+     * Input      : none
+     * Output     : none
+     * Description: Counts a pause of the accept loop
+     */
+    public void acceptPaused()
+    {
+        acceptPauses.increment();
+    }
+
+    /**
+     * Name       : tryStartRequest
+     * Input      : none
+     * Output     : True if the request may be processed
+     * Description: Counts a request as in flight if that keeps the count
+     *              within the limit; otherwise counts it as shed. A started
+     *              request must be ended with requestFinished()
+     * @return true/false
+     */
+    public boolean tryStartRequest()
+    {
+        int limit = maxInFlight;
+        if (limit <= 0)
+        {
+            inFlight.incrementAndGet();
+            return true;
+        }
+
+        while (true)
+        {
+            int current = inFlight.get();
+            if (current >= limit)
+            {
+                requestsShed.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1))
+            {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Name       : requestFinished
+     * Input      : none
+     * Output     : none
+     * Description: Ends a request started with tryStartRequest()
+     */
+    public void requestFinished()
+    {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Name       : getInFlight
+     * Input      : none
+     * Output     : Number of requests being processed
+     * Description: Returns the requests currently in flight
+     * @return int
+     */
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+
+    /**
+     * Name       : getRequestsShed
+     * Input      : none
+     * Output     : Number of requests answered with 503
+     * Description: Returns the requests shed over the in-flight limit
+     * @return long
+     */
+    public long getRequestsShed()
+    {
+        return requestsShed.sum();
+    }
+
+    /**
+     * Name       : getAcceptPauses
+     * Input      : none
+     * Output     : Number of pauses
+     * Description: Returns how many times accepting was paused at the
+     *              connection limit
+     * @return long
+     */
+    public long getAcceptPauses()
+    {
+        return acceptPauses.sum();
+    }
+}
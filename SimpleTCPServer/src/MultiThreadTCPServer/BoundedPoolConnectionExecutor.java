@@ -0,0 +1,69 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name:        BoundedPoolConnectionExecutor
+ * Type:        Class
+ * Description: Fixed number of threads fed by a bounded queue. Connections
+ *              arriving when the queue is full are rejected
+ */
+public class BoundedPoolConnectionExecutor implements ConnectionExecutor
+{
+    // Thread pool running the connections
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * Name       : BoundedPoolConnectionExecutor
+     * Input      : poolSize as int, queueCapacity as int
+     * Output     : none
+     * Description: Constructor that creates the fixed pool and its queue
+     * @param poolSize
+     * @param queueCapacity
+     */
+    public BoundedPoolConnectionExecutor(int poolSize, int queueCapacity)
+    {
+        // Default AbortPolicy throws RejectedExecutionException when full
+        pool = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity));
+    }
+
+    @Override
+    public void execute(Runnable clientConn)
+    {
+        pool.execute(clientConn);
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        return pool.getQueue().size();
+    }
+
+    @Override
+    public int getActiveCount()
+    {
+        return pool.getActiveCount();
+    }
+
+    @Override
+    public String getName()
+    {
+        return Constants.EXECUTOR_BOUNDED_POOL;
+    }
+
+    @Override
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,462 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Name:        BufferPool
+ * Type:        Class
+ * Description: Pool of direct byte buffers for socket I/O, in a few size
+ *              classes. Buffers are cut from large direct slabs allocated
+ *              on demand, and return to the free list of their class when
+ *              released, so connections reuse them instead of allocating.
+ *              With leak detection on, a buffer that is garbage collected
+ *              without being released is reported with the place it was
+ *              borrowed
+ */
+public class BufferPool
+{
+    /**
+     * Name:        PooledBuffer
+     * Type:        Class
+     * Description: Buffer borrowed from the pool; must be released exactly
+     *              once and not used afterwards
+     */
+    public static final class PooledBuffer
+    {
+        // Pool and size class it belongs to; class -1 if not pooled
+        private final BufferPool pool;
+        private final int sizeClass;
+
+        // The buffer
+        private final ByteBuffer buffer;
+
+        // Leak record, only with leak detection on
+        private final LeakRecord leak;
+
+        // Whether the buffer was given back
+        private boolean released = false;
+
+        PooledBuffer(BufferPool pool, int sizeClass, ByteBuffer buffer, LeakRecord leak)
+        {
+            this.pool = pool;
+            this.sizeClass = sizeClass;
+            this.buffer = buffer;
+            this.leak = leak;
+        }
+
+        /**
+         * Name       : buffer
+         * Input      : none
+         * Output     : The borrowed buffer
+         * Description: Returns the buffer, cleared when it was borrowed
+         * @return buffer
+         */
+        public ByteBuffer buffer()
+        {
+            return buffer;
+        }
+
+        /**
+         * Name       : release
+         * Input      : none
+         * Output     : none
+         * Description: Gives the buffer back to the pool
+         */
+        public void release()
+        {
+            pool.release(this);
+        }
+    }
+
+    /**
+     * Name:        LeakRecord
+     * Type:        Class
+     * Description: Where a buffer was borrowed; run by the cleaner once the
+     *              buffer is unreachable, and reports it if not released
+     */
+    private static final class LeakRecord implements Runnable
+    {
+        // Stack trace of the borrower
+        private final Throwable site = new Throwable("Buffer borrowed here");
+
+        // Counter of the pool
+        private final LongAdder leaks;
+
+        // Whether the buffer was released
+        private volatile boolean released = false;
+
+        LeakRecord(LongAdder leaks)
+        {
+            this.leaks = leaks;
+        }
+
+        @Override
+        public void run()
+        {
+            if (!released)
+            {
+                leaks.increment();
+                AccessLog.SHARED.logError("Buffer leak: a pooled buffer was never released",
+                        site);
+            }
+        }
+    }
+
+    /**
+     * Name:        SizeClass
+     * Type:        Class
+     * Description: Free list of one buffer size and the slab new buffers of
+     *              that size are cut from
+     */
+    private static final class SizeClass
+    {
+        // Capacity of the buffers
+        final int size;
+
+        // Released buffers ready for reuse
+        final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+        // Slab being cut and the number of slabs allocated
+        private ByteBuffer slab = null;
+        private int slabCount = 0;
+
+        SizeClass(int size)
+        {
+            this.size = size;
+        }
+
+        // Cuts a new buffer from the slab; null once all slabs are used
+        synchronized ByteBuffer carve(int slabSize, int maxSlabs)
+        {
+            if ((slab == null) || (slab.remaining() < size))
+            {
+                if (slabCount >= maxSlabs)
+                {
+                    return null;
+                }
+                slab = ByteBuffer.allocateDirect(Math.max(slabSize, size));
+                slabCount += 1;
+            }
+
+            slab.limit(slab.position() + size);
+            ByteBuffer buffer = slab.slice();
+            slab.position(slab.limit());
+            slab.limit(slab.capacity());
+            return buffer;
+        }
+
+        synchronized int getSlabCount()
+        {
+            return slabCount;
+        }
+    }
+
+    // Pool shared by all connections
+    public static final BufferPool SHARED = new BufferPool(
+            Constants.BUFFER_POOL_SIZE_CLASSES, Constants.BUFFER_POOL_SLAB_SIZE,
+            Constants.BUFFER_POOL_MAX_SLABS);
+
+    // Cleaner running the leak records, created when leak detection is on
+    private static Cleaner cleaner = null;
+
+    // Size classes, smallest first
+    private volatile SizeClass classes[];
+
+    // Size of a slab and most slabs per size class
+    private volatile int slabSize;
+    private volatile int maxSlabs;
+
+    // Sizes of the buffers connections read requests into and write
+    // responses from
+    private volatile int requestBufferSize = Constants.BUFFER_SIZE;
+    private volatile int responseBufferSize = Constants.RESPONSE_BUFFER_SIZE;
+
+    // Whether borrowed buffers are tracked for leaks
+    private volatile boolean leakDetection = false;
+
+    // Statistics: borrowed, reused from a free list, cut from a slab,
+    // allocated outside of the pool, released and leaked buffers
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder carved = new LongAdder();
+    private final LongAdder unpooled = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+
+    /**
+     * Name       : BufferPool
+     * Input      : sizes as array of int, slabSize as int, maxSlabs as int
+     * Output     : none
+     * Description: Constructor that sets up the size classes, in increasing
+     *              order of size
+     * @param sizes
+     * @param slabSize
+     * @param maxSlabs
+     */
+    public BufferPool(int sizes[], int slabSize, int maxSlabs)
+    {
+        SizeClass created[] = new SizeClass[sizes.length];
+        for (int i = 0; i < sizes.length; i++)
+        {
+            created[i] = new SizeClass(sizes[i]);
+        }
+        this.classes = created;
+        this.slabSize = slabSize;
+        this.maxSlabs = maxSlabs;
+    }
+
+    /**
+     * Name       : configure
+     * Input      : requestSize as int, responseSize as int, slabSize as int,
+     *              maxSlabs as int
+     * Output     : none
+     * Description: Sets the sizes of the request and response buffers, which
+     *              become size classes next to the default ones, and the
+     *              slabs. Only allowed before the first borrow
+     * @param requestSize
+     * @param responseSize
+     * @param slabSize
+     * @param maxSlabs
+     */
+    public synchronized void configure(int requestSize, int responseSize,
+            int slabSize, int maxSlabs)
+    {
+        if (borrowed.sum() > 0)
+        {
+            throw new IllegalStateException("Buffer pool already in use");
+        }
+
+        // Default classes and the two buffer sizes, smallest first
+        TreeSet<Integer> sizes = new TreeSet<>();
+        for (int size : Constants.BUFFER_POOL_SIZE_CLASSES)
+        {
+            sizes.add(size);
+        }
+        sizes.add(requestSize);
+        sizes.add(responseSize);
+
+        SizeClass created[] = new SizeClass[sizes.size()];
+        int i = 0;
+        for (int size : sizes)
+        {
+            created[i++] = new SizeClass(size);
+        }
+        this.classes = created;
+        this.slabSize = slabSize;
+        this.maxSlabs = maxSlabs;
+        this.requestBufferSize = requestSize;
+        this.responseBufferSize = responseSize;
+    }
+
+    /**
+     * Name       : getRequestBufferSize
+     * Input      : none
+     * Output     : Size in bytes
+     * Description: Returns the size of the buffer requests are read into
+     * @return int
+     */
+    public int getRequestBufferSize()
+    {
+        return requestBufferSize;
+    }
+
+    /**
+     * Name       : getResponseBufferSize
+     * Input      : none
+     * Output     : Size in bytes
+     * Description: Returns the size of the buffer responses are written from
+     * @return int
+     */
+    public int getResponseBufferSize()
+    {
+        return responseBufferSize;
+    }
+
+    /**
+     * Name       : borrow
+     * Input      : minSize as int
+     * Output     : Buffer of at least minSize bytes
+     * Description: Borrows a cleared buffer from the smallest size class
+     *              that fits. Larger requests, and requests made once the
+     *              slabs of a class are used up, get a heap buffer outside
+     *              of the pool
+     * @param minSize
+     * @return buffer
+     */
+    public PooledBuffer borrow(int minSize)
+    {
+        borrowed.increment();
+        SizeClass classes[] = this.classes;
+
+        // Smallest class that fits
+        int index = 0;
+        while ((index < classes.length) && (classes[index].size < minSize))
+        {
+            index += 1;
+        }
+
+        ByteBuffer buffer = null;
+        if (index < classes.length)
+        {
+            buffer = classes[index].free.poll();
+            if (buffer != null)
+            {
+                hits.increment();
+            }
+            else
+            {
+                buffer = classes[index].carve(slabSize, maxSlabs);
+                if (buffer != null)
+                {
+                    carved.increment();
+                }
+            }
+        }
+
+        // Nothing pooled available
+        if (buffer == null)
+        {
+            unpooled.increment();
+            buffer = ByteBuffer.allocate((index < classes.length)
+                    ? classes[index].size : minSize);
+            index = -1;
+        }
+
+        // Track the buffer until it is released
+        LeakRecord leak = null;
+        PooledBuffer pooled = null;
+        if (leakDetection)
+        {
+            leak = new LeakRecord(leaks);
+            pooled = new PooledBuffer(this, index, buffer, leak);
+            getCleaner().register(pooled, leak);
+        }
+        else
+        {
+            pooled = new PooledBuffer(this, index, buffer, null);
+        }
+        return pooled;
+    }
+
+    /**
+     * Name       : release
+     * Input      : pooled as PooledBuffer
+     * Output     : none
+     * Description: Returns a buffer to the free list of its class
+     * @param pooled
+     */
+    void release(PooledBuffer pooled)
+    {
+        if (pooled.released)
+        {
+            // Giving a buffer back twice would hand it to two borrowers
+            if (leakDetection)
+            {
+                throw new IllegalStateException("Buffer released twice");
+            }
+            return;
+        }
+        pooled.released = true;
+        if (pooled.leak != null)
+        {
+            pooled.leak.released = true;
+        }
+        released.increment();
+
+        if (pooled.sizeClass >= 0)
+        {
+            pooled.buffer.clear();
+            classes[pooled.sizeClass].free.offer(pooled.buffer);
+        }
+    }
+
+    /**
+     * Name       : setLeakDetection
+     * Input      : enabled as boolean
+     * Output     : none
+     * Description: Turns leak detection on or off for buffers borrowed from
+     *              now on; it records a stack trace per borrow, so it is
+     *              meant for debugging
+     * @param enabled
+     */
+    public void setLeakDetection(boolean enabled)
+    {
+        leakDetection = enabled;
+    }
+
+    /**
+     * Name       : getHitRate
+     * Input      : none
+     * Output     : Share of borrows served from a free list, 0 to 1
+     * Description: Returns how often a released buffer was reused
+     * @return double
+     */
+    public double getHitRate()
+    {
+        long count = borrowed.sum();
+        return (count == 0) ? 0 : ((double) hits.sum() / count);
+    }
+
+    /**
+     * Name       : getOutstanding
+     * Input      : none
+     * Output     : Number of buffers borrowed and not released
+     * Description: Returns the buffers currently in use
+     * @return long
+     */
+    public long getOutstanding()
+    {
+        return borrowed.sum() - released.sum();
+    }
+
+    /**
+     * Name       : getStats
+     * Input      : none
+     * Output     : Statistics as string
+     * Description: Summarizes the use of the pool for the stats report
+     * @return statistics
+     */
+    public String getStats()
+    {
+        int slabs = 0;
+        for (SizeClass sizeClass : classes)
+        {
+            slabs += sizeClass.getSlabCount();
+        }
+
+        return "borrowed=" + borrowed.sum()
+                + " hitRate=" + String.format("%.1f%%", getHitRate() * 100)
+                + " carved=" + carved.sum()
+                + " unpooled=" + unpooled.sum()
+                + " outstanding=" + getOutstanding()
+                + " slabs=" + slabs
+                + " leaks=" + leaks.sum();
+    }
+
+    /**
+     * Name       : getCleaner
+     * Input      : none
+     * Output     : Cleaner for the leak records
+     * Description: Creates the cleaner, and its thread, on first use
+     * @return cleaner
+     */
+    private static synchronized Cleaner getCleaner()
+    {
+        if (cleaner == null)
+        {
+            cleaner = Cleaner.create();
+        }
+        return cleaner;
+    }
+}
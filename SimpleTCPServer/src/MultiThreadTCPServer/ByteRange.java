@@ -0,0 +1,152 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Name:        ByteRange
+ * Type:        Class
+ * Description: Range of bytes asked for with the Range header, resolved
+ *              against the size of the file; both ends are inclusive
+ */
+public class ByteRange
+{
+    // First and last byte of the range
+    public final long first;
+    public final long last;
+
+    /**
+     * Name       : ByteRange
+     * Input      : first as long, last as long
+     * Output     : none
+     * Description: Constructor
+     * @param first
+     * @param last
+     */
+    ByteRange(long first, long last)
+    {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Name       : getLength
+     * Input      : none
+     * Output     : Number of bytes in the range
+     * Description: Returns the length of the range
+     * @return long
+     */
+    public long getLength()
+    {
+        return last - first + 1;
+    }
+
+    /**
+     * Name       : parse
+     * Input      : range as String, size as long
+     * Output     : Satisfiable ranges; empty if none is, null if the header
+     *              must be ignored
+     * Description: Parses a Range header such as 'bytes=0-499,-500,1000-'.
+     *              Ranges starting past the end of the file are left out and
+     *              ends past it are cut to the last byte. Headers with
+     *              another unit, bad syntax or more than MAX_BYTE_RANGES
+     *              ranges are ignored and the whole file is sent
+     * @param range
+     * @param size
+     * @return ranges/null
+     */
+    public static List<ByteRange> parse(String range, long size)
+    {
+        range = range.trim();
+        if (!range.startsWith("bytes="))
+        {
+            return null;
+        }
+
+        String specs[] = range.substring("bytes=".length()).split(",");
+        if (specs.length > Constants.MAX_BYTE_RANGES)
+        {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs)
+        {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0)
+            {
+                return null;
+            }
+
+            long first = parseNumber(spec.substring(0, dash));
+            long last = parseNumber(spec.substring(dash + 1));
+
+            if (dash == 0)
+            {
+                // Suffix range: the last N bytes
+                if (last <= 0)
+                {
+                    if (last < 0)
+                        return null;
+                    continue;
+                }
+                if (size > 0)
+                {
+                    ranges.add(new ByteRange(Math.max(0, size - last), size - 1));
+                }
+            }
+            else
+            {
+                // From first to last, or to the end of the file
+                if ((first < 0) || ((dash < spec.length() - 1) && (last < first)))
+                {
+                    return null;
+                }
+                if (first < size)
+                {
+                    ranges.add(new ByteRange(first, ((dash == spec.length() - 1)
+                            || (last >= size)) ? size - 1 : last));
+                }
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Name       : parseNumber
+     * Input      : s as String
+     * Output     : Number as long, -1 if not a number
+     * Description: Parses the decimal position of a range; an empty string
+     *              is not a number
+     * @param s
+     * @return long
+     */
+    private static long parseNumber(String s)
+    {
+        s = s.trim();
+        if (s.isEmpty() || (s.length() > 18))
+        {
+            return -1;
+        }
+
+        long value = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if ((c < '0') || (c > '9'))
+            {
+                return -1;
+            }
+            value = (value * 10) + (c - '0');
+        }
+        return value;
+    }
+}
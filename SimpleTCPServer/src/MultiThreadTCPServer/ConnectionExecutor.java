@@ -0,0 +1,62 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+/**
+ * Name:        ConnectionExecutor
+ * Type:        Interface
+ * Description: Execution strategy used to run client connections in the
+ *              blocking server mode. Exposes its queue depth and active count
+ *              so that it can be sized under load
+ */
+public interface ConnectionExecutor
+{
+    /**
+     * Name       : execute
+     * Input      : clientConn as Runnable
+     * Output     : none
+     * Description: Runs the client connection. Throws
+     *              RejectedExecutionException when the strategy is saturated
+     * @param clientConn
+     */
+    void execute(Runnable clientConn);
+
+    /**
+     * Name       : getQueueDepth
+     * Input      : none
+     * Output     : Number of connections waiting for a thread
+     * Description: Returns the number of queued connections
+     * @return integer
+     */
+    int getQueueDepth();
+
+    /**
+     * Name       : getActiveCount
+     * Input      : none
+     * Output     : Number of connections being served
+     * Description: Returns the number of running connections
+     * @return integer
+     */
+    int getActiveCount();
+
+    /**
+     * Name       : getName
+     * Input      : none
+     * Output     : Name of the strategy as string
+     * Description: Returns the name used to select the strategy
+     * @return name
+     */
+    String getName();
+
+    /**
+     * Name       : shutdown
+     * Input      : none
+     * Output     : none
+     * Description: Stops accepting new connections
+     */
+    void shutdown();
+}
@@ -0,0 +1,281 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+/**
+ * Name:        ConnectionTimer
+ * Type:        Class
+ * Description: Timeout of a client connection, in a timer wheel. The
+ *              connection tells it what it is waiting for: the next request
+ *              on a persistent connection, the rest of a request, or a
+ *              write to make progress; each has its own limit, and a request
+ *              must also keep arriving at a minimum rate, so a client
+ *              sending a byte now and then can't hold the connection. The
+ *              wheel entry is only moved when a deadline comes closer; a
+ *              later deadline is picked up when the entry expires, so
+ *              updating the timer on every read or write is cheap. When a
+ *              limit is passed the connection is closed from the thread
+ *              advancing the wheel
+ */
+public class ConnectionTimer extends TimerWheel.Timeout
+{
+    // What the connection is waiting for
+    public static final int NONE = 0;
+    public static final int IDLE = 1;
+    public static final int HEADER = 2;
+    public static final int WRITE = 3;
+
+    // Reason of a timeout besides the phases: request arriving too slowly
+    public static final int RATE = 4;
+
+    // Names of the reasons, as labels of the timeout counter
+    public static final String REASONS[] = { "none", "idle", "header", "write", "rate" };
+
+    // Limits of the phases in milliseconds, and the slowest receive rate
+    // in bytes per second (0 for none)
+    private static volatile long idleTimeout = Constants.KEEP_ALIVE_TIMEOUT_MS;
+    private static volatile long headerTimeout = Constants.HEADER_READ_TIMEOUT_MS;
+    private static volatile long writeTimeout = Constants.WRITE_STALL_TIMEOUT_MS;
+    private static volatile long minReceiveRate = Constants.MIN_RECEIVE_RATE;
+
+    // Wheel the timer is in, and what closes the connection
+    private final TimerWheel wheel;
+    private final Runnable onTimeout;
+
+    // Current phase and its deadline; written by the connection, read by
+    // the thread advancing the wheel
+    private volatile int phase = NONE;
+    private volatile long deadline = 0;
+
+    // Bytes received, and the count and time of the next rate check; no
+    // check is due until the first byte of the request arrives
+    private volatile long received = 0;
+    private volatile long rateCheckBytes = 0;
+    private volatile long rateCheckAt = 0;
+
+    // Whether a limit was passed
+    private volatile boolean expired = false;
+
+    /**
+     * Name       : ConnectionTimer
+     * Input      : wheel as TimerWheel, onTimeout as Runnable
+     * Output     : none
+     * Description: Constructor
+     * @param wheel
+     * @param onTimeout
+     */
+    public ConnectionTimer(TimerWheel wheel, Runnable onTimeout)
+    {
+        this.wheel = wheel;
+        this.onTimeout = onTimeout;
+    }
+
+    /**
+     * Name       : configure
+     * Input      : idle as long, header as long, write as long,
+     *              minRate as long
+     * Output     : none
+     * Description: Sets the limits of all the connections, in milliseconds
+     *              and bytes per second
+     * @param idle
+     * @param header
+     * @param write
+     * @param minRate
+     */
+    public static void configure(long idle, long header, long write, long minRate)
+    {
+        if ((idle <= 0) || (header <= 0) || (write <= 0) || (minRate < 0))
+        {
+            throw new IllegalArgumentException("invalid connection timeout");
+        }
+        idleTimeout = idle;
+        headerTimeout = header;
+        writeTimeout = write;
+        minReceiveRate = minRate;
+    }
+
+    /**
+     * Name       : idle
+     * Input      : none
+     * Output     : none
+     * Description: The connection waits for the next request
+     */
+    public void idle()
+    {
+        enter(IDLE, System.currentTimeMillis() + idleTimeout);
+    }
+
+    /**
+     * Name       : readingHeaders
+     * Input      : started as boolean
+     * Output     : none
+     * Description: The connection waits for a request, or the rest of one
+     *              if started; the limit counts from the first call until
+     *              another phase, the receive rate from the first byte
+     * @param started
+     */
+    public void readingHeaders(boolean started)
+    {
+        if (phase == HEADER)
+        {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        rateCheckBytes = received;
+        rateCheckAt = started ? (now + Constants.MIN_RECEIVE_RATE_WINDOW_MS) : 0;
+        enter(HEADER, now + headerTimeout);
+    }
+
+    /**
+     * Name       : writing
+     * Input      : none
+     * Output     : none
+     * Description: The connection responds; called before every write so
+     *              that the limit counts from the last progress
+     */
+    public void writing()
+    {
+        enter(WRITE, System.currentTimeMillis() + writeTimeout);
+    }
+
+    /**
+     * Name       : received
+     * Input      : count as int
+     * Output     : none
+     * Description: Counts bytes received, for the receive rate
+     * @param count
+     */
+    public void received(int count)
+    {
+        if (count <= 0)
+        {
+            return;
+        }
+        received += count;
+
+        // First bytes of a request: measure its rate from now on
+        if ((phase == HEADER) && (rateCheckAt == 0) && (minReceiveRate > 0))
+        {
+            rateCheckAt = System.currentTimeMillis() + Constants.MIN_RECEIVE_RATE_WINDOW_MS;
+            wheel.schedule(this, rateCheckAt);
+        }
+    }
+
+    /**
+     * Name       : stop
+     * Input      : none
+     * Output     : none
+     * Description: Takes the timer out of the wheel once the connection is
+     *              closed
+     */
+    public void stop()
+    {
+        phase = NONE;
+        wheel.cancel(this);
+    }
+
+    /**
+     * Name       : hasExpired
+     * Input      : none
+     * Output     : True if the connection was closed by a timeout
+     * Description: Tells the connection that an I/O error was caused by the
+     *              timer closing the socket
+     * @return true/false
+     */
+    public boolean hasExpired()
+    {
+        return expired;
+    }
+
+    /**
+     * Name       : expire
+     * Input      : now as long
+     * Output     : none
+     * Description: Closes the connection if the limit of its phase passed
+     *              or the request arrives too slowly; otherwise schedules
+     *              the next check
+     * @param now
+     */
+    @Override
+    protected void expire(long now)
+    {
+        int current = phase;
+        if ((current == NONE) || expired)
+        {
+            return;
+        }
+
+        // Limit of the phase
+        if (now >= deadline)
+        {
+            timeOut(current);
+            return;
+        }
+
+        // Bytes of the request received over the last window
+        if ((current == HEADER) && (minReceiveRate > 0) && (rateCheckAt != 0)
+                && (now >= rateCheckAt))
+        {
+            long expected = (minReceiveRate * Constants.MIN_RECEIVE_RATE_WINDOW_MS) / 1000;
+            if (received - rateCheckBytes < expected)
+            {
+                timeOut(RATE);
+                return;
+            }
+            rateCheckBytes = received;
+            rateCheckAt = now + Constants.MIN_RECEIVE_RATE_WINDOW_MS;
+        }
+        wheel.schedule(this, nextCheck(current));
+    }
+
+    /**
+     * Name       : enter
+     * Input      : newPhase as int, newDeadline as long
+     * Output     : none
+     * Description: Switches the phase and makes sure the wheel checks the
+     *              timer no later than needed
+     * @param newPhase
+     * @param newDeadline
+     */
+    private void enter(int newPhase, long newDeadline)
+    {
+        deadline = newDeadline;
+        phase = newPhase;
+        wheel.schedule(this, nextCheck(newPhase));
+    }
+
+    /**
+     * Name       : nextCheck
+     * Input      : current as int
+     * Output     : Time of the next check
+     * Description: Returns the deadline, or the next rate check if sooner
+     * @param current
+     * @return long
+     */
+    private long nextCheck(int current)
+    {
+        if ((current == HEADER) && (minReceiveRate > 0) && (rateCheckAt != 0))
+        {
+            return Math.min(deadline, rateCheckAt);
+        }
+        return deadline;
+    }
+
+    /**
+     * Name       : timeOut
+     * Input      : reason as int
+     * Output     : none
+     * Description: Counts the timeout and closes the connection
+     * @param reason
+     */
+    private void timeOut(int reason)
+    {
+        expired = true;
+        ServerMetrics.SHARED.connectionTimedOut(reason);
+        onTimeout.run();
+    }
+}
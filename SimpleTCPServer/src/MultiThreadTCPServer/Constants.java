@@ -13,27 +13,183 @@ package MultiThreadTCPServer;
  */
 final public class Constants 
 {
+    // Configuration: file read with --config=<path> (a .properties file, or
+    // a flat .yml/.yaml mapping), prefixes of the system properties and
+    // environment variables that override it, and how often it is checked
+    // for changes with --config-check-interval=<ms> (0 turns reloading off).
+    // Settings are named after their command line options, eg pool-size,
+    // -Dsimpletcp.pool-size or SIMPLETCP_POOL_SIZE; these constants are
+    // the defaults
+    final public static String CONFIG_FILE = "";
+    final public static String CONFIG_PROPERTY_PREFIX = "simpletcp.";
+    final public static String CONFIG_ENVIRONMENT_PREFIX = "SIMPLETCP_";
+    final public static long CONFIG_CHECK_INTERVAL_MS = 1000;
+    
+    // Port, set with --port=<port>; request and response buffer sizes, set
+    // with --buffer-size=<bytes> and --response-buffer-size=<bytes>
     final public static int PORT = 6789;
     final public static int BUFFER_SIZE = 1024;
+    final public static int RESPONSE_BUFFER_SIZE = 65536;
+    
+    // Direct buffer pool for socket I/O: buffer sizes, size of the slabs
+    // they are cut from and most slabs per size, set with
+    // --buffer-pool-slab-size=<bytes> and --buffer-pool-max-slabs=<n>
+    final public static int BUFFER_POOL_SIZE_CLASSES[] = { BUFFER_SIZE, 4096, 16384, RESPONSE_BUFFER_SIZE };
+    final public static int BUFFER_POOL_SLAB_SIZE = 1024 * 1024;
+    final public static int BUFFER_POOL_MAX_SLABS = 16;
+    
+    // Largest accepted request header section and number of header lines
+    final public static int MAX_REQUEST_HEADER_SIZE = 8192;
+    final public static int MAX_REQUEST_HEADERS = 64;
+    
+    // Most byte ranges served for one request
+    final public static int MAX_BYTE_RANGES = 16;
     final public static String DEFAULT_FILE_PATH = "index.html";
     final public static String DEFAULT_FILE_NAME = "index.html";
     final public static String BASE_URL = "http://127.0.0.1:6789";
     final public static String BASE_URL_NO_PROTOCOL = "127.0.0.1:6789";
     
+    // Server modes, selected with --mode=<mode> on the command line
+    final public static String SERVER_MODE_BLOCKING = "blocking";
+    final public static String SERVER_MODE_NIO = "nio";
+    final public static String DEFAULT_SERVER_MODE = SERVER_MODE_BLOCKING;
+    
+    // Reactors of the non-blocking mode, set with --reactors=<n> (0 for one
+    // per core), --reactor-balance=<balance> and --reuseport=true to let
+    // every reactor listen on the port; clients accepted per event
+    final public static int DEFAULT_REACTORS = 0;
+    final public static String REACTOR_BALANCE_ROUND_ROBIN = "round-robin";
+    final public static String REACTOR_BALANCE_LEAST_LOADED = "least-loaded";
+    final public static String DEFAULT_REACTOR_BALANCE = REACTOR_BALANCE_ROUND_ROBIN;
+    final public static int ACCEPT_BATCH_SIZE = 64;
+    
+    // Connection execution strategies of the blocking mode, selected with
+    // --executor=<name>, --pool-size=<n> and --queue-capacity=<n>
+    final public static String EXECUTOR_THREAD_PER_CONNECTION = "thread";
+    final public static String EXECUTOR_BOUNDED_POOL = "bounded";
+    final public static String EXECUTOR_WORK_STEALING = "workstealing";
+    final public static String EXECUTOR_VIRTUAL_THREADS = "virtual";
+    final public static String DEFAULT_EXECUTOR = EXECUTOR_THREAD_PER_CONNECTION;
+    final public static int DEFAULT_POOL_SIZE = 200;
+    final public static int DEFAULT_QUEUE_CAPACITY = 1000;
+    
+    // Admission control, set with --backlog=<n>, --max-connections=<n>,
+    // --max-in-flight=<n> (0 for no limit), --overload-policy=<policy> and
+    // --retry-after=<seconds>. Over the limits, connections and requests
+    // are answered with 503, or no more connections are accepted until
+    // one closes
+    final public static int DEFAULT_ACCEPT_BACKLOG = 128;
+    final public static int DEFAULT_MAX_CONNECTIONS = 0;
+    final public static int DEFAULT_MAX_IN_FLIGHT = 0;
+    final public static String OVERLOAD_POLICY_REJECT = "reject";
+    final public static String OVERLOAD_POLICY_PAUSE = "pause";
+    final public static String DEFAULT_OVERLOAD_POLICY = OVERLOAD_POLICY_REJECT;
+    final public static int DEFAULT_RETRY_AFTER_SECONDS = 1;
+    
     // HTTP response line, with codes and status
     final public static String HTTP_RESPONSE_LINE_OK = "HTTP/1.1 200 OK\r\n";
     final public static String HTTP_RESPONSE_LINE_NOT_FOUND = "HTTP/1.1 404 Not Found\r\n";
     final public static String HTTP_RESPONSE_LINE_BAD_REQUEST = "HTTP/1.1 400 Bad Request\r\n";
     final public static String HTTP_RESPONSE_LINE_MOVED_PERMANENTLY = "HTTP/1.1 301 Moved Permanently\r\n";
+    final public static String HTTP_RESPONSE_LINE_PARTIAL_CONTENT = "HTTP/1.1 206 Partial Content\r\n";
+    final public static String HTTP_RESPONSE_LINE_NOT_MODIFIED = "HTTP/1.1 304 Not Modified\r\n";
+    final public static String HTTP_RESPONSE_LINE_RANGE_NOT_SATISFIABLE = "HTTP/1.1 416 Range Not Satisfiable\r\n";
+    final public static String HTTP_RESPONSE_LINE_SERVICE_UNAVAILABLE = "HTTP/1.1 503 Service Unavailable\r\n";
+    
+    final public static String HTTP_RESPONSE_HEADER_CONTENT_TYPE_HTML ="Content-Type: text/html\r\n";
+    final public static String HTTP_RESPONSE_HEADER_CONTENT_TYPE ="Content-Type: ";
+    final public static String HTTP_RESPONSE_HEADER_CONTENT_LENGTH ="Content-Length: ";
+    final public static String HTTP_RESPONSE_HEADER_TRANSFER_ENCODING_CHUNKED ="Transfer-Encoding: chunked\r\n";
+    final public static String HTTP_RESPONSE_HEADER_CONTENT_ENCODING_GZIP ="Content-Encoding: gzip\r\n";
+    final public static String HTTP_RESPONSE_HEADER_CONTENT_ENCODING_DEFLATE ="Content-Encoding: deflate\r\n";
+    final public static String HTTP_RESPONSE_HEADER_VARY_ACCEPT_ENCODING ="Vary: Accept-Encoding\r\n";
+    final public static String HTTP_RESPONSE_HEADER_ETAG ="ETag: ";
+    final public static String HTTP_RESPONSE_HEADER_LAST_MODIFIED ="Last-Modified: ";
+    final public static String HTTP_RESPONSE_HEADER_ACCEPT_RANGES ="Accept-Ranges: bytes\r\n";
+    final public static String HTTP_RESPONSE_HEADER_RETRY_AFTER ="Retry-After: ";
+    final public static String HTTP_RESPONSE_HEADER_CONTENT_RANGE ="Content-Range: bytes ";
+    final public static String HTTP_RESPONSE_HEADER_CONTENT_TYPE_METRICS ="Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n";
+    final public static String HTTP_RESPONSE_HEADER_CONTENT_TYPE_MULTIPART ="Content-Type: multipart/byteranges; boundary=";
+    final public static String HTTP_RESPONSE_HEADER_CONNECTION_KEEP_ALIVE ="Connection: keep-alive\r\n";
+    final public static String HTTP_RESPONSE_HEADER_CONNECTION_CLOSE ="Connection: close\r\n";
+    
+    // Persistent connections: requests served per connection, set with
+    // --max-keep-alive-requests=<n>, and how long an idle connection is
+    // kept open
+    final public static int MAX_KEEP_ALIVE_REQUESTS = 100;
+    final public static int KEEP_ALIVE_TIMEOUT_MS = 5000;
+    
+    // Connection timeouts, set with --header-timeout=<ms>,
+    // --keep-alive-timeout=<ms>, --write-timeout=<ms> and
+    // --min-receive-rate=<bytes per second> (0 turns it off): time to
+    // receive a request, time a write may make no progress, and slowest
+    // rate a request may arrive at, measured over a window. Enforced by a
+    // hashed timer wheel with the given tick and slots
+    final public static int HEADER_READ_TIMEOUT_MS = 10000;
+    final public static int WRITE_STALL_TIMEOUT_MS = 30000;
+    final public static int MIN_RECEIVE_RATE = 100;
+    final public static int MIN_RECEIVE_RATE_WINDOW_MS = 2000;
+    final public static int TIMER_WHEEL_TICK_MS = 100;
+    final public static int TIMER_WHEEL_SLOTS = 512;
+    
+    // Largest piece of a file sent to a blocking socket in one call, so that
+    // the write timeout measures progress rather than the whole transfer
+    final public static int TRANSFER_CHUNK_SIZE = 512 * 1024;
+    
+    // Byte budget of the static content cache and largest file it holds,
+    // set with --content-cache-max-bytes=<n> and
+    // --content-cache-max-entry-bytes=<n>
+    final public static long CONTENT_CACHE_MAX_BYTES = 32L * 1024 * 1024;
+    final public static long CONTENT_CACHE_MAX_ENTRY_BYTES = 1024L * 1024;
+    
+    // Memory mapped serving of large files: smallest file mapped (-1 turns
+    // it off) and limit on the bytes mapped at once, set with
+    // --mmap-min-size=<bytes> and --mmap-max-bytes=<n>
+    final public static long MAPPED_FILES_MIN_SIZE = -1;
+    final public static long MAPPED_FILES_MAX_BYTES = 256L * 1024 * 1024;
+    
+    // Access and error logs (an empty path turns the access log off and
+    // sends errors to the standard error stream): slots of the ring buffer
+    // records wait in, longest field kept, write buffer, how often the
+    // writer flushes, and the size and age at which files are rotated
+    final public static String ACCESS_LOG_FILE = "./logs/access.log";
+    final public static String ERROR_LOG_FILE = "./logs/error.log";
+    final public static int ACCESS_LOG_RING_SIZE = 8192;
+    final public static int ACCESS_LOG_MAX_FIELD = 256;
+    final public static int ACCESS_LOG_WRITE_BUFFER_SIZE = 64 * 1024;
+    final public static long ACCESS_LOG_FLUSH_INTERVAL_MS = 10;
+    final public static long LOG_ROTATE_BYTES = 64L * 1024 * 1024;
+    final public static long LOG_ROTATE_INTERVAL_MS = 24L * 60 * 60 * 1000;
+    
+    // Reserved path the metrics are served from
+    final public static String METRICS_PATH = "/metrics";
+    
+    // Directory the files are served from, set with --document-root=<dir>.
+    // Resolved path cache: most targets and files remembered, and how long
+    // a missing file is remembered, set with --path-cache-max-entries=<n>
+    // and --path-cache-negative-ttl=<ms>; changes under the document root
+    // are picked up by a watch service
+    final public static String DOCUMENT_ROOT = ".";
+    final public static int PATH_CACHE_MAX_ENTRIES = 10000;
+    final public static long PATH_CACHE_NEGATIVE_TTL_MS = 2000;
     
-    final public static String HTTP_RESPONSE_HEADER_CONTENT_TYPE_HTML ="Content-Type: text/html\r\n\r\n";
-    final public static String HTTP_RESPONSE_HEADER_CONTENT_TYPE_IMAGE ="Content-Type: image\r\n\r\n";
+    // Content codings, as bits of the accepted set; text content is sent
+    // compressed, preferring a precompressed sibling file with this suffix
+    final public static int ENCODING_IDENTITY = 0;
+    final public static int ENCODING_GZIP = 1;
+    final public static int ENCODING_DEFLATE = 2;
+    final public static String PRECOMPRESSED_GZIP_SUFFIX = ".gz";
     
-    // HTML files to show (error) messages
+    // HTML files to show (error) messages, set with --moved-page=<file>,
+    // --error-page-404=<file>, --error-page-400=<file> and
+    // --error-page-503=<file>
     final public static String HTTP_MOVED_PERMANENTLY_MESSAGE_HTML_FILE = "./errorfiles/MovedPermanently-301.html";
     final public static String HTTP_ERROR_404_HTML_FILE = "./errorfiles/Error-404.html";
     final public static String HTTP_ERROR_400_HTML_FILE = "./errorfiles/Error-400.html";
+    final public static String HTTP_ERROR_503_HTML_FILE = "./errorfiles/Error-503.html";
     
+    // Log of the permanently moved files, set with --redirect-log=<file>
     final public static String PERMANENTLY_MOVED_FILES_RECORDS = "./movedfileslog/movedfiles.log";
     final public static String PERMANENTLY_MOVED_FILES_MAPPING_SEPARATOR = "->";
+    final public static int REDIRECT_TABLE_CHECK_INTERVAL_MS = 1000;
 }
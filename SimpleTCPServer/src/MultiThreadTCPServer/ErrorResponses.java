@@ -0,0 +1,363 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+
+/**
+ * Name:        ErrorResponses
+ * Type:        Class
+ * Description: Complete 400, 404, 503 and 301 responses, read from the error
+ *              files and encoded once at startup. Sending one costs a single
+ *              write and no file I/O. The 404 and 301 responses also come
+ *              without their data, for HEAD requests. readPages() reads
+ *              the files, and setPages() swaps in the responses built from
+ *              them atomically
+ */
+public final class ErrorResponses
+{
+    /**
+     * Name:        Pages
+     * Type:        Class
+     * Description: Contents of the error files of the 400, 404 and 503
+     *              responses, and of the message file of the 301 response
+     */
+    public static final class Pages
+    {
+        final String badRequest;
+        final String notFound;
+        final String serviceUnavailable;
+        final String moved;
+
+        Pages(String badRequest, String notFound, String serviceUnavailable,
+                String moved)
+        {
+            this.badRequest = badRequest;
+            this.notFound = notFound;
+            this.serviceUnavailable = serviceUnavailable;
+            this.moved = moved;
+        }
+    }
+
+    // Responses built from the current error files
+    private static volatile ErrorResponses current = null;
+
+    // Complete 400 response; a bad request always closes the connection
+    private final byte badRequest[];
+
+    // Complete 404 responses for persistent and closing connections, and
+    // their headers alone
+    private final byte notFoundKeepAlive[];
+    private final byte notFoundClose[];
+    private final byte notFoundHeadKeepAlive[];
+    private final byte notFoundHeadClose[];
+
+    // Complete 503 response telling the client when to retry; the
+    // connection is closed after it
+    private final byte serviceUnavailable[];
+
+    // 301 response around the Location value: response line and
+    // 'Location: ' before it; line end, remaining headers and data after it
+    private final byte movedPrefix[];
+    private final byte movedSuffixKeepAlive[];
+    private final byte movedSuffixClose[];
+    private final byte movedSuffixHeadKeepAlive[];
+    private final byte movedSuffixHeadClose[];
+
+    // Length of the data of the 400, 404, 503 and 301 responses
+    private final int badRequestBodyLength;
+    private final int notFoundBodyLength;
+    private final int serviceUnavailableBodyLength;
+    private final int movedBodyLength;
+
+    /**
+     * Name       : ErrorResponses
+     * Input      : pages as Pages
+     * Output     : none
+     * Description: Constructor that encodes the responses around the pages
+     * @param pages
+     */
+    private ErrorResponses(Pages pages)
+    {
+        String body400 = pages.badRequest;
+        String body404 = pages.notFound;
+        String body503 = pages.serviceUnavailable;
+        String body301 = pages.moved;
+        badRequestBodyLength = body400.getBytes(StandardCharsets.ISO_8859_1).length;
+        notFoundBodyLength = body404.getBytes(StandardCharsets.ISO_8859_1).length;
+        serviceUnavailableBodyLength = body503.getBytes(StandardCharsets.ISO_8859_1).length;
+        movedBodyLength = body301.getBytes(StandardCharsets.ISO_8859_1).length;
+
+        badRequest = encode(Constants.HTTP_RESPONSE_LINE_BAD_REQUEST, "", body400,
+                false, true);
+        notFoundKeepAlive = encode(Constants.HTTP_RESPONSE_LINE_NOT_FOUND, "", body404,
+                true, true);
+        notFoundClose = encode(Constants.HTTP_RESPONSE_LINE_NOT_FOUND, "", body404,
+                false, true);
+        notFoundHeadKeepAlive = encode(Constants.HTTP_RESPONSE_LINE_NOT_FOUND, "", body404,
+                true, false);
+        notFoundHeadClose = encode(Constants.HTTP_RESPONSE_LINE_NOT_FOUND, "", body404,
+                false, false);
+        serviceUnavailable = encode(Constants.HTTP_RESPONSE_LINE_SERVICE_UNAVAILABLE,
+                Constants.HTTP_RESPONSE_HEADER_RETRY_AFTER
+                        + AdmissionControl.SHARED.getRetryAfter() + "\r\n",
+                body503, false, true);
+
+        movedPrefix = (Constants.HTTP_RESPONSE_LINE_MOVED_PERMANENTLY + "Location: ")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        movedSuffixKeepAlive = encode("", "\r\n", body301, true, true);
+        movedSuffixClose = encode("", "\r\n", body301, false, true);
+        movedSuffixHeadKeepAlive = encode("", "\r\n", body301, true, false);
+        movedSuffixHeadClose = encode("", "\r\n", body301, false, false);
+    }
+
+    /**
+     * Name       : readPages
+     * Input      : badRequest as String, notFound as String,
+     *              serviceUnavailable as String, moved as String
+     * Output     : Contents of the files as Pages
+     * Description: Reads the files of the 400, 404, 503 and 301 responses;
+     *              nothing is changed until they are set
+     * @param badRequest
+     * @param notFound
+     * @param serviceUnavailable
+     * @param moved
+     * @return pages
+     * @throws IllegalArgumentException if a file can't be read
+     */
+    public static Pages readPages(String badRequest, String notFound,
+            String serviceUnavailable, String moved)
+    {
+        return new Pages(readErrorFile(badRequest), readErrorFile(notFound),
+                readErrorFile(serviceUnavailable), readErrorFile(moved));
+    }
+
+    /**
+     * Name       : setPages
+     * Input      : pages as Pages
+     * Output     : none
+     * Description: Replaces the responses with ones built from the pages
+     *              and the current Retry-After value
+     * @param pages
+     */
+    public static void setPages(Pages pages)
+    {
+        current = new ErrorResponses(pages);
+    }
+
+    /**
+     * Name       : get
+     * Input      : none
+     * Output     : Current responses
+     * Description: Returns the responses, building them from the default
+     *              files on first use; a default file that can't be read
+     *              gives an empty page
+     * @return responses
+     */
+    private static ErrorResponses get()
+    {
+        ErrorResponses responses = current;
+        if (responses == null)
+        {
+            responses = new ErrorResponses(new Pages(
+                    readDefaultFile(Constants.HTTP_ERROR_400_HTML_FILE),
+                    readDefaultFile(Constants.HTTP_ERROR_404_HTML_FILE),
+                    readDefaultFile(Constants.HTTP_ERROR_503_HTML_FILE),
+                    readDefaultFile(Constants.HTTP_MOVED_PERMANENTLY_MESSAGE_HTML_FILE)));
+            current = responses;
+        }
+        return responses;
+    }
+
+    /**
+     * Name       : getBadRequest
+     * Input      : none
+     * Output     : Complete 400 response as bytes
+     * Description: Returns the pre-encoded 400 Bad Request response
+     * @return bytes
+     */
+    public static byte[] getBadRequest()
+    {
+        return get().badRequest;
+    }
+
+    /**
+     * Name       : getNotFound
+     * Input      : head as boolean, keepAlive as boolean
+     * Output     : Complete 404 response as bytes
+     * Description: Returns the pre-encoded 404 Not Found response; without
+     *              the data for a HEAD request
+     * @param head
+     * @param keepAlive
+     * @return bytes
+     */
+    public static byte[] getNotFound(boolean head, boolean keepAlive)
+    {
+        ErrorResponses responses = get();
+        if (head)
+        {
+            return keepAlive ? responses.notFoundHeadKeepAlive : responses.notFoundHeadClose;
+        }
+        return keepAlive ? responses.notFoundKeepAlive : responses.notFoundClose;
+    }
+
+    /**
+     * Name       : getServiceUnavailable
+     * Input      : none
+     * Output     : Complete 503 response as bytes
+     * Description: Returns the pre-encoded 503 Service Unavailable response
+     * @return bytes
+     */
+    public static byte[] getServiceUnavailable()
+    {
+        return get().serviceUnavailable;
+    }
+
+    /**
+     * Name       : getMovedPrefix
+     * Input      : none
+     * Output     : Start of the 301 response as bytes
+     * Description: Returns the 301 response up to the Location value
+     * @return bytes
+     */
+    public static byte[] getMovedPrefix()
+    {
+        return get().movedPrefix;
+    }
+
+    /**
+     * Name       : getMovedSuffix
+     * Input      : head as boolean, keepAlive as boolean
+     * Output     : End of the 301 response as bytes
+     * Description: Returns the 301 response after the Location value;
+     *              without the data for a HEAD request
+     * @param head
+     * @param keepAlive
+     * @return bytes
+     */
+    public static byte[] getMovedSuffix(boolean head, boolean keepAlive)
+    {
+        ErrorResponses responses = get();
+        if (head)
+        {
+            return keepAlive ? responses.movedSuffixHeadKeepAlive
+                    : responses.movedSuffixHeadClose;
+        }
+        return keepAlive ? responses.movedSuffixKeepAlive : responses.movedSuffixClose;
+    }
+
+    /**
+     * Name       : getBodyLength
+     * Input      : status as int, head as boolean
+     * Output     : Length of the data as int
+     * Description: Returns the length of the data of the 400, 404, 503 or
+     *              301 response; the 404 and 301 responses to a HEAD request
+     *              have none
+     * @param status
+     * @param head
+     * @return int
+     */
+    public static int getBodyLength(int status, boolean head)
+    {
+        ErrorResponses responses = get();
+        switch (status)
+        {
+            case 400:
+                return responses.badRequestBodyLength;
+            case 404:
+                return head ? 0 : responses.notFoundBodyLength;
+            case 503:
+                return responses.serviceUnavailableBodyLength;
+            case 301:
+                return head ? 0 : responses.movedBodyLength;
+            default:
+                throw new IllegalArgumentException("status " + status);
+        }
+    }
+
+    /**
+     * Name       : encode
+     * Input      : responseLine as String, prefix as String, body as String,
+     *              keepAlive as boolean, withBody as boolean
+     * Output     : Response as bytes
+     * Description: Encodes a response line, html headers and, unless it is
+     *              the response to a HEAD request, data
+     * @param responseLine
+     * @param prefix
+     * @param body
+     * @param keepAlive
+     * @param withBody
+     * @return bytes
+     */
+    private static byte[] encode(String responseLine, String prefix, String body,
+            boolean keepAlive, boolean withBody)
+    {
+        byte data[] = body.getBytes(StandardCharsets.ISO_8859_1);
+        String responseMsg = responseLine + prefix;
+        responseMsg += Constants.HTTP_RESPONSE_HEADER_CONTENT_TYPE_HTML;
+        responseMsg += Constants.HTTP_RESPONSE_HEADER_CONTENT_LENGTH + data.length + "\r\n";
+        responseMsg += (keepAlive ? Constants.HTTP_RESPONSE_HEADER_CONNECTION_KEEP_ALIVE
+                : Constants.HTTP_RESPONSE_HEADER_CONNECTION_CLOSE);
+        responseMsg += "\r\n";
+        if (withBody)
+        {
+            responseMsg += body;
+        }
+        return responseMsg.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Name       : readErrorFile
+     * Input      : path as String
+     * Output     : File content as string
+     * Description: Reads an error file
+     * @param path
+     * @return content
+     * @throws IllegalArgumentException if the file can't be read
+     */
+    private static String readErrorFile(String path)
+    {
+        try
+        {
+            return new String(Files.readAllBytes(Paths.get(path)),
+                    StandardCharsets.ISO_8859_1);
+        }
+
+        // Catch an IO Exception and report the file as invalid
+        catch (IOException | InvalidPathException e)
+        {
+            throw new IllegalArgumentException("error page " + path + ": " + e, e);
+        }
+    }
+
+    /**
+     * Name       : readDefaultFile
+     * Input      : path as String
+     * Output     : File content as string
+     * Description: Reads a default error file; an empty message is used if
+     *              the file can't be read
+     * @param path
+     * @return content
+     */
+    private static String readDefaultFile(String path)
+    {
+        try
+        {
+            return readErrorFile(path);
+        }
+        catch (IllegalArgumentException e)
+        {
+            AccessLog.SHARED.logError("Couldn't read error file " + path, e.getCause());
+            return "";
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Name:        HttpRequest
+ * Type:        Class
+ * Description: Parsed request message. Holds offsets into the receive buffer
+ *              instead of strings, so parsing allocates nothing; strings are
+ *              only created when a value is asked for. One instance is reused
+ *              for every request of a connection and is only valid until the
+ *              next bytes are received
+ */
+public class HttpRequest
+{
+    // Receive buffer the offsets refer to
+    byte data[] = null;
+
+    // Whether the request failed validation
+    boolean bad = false;
+
+    // Request method; one of the constant method names
+    String method = null;
+
+    // Request target
+    int targetStart = 0;
+    int targetEnd = 0;
+    private String target = null;
+
+    // Whether the version is HTTP/1.1 (otherwise HTTP/1.0)
+    boolean http11 = false;
+
+    // Header names (without the colon) and trimmed values
+    int headerCount = 0;
+    final int nameStart[] = new int[Constants.MAX_REQUEST_HEADERS];
+    final int nameEnd[] = new int[Constants.MAX_REQUEST_HEADERS];
+    final int valueStart[] = new int[Constants.MAX_REQUEST_HEADERS];
+    final int valueEnd[] = new int[Constants.MAX_REQUEST_HEADERS];
+
+    // Index of the Host header
+    int hostIndex = -1;
+
+    // Whether the client asked for a persistent connection
+    boolean keepAliveRequested = false;
+
+    // Length of the body that follows the headers
+    long contentLength = 0;
+
+    // Address of the client; set once per connection, kept across requests
+    byte clientAddress[] = null;
+
+    /**
+     * Name       : reset
+     * Input      : data as array of bytes
+     * Output     : none
+     * Description: Clears the previous request before parsing the next one
+     * @param data
+     */
+    void reset(byte data[])
+    {
+        this.data = data;
+        bad = false;
+        method = null;
+        targetStart = 0;
+        targetEnd = 0;
+        target = null;
+        http11 = false;
+        headerCount = 0;
+        hostIndex = -1;
+        keepAliveRequested = false;
+        contentLength = 0;
+    }
+
+    /**
+     * Name       : setClientAddress
+     * Input      : address as InetAddress
+     * Output     : none
+     * Description: Keeps the address of the client of the connection
+     * @param address
+     */
+    void setClientAddress(InetAddress address)
+    {
+        clientAddress = (address == null) ? null : address.getAddress();
+    }
+
+    /**
+     * Name       : markBad
+     * Input      : none
+     * Output     : none
+     * Description: Flags the request as a bad request
+     */
+    void markBad()
+    {
+        bad = true;
+        keepAliveRequested = false;
+    }
+
+    /**
+     * Name       : isBad
+     * Input      : none
+     * Output     : True if the request must be answered with 400
+     * Description: Tells whether the request failed validation
+     * @return true/false
+     */
+    public boolean isBad()
+    {
+        return bad;
+    }
+
+    /**
+     * Name       : getMethod
+     * Input      : none
+     * Output     : Method as string; eg: GET
+     * Description: Returns the request method
+     * @return method
+     */
+    public String getMethod()
+    {
+        return method;
+    }
+
+    /**
+     * Name       : isHead
+     * Input      : none
+     * Output     : True for a HEAD request
+     * Description: Tells whether the response must leave out the data; it
+     *              carries the same headers as the response to a GET
+     * @return true/false
+     */
+    public boolean isHead()
+    {
+        return "HEAD".equals(method);
+    }
+
+    /**
+     * Name       : getTarget
+     * Input      : none
+     * Output     : Request target as string
+     * Description: Returns the requested path, creating the string once
+     * @return target
+     */
+    public String getTarget()
+    {
+        if (target == null)
+        {
+            target = new String(data, targetStart, targetEnd - targetStart,
+                    StandardCharsets.ISO_8859_1);
+        }
+        return target;
+    }
+
+    /**
+     * Name       : isHttp11
+     * Input      : none
+     * Output     : True for HTTP/1.1, false for HTTP/1.0
+     * Description: Returns the protocol version
+     * @return true/false
+     */
+    public boolean isHttp11()
+    {
+        return http11;
+    }
+
+    /**
+     * Name       : isKeepAliveRequested
+     * Input      : none
+     * Output     : True if the connection should stay open
+     * Description: HTTP/1.1 connections are persistent unless the client
+     *              sends 'Connection: close'; HTTP/1.0 connections only when
+     *              the client sends 'Connection: keep-alive'
+     * @return true/false
+     */
+    public boolean isKeepAliveRequested()
+    {
+        return keepAliveRequested;
+    }
+
+    /**
+     * Name       : getContentLength
+     * Input      : none
+     * Output     : Length of the request body
+     * Description: Returns the Content-Length of the request, 0 if none
+     * @return long
+     */
+    public long getContentLength()
+    {
+        return contentLength;
+    }
+
+    /**
+     * Name       : getAcceptedEncodings
+     * Input      : none
+     * Output     : Accepted content codings as ENCODING_* bits
+     * Description: Returns the codings the client accepts according to its
+     *              Accept-Encoding header; none if it didn't send one
+     * @return integer
+     */
+    public int getAcceptedEncodings()
+    {
+        int index = findHeader("Accept-Encoding");
+        if (index < 0)
+        {
+            return Constants.ENCODING_IDENTITY;
+        }
+        return HttpRequestParser.parseAcceptEncoding(data, valueStart[index],
+                valueEnd[index]);
+    }
+
+    /**
+     * Name       : getHost
+     * Input      : none
+     * Output     : Host header value as string
+     * Description: Returns the value of the Host header
+     * @return host
+     */
+    public String getHost()
+    {
+        return getHeaderValue(hostIndex);
+    }
+
+    /**
+     * Name       : getHeader
+     * Input      : name as String
+     * Output     : Header value as string, or null if not sent
+     * Description: Returns the value of the first header with that name
+     * @param name
+     * @return value
+     */
+    public String getHeader(String name)
+    {
+        return getHeaderValue(findHeader(name));
+    }
+
+    /**
+     * Name       : findHeader
+     * Input      : name as String
+     * Output     : Index of the header, or -1 if not sent
+     * Description: Looks a header up by name without creating strings; the
+     *              name is compared ignoring case
+     * @param name
+     * @return integer
+     */
+    public int findHeader(String name)
+    {
+        for (int i = 0; i < headerCount; i++)
+        {
+            if (HttpRequestParser.equalsIgnoreCase(data, nameStart[i], nameEnd[i], name))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Name       : getHeaderValue
+     * Input      : index as int
+     * Output     : Header value as string, or null for index -1
+     * Description: Returns the value of the header at index
+     * @param index
+     * @return value
+     */
+    public String getHeaderValue(int index)
+    {
+        if (index < 0)
+        {
+            return null;
+        }
+        return new String(data, valueStart[index], valueEnd[index] - valueStart[index],
+                StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,665 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Name:        HttpRequestParser
+ * Type:        Class
+ * Description: Parses and validates a request message directly on the
+ *              received bytes. Applies the same rules as
+ *              Utilities.checkForRequestMsgErrors without splitting the
+ *              message into strings or running regular expressions
+ */
+public class HttpRequestParser
+{
+    // Supported methods; the parsed request refers to these strings
+    private static final String METHODS[] = {"GET", "POST", "HEAD", "PUT", "DELETE"};
+
+    // Supported versions
+    private static final byte HTTP_1_1[] = ascii("HTTP/1.1");
+    private static final byte HTTP_1_0[] = ascii("HTTP/1.0");
+
+    // Allowed header fields, as they appear before the first space
+    private static final byte ALLOWED_FIELDS[][] = {
+        ascii("Accept:"), ascii("Accept-Charset:"), ascii("Accept-Encoding:"),
+        ascii("Accept-Language:"), ascii("Accept-Datetime:"), ascii("Cache-Control:"),
+        ascii("Connection:"), ascii("Cookie:"), ascii("Content-Length:"),
+        ascii("Content-MD5:"), ascii("Content-Type:"), ascii("Date:"),
+        ascii("Expect:"), ascii("From:"), ascii("Host:"), ascii("If-Match:"),
+        ascii("If-Modified-Since:"), ascii("If-Non-Match:"), ascii("If-None-Match:"),
+        ascii("If-Range:"), ascii("If-Unmodified-Since:"), ascii("Max-Forwards:"),
+        ascii("Origins:"),
+        ascii("Pragma:"), ascii("Proxy-Authorization:"), ascii("Proxy-Connection:"),
+        ascii("Range:"), ascii("Referer:"), ascii("TE:"), ascii("User-Agent:"),
+        ascii("Via:"), ascii("Warning"), ascii("Warning:")
+    };
+
+    // Header fields with a meaning for the parser
+    private static final byte HOST[] = ascii("Host:");
+    private static final byte CONNECTION[] = ascii("Connection:");
+    private static final byte CONTENT_LENGTH[] = ascii("Content-Length:");
+
+    /**
+     * Name       : parse
+     * Input      : data as array of bytes, start as int, end as int,
+     *              request as HttpRequest
+     * Output     : none
+     * Description: Parses the header section in data[start, end), which ends
+     *              with the blank line, into the request. Invalid requests
+     *              are flagged with markBad
+     * @param data
+     * @param start
+     * @param end
+     * @param request
+     */
+    public static void parse(byte data[], int start, int end, HttpRequest request)
+    {
+        request.reset(data);
+
+        // End of the request line, without the line break
+        int lineEnd = indexOf(data, start, end, (byte) '\n');
+        int pos = lineEnd + 1;
+        lineEnd = trimEnd(data, start, lineEnd);
+
+        // Check the request line
+        if (!parseRequestLine(data, start, lineEnd, request))
+        {
+            request.markBad();
+            return;
+        }
+
+        // Persistent by default for HTTP/1.1 only
+        request.keepAliveRequested = request.http11;
+
+        // Number of Host headers, and whether a Content-Length was given
+        int hostCount = 0;
+        boolean lengthSeen = false;
+
+        // Check each header line up to the blank line
+        while (pos < end)
+        {
+            // Line bounds
+            int next = indexOf(data, pos, end, (byte) '\n');
+            int lineStart = pos;
+            lineEnd = trimEnd(data, pos, next);
+            pos = next + 1;
+
+            // Blank line; end of the headers
+            if (isBlank(data, lineStart, lineEnd))
+            {
+                break;
+            }
+
+            // Field part of the header line, up to the first space
+            int fieldEnd = indexOf(data, lineStart, lineEnd, (byte) ' ');
+            if (!isAllowedField(data, lineStart, fieldEnd)
+                    || (request.headerCount == Constants.MAX_REQUEST_HEADERS))
+            {
+                request.markBad();
+                return;
+            }
+
+            // Record the header name and trimmed value
+            int i = request.headerCount++;
+            request.nameStart[i] = lineStart;
+            request.nameEnd[i] = (data[fieldEnd - 1] == ':') ? fieldEnd - 1 : fieldEnd;
+            request.valueStart[i] = trimStart(data, Math.min(fieldEnd + 1, lineEnd), lineEnd);
+            request.valueEnd[i] = lineEnd;
+
+            // Headers the parser acts on
+            if (equals(data, lineStart, fieldEnd, HOST))
+            {
+                hostCount += 1;
+                request.hostIndex = i;
+            }
+            else if (equals(data, lineStart, fieldEnd, CONNECTION))
+            {
+                if (equalsIgnoreCase(data, request.valueStart[i], lineEnd, "close"))
+                    request.keepAliveRequested = false;
+                else if (equalsIgnoreCase(data, request.valueStart[i], lineEnd, "keep-alive"))
+                    request.keepAliveRequested = true;
+            }
+            else if (equals(data, lineStart, fieldEnd, CONTENT_LENGTH))
+            {
+                // An invalid or conflicting length leaves the end of the
+                // body unknown; the rest of the connection can't be trusted
+                long length = parseLength(data, request.valueStart[i], lineEnd);
+                if ((length < 0) || (lengthSeen && (length != request.contentLength)))
+                {
+                    request.markBad();
+                    return;
+                }
+                request.contentLength = length;
+                lengthSeen = true;
+            }
+        }
+
+        // Exactly one valid Host header is required
+        if ((hostCount != 1) || !isValidHost(data,
+                request.valueStart[request.hostIndex], request.valueEnd[request.hostIndex]))
+        {
+            request.markBad();
+        }
+    }
+
+    /**
+     * Name       : parseRequestLine
+     * Input      : data as array of bytes, start as int, end as int,
+     *              request as HttpRequest
+     * Output     : True if the request line is valid
+     * Description: Parses method, target and version
+     * @param data
+     * @param start
+     * @param end
+     * @param request
+     * @return true/false
+     */
+    private static boolean parseRequestLine(byte data[], int start, int end,
+            HttpRequest request)
+    {
+        // Request line should have command, url and version
+        int sp1 = indexOf(data, start, end, (byte) ' ');
+        int sp2 = indexOf(data, sp1 + 1, end, (byte) ' ');
+        if ((sp1 >= end) || (sp2 >= end))
+        {
+            return false;
+        }
+
+        // Commands other than GET, POST, HEAD, PUT, DELETE are errors
+        for (String method : METHODS)
+        {
+            if (equals(data, start, sp1, method))
+            {
+                request.method = method;
+            }
+        }
+        if (request.method == null)
+        {
+            return false;
+        }
+
+        // Check the path syntax
+        request.targetStart = sp1 + 1;
+        request.targetEnd = sp2;
+        if (!isValidTarget(data, sp1 + 1, sp2))
+        {
+            return false;
+        }
+
+        // Support only Http/1.1 and http/1.0
+        if (equals(data, sp2 + 1, end, HTTP_1_1))
+        {
+            request.http11 = true;
+            return true;
+        }
+        return equals(data, sp2 + 1, end, HTTP_1_0);
+    }
+
+    /**
+     * Name       : isValidTarget
+     * Input      : data as array of bytes, start as int, end as int
+     * Output     : True if the path is '/' or matches (/[\w.]+)+/?
+     * Description: Checks the path syntax
+     * @param data
+     * @param start
+     * @param end
+     * @return true/false
+     */
+    private static boolean isValidTarget(byte data[], int start, int end)
+    {
+        // Path with no directory or file name
+        if ((end - start == 1) && (data[start] == '/'))
+        {
+            return true;
+        }
+
+        int pos = start;
+        int segments = 0;
+        while (pos < end)
+        {
+            // Each segment starts with a slash
+            if (data[pos] != '/')
+            {
+                return false;
+            }
+            pos += 1;
+
+            // Optional ending slash after at least one segment
+            if ((pos == end) && (segments > 0))
+            {
+                return true;
+            }
+
+            // Segment of word characters and dots
+            int segmentStart = pos;
+            while ((pos < end) && (isWordChar(data[pos]) || (data[pos] == '.')))
+            {
+                pos += 1;
+            }
+            if (pos == segmentStart)
+            {
+                return false;
+            }
+            segments += 1;
+        }
+        return segments > 0;
+    }
+
+    /**
+     * Name       : isValidHost
+     * Input      : data as array of bytes, start as int, end as int
+     * Output     : True if the host matches
+     *              (((http://)?([\w-\d]+\.)+[\w-\d]+){0,1}(:\d{4})?)
+     * Description: Checks the Host header value
+     * @param data
+     * @param start
+     * @param end
+     * @return true/false
+     */
+    private static boolean isValidHost(byte data[], int start, int end)
+    {
+        int pos = start;
+
+        // Optional protocol, only together with a host name
+        boolean hostRequired = false;
+        if (startsWith(data, pos, end, "http://"))
+        {
+            pos += "http://".length();
+            hostRequired = true;
+        }
+
+        // Host name of at least two dot separated labels
+        int labels = 0;
+        int labelStart = pos;
+        while ((pos < end) && (data[pos] != ':'))
+        {
+            if (data[pos] == '.')
+            {
+                if (pos == labelStart)
+                    return false;
+                labels += 1;
+                labelStart = pos + 1;
+            }
+            else if (!isWordChar(data[pos]) && (data[pos] != '-'))
+            {
+                return false;
+            }
+            pos += 1;
+        }
+        boolean hasHost = pos > (hostRequired ? start + "http://".length() : start);
+        if (hasHost)
+        {
+            // The last label must not be empty
+            if ((pos == labelStart) || (labels < 1))
+                return false;
+        }
+        else if (hostRequired)
+        {
+            return false;
+        }
+
+        // Optional port of four digits
+        if (pos == end)
+        {
+            return true;
+        }
+        if ((end - pos) != 5)
+        {
+            return false;
+        }
+        for (int i = pos + 1; i < end; i++)
+        {
+            if ((data[i] < '0') || (data[i] > '9'))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Name       : isAllowedField
+     * Input      : data as array of bytes, start as int, end as int
+     * Output     : True if the field is on the allow list
+     * Description: Checks the header field against the allowed headers
+     * @param data
+     * @param start
+     * @param end
+     * @return true/false
+     */
+    private static boolean isAllowedField(byte data[], int start, int end)
+    {
+        for (byte field[] : ALLOWED_FIELDS)
+        {
+            if (equals(data, start, end, field))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Name       : parseLength
+     * Input      : data as array of bytes, start as int, end as int
+     * Output     : Number as long, -1 if not a number
+     * Description: Parses a decimal Content-Length value
+     * @param data
+     * @param start
+     * @param end
+     * @return long
+     */
+    private static long parseLength(byte data[], int start, int end)
+    {
+        if (start >= end)
+            return -1;
+        long value = 0;
+        for (int i = start; i < end; i++)
+        {
+            if ((data[i] < '0') || (data[i] > '9'))
+                return -1;
+            int digit = data[i] - '0';
+            if (value > ((Long.MAX_VALUE - digit) / 10))
+                return -1;
+            value = (value * 10) + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Name       : parseAcceptEncoding
+     * Input      : data as array of bytes, start as int, end as int
+     * Output     : Accepted content codings as ENCODING_* bits
+     * Description: Parses an Accept-Encoding value such as
+     *              'gzip, deflate;q=0.5, *;q=0'. A coding with q=0 is
+     *              refused; '*' stands for every coding not listed
+     * @param data
+     * @param start
+     * @param end
+     * @return integer
+     */
+    static int parseAcceptEncoding(byte data[], int start, int end)
+    {
+        // Codings listed with a non-zero and with a zero quality
+        int accepted = 0;
+        int refused = 0;
+
+        // Quality given to '*': -1 not listed, 0 refused, 1 accepted
+        int any = -1;
+
+        while (start < end)
+        {
+            // One element of the list, with its parameters
+            int elementEnd = indexOf(data, start, end, (byte) ',');
+            int tokenEnd = indexOf(data, start, elementEnd, (byte) ';');
+            boolean zero = (tokenEnd < elementEnd)
+                    && isZeroQuality(data, tokenEnd + 1, elementEnd);
+
+            int tokenStart = trimStart(data, start, tokenEnd);
+            tokenEnd = trimEnd(data, tokenStart, tokenEnd);
+
+            int coding = 0;
+            if (equalsIgnoreCase(data, tokenStart, tokenEnd, "gzip")
+                    || equalsIgnoreCase(data, tokenStart, tokenEnd, "x-gzip"))
+                coding = Constants.ENCODING_GZIP;
+            else if (equalsIgnoreCase(data, tokenStart, tokenEnd, "deflate"))
+                coding = Constants.ENCODING_DEFLATE;
+            else if (equalsIgnoreCase(data, tokenStart, tokenEnd, "*"))
+                any = zero ? 0 : 1;
+
+            if (zero)
+                refused |= coding;
+            else
+                accepted |= coding;
+
+            start = elementEnd + 1;
+        }
+
+        // '*' covers the codings that weren't named
+        if (any == 1)
+        {
+            accepted |= (Constants.ENCODING_GZIP | Constants.ENCODING_DEFLATE) & ~refused;
+        }
+        return accepted & ~refused;
+    }
+
+    /**
+     * Name       : isZeroQuality
+     * Input      : data as array of bytes, start as int, end as int
+     * Output     : True if the parameters hold q=0
+     * Description: Looks for a q parameter of zero (0, 0.0, 0.00 or 0.000)
+     *              among the parameters of a list element
+     * @param data
+     * @param start
+     * @param end
+     * @return true/false
+     */
+    private static boolean isZeroQuality(byte data[], int start, int end)
+    {
+        while (start < end)
+        {
+            int paramEnd = indexOf(data, start, end, (byte) ';');
+            int paramStart = trimStart(data, start, paramEnd);
+            if (((paramEnd - paramStart) >= 2) && (toLower(data[paramStart]) == 'q')
+                    && (data[paramStart + 1] == '='))
+            {
+                int i = paramStart + 2;
+                int valueEnd = trimEnd(data, i, paramEnd);
+                if ((i >= valueEnd) || (data[i] != '0'))
+                    return false;
+                for (i++; i < valueEnd; i++)
+                {
+                    if ((data[i] != '0') && (data[i] != '.'))
+                        return false;
+                }
+                return true;
+            }
+            start = paramEnd + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Name       : equals
+     * Input      : data as array of bytes, start as int, end as int,
+     *              expected as array of bytes
+     * Output     : True if data[start, end) equals the expected bytes
+     * Description: Compares bytes exactly
+     * @param data
+     * @param start
+     * @param end
+     * @param expected
+     * @return true/false
+     */
+    static boolean equals(byte data[], int start, int end, byte expected[])
+    {
+        if ((end - start) != expected.length)
+            return false;
+        for (int i = 0; i < expected.length; i++)
+        {
+            if (data[start + i] != expected[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Name       : equals
+     * Input      : data as array of bytes, start as int, end as int,
+     *              expected as String
+     * Output     : True if data[start, end) equals the ASCII string
+     * Description: Compares bytes with a string without encoding it
+     * @param data
+     * @param start
+     * @param end
+     * @param expected
+     * @return true/false
+     */
+    static boolean equals(byte data[], int start, int end, String expected)
+    {
+        if ((end - start) != expected.length())
+            return false;
+        for (int i = 0; i < expected.length(); i++)
+        {
+            if (data[start + i] != expected.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Name       : equalsIgnoreCase
+     * Input      : data as array of bytes, start as int, end as int,
+     *              expected as String
+     * Output     : True if data[start, end) equals the string, ignoring case
+     * Description: Compares ASCII bytes with a string ignoring case
+     * @param data
+     * @param start
+     * @param end
+     * @param expected
+     * @return true/false
+     */
+    static boolean equalsIgnoreCase(byte data[], int start, int end, String expected)
+    {
+        if ((end - start) != expected.length())
+            return false;
+        for (int i = 0; i < expected.length(); i++)
+        {
+            if (toLower(data[start + i]) != toLower((byte) expected.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Name       : startsWith
+     * Input      : data as array of bytes, start as int, end as int,
+     *              prefix as String
+     * Output     : True if data[start, end) starts with the prefix
+     * Description: Compares the beginning of the bytes with a string
+     * @param data
+     * @param start
+     * @param end
+     * @param prefix
+     * @return true/false
+     */
+    static boolean startsWith(byte data[], int start, int end, String prefix)
+    {
+        return ((end - start) >= prefix.length())
+                && equals(data, start, start + prefix.length(), prefix);
+    }
+
+    /**
+     * Name       : indexOf
+     * Input      : data as array of bytes, start as int, end as int,
+     *              b as byte
+     * Output     : Index of the byte, or end if not found
+     * Description: Finds the first occurrence of a byte
+     * @param data
+     * @param start
+     * @param end
+     * @param b
+     * @return integer
+     */
+    static int indexOf(byte data[], int start, int end, byte b)
+    {
+        for (int i = start; i < end; i++)
+        {
+            if (data[i] == b)
+                return i;
+        }
+        return end;
+    }
+
+    /**
+     * Name       : trimStart
+     * Input      : data as array of bytes, start as int, end as int
+     * Output     : Index of the first non white space byte
+     * Description: Skips leading white space
+     * @param data
+     * @param start
+     * @param end
+     * @return integer
+     */
+    static int trimStart(byte data[], int start, int end)
+    {
+        while ((start < end) && ((data[start] & 0xFF) <= ' '))
+            start += 1;
+        return start;
+    }
+
+    /**
+     * Name       : trimEnd
+     * Input      : data as array of bytes, start as int, end as int
+     * Output     : Index after the last non white space byte
+     * Description: Drops trailing white space, including the carriage return
+     * @param data
+     * @param start
+     * @param end
+     * @return integer
+     */
+    static int trimEnd(byte data[], int start, int end)
+    {
+        while ((end > start) && ((data[end - 1] & 0xFF) <= ' '))
+            end -= 1;
+        return end;
+    }
+
+    /**
+     * Name       : isBlank
+     * Input      : data as array of bytes, start as int, end as int
+     * Output     : True if the bytes are only white space
+     * Description: Checks a line for content
+     * @param data
+     * @param start
+     * @param end
+     * @return true/false
+     */
+    static boolean isBlank(byte data[], int start, int end)
+    {
+        return trimStart(data, start, end) == end;
+    }
+
+    /**
+     * Name       : isWordChar
+     * Input      : b as byte
+     * Output     : True for [A-Za-z0-9_]
+     * Description: Matches the regular expression class \w
+     * @param b
+     * @return true/false
+     */
+    private static boolean isWordChar(byte b)
+    {
+        return ((b >= 'a') && (b <= 'z')) || ((b >= 'A') && (b <= 'Z'))
+                || ((b >= '0') && (b <= '9')) || (b == '_');
+    }
+
+    /**
+     * Name       : toLower
+     * Input      : b as byte
+     * Output     : Lower case ASCII byte
+     * Description: Converts an ASCII letter to lower case
+     * @param b
+     * @return byte
+     */
+    private static byte toLower(byte b)
+    {
+        return ((b >= 'A') && (b <= 'Z')) ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    /**
+     * Name       : ascii
+     * Input      : s as String
+     * Output     : Bytes of the string
+     * Description: Encodes a constant once, at class load
+     * @param s
+     * @return bytes
+     */
+    private static byte[] ascii(String s)
+    {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Name:        MappedFileCache
+ * Type:        Class
+ * Description: Memory mappings of large files, mapped once and shared by
+ *              all connections. Reading a mapping is served from the page
+ *              cache without copying the file into the heap. Mappings are
+ *              reference counted: a mapping replaced because its file
+ *              changed, or evicted to stay under the mapped bytes limit, is
+ *              only unmapped once the last response using it is sent
+ */
+public class MappedFileCache
+{
+    /**
+     * Name:        Mapping
+     * Type:        Class
+     * Description: Mapping of one version of a file
+     */
+    public class Mapping
+    {
+        // Mapped file content
+        private final MappedByteBuffer buffer;
+
+        // Size and modification time of the file when it was mapped
+        private final long size;
+        private final long lastModified;
+
+        // Responses using the mapping, plus one while it is in the cache
+        private int refCount = 1;
+
+        Mapping(MappedByteBuffer buffer, long size, long lastModified)
+        {
+            this.buffer = buffer;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Name       : slice
+         * Input      : position as long, count as long
+         * Output     : Buffer over the region
+         * Description: Returns a buffer over a region of the file, with its
+         *              own position and limit
+         * @param position
+         * @param count
+         * @return buffer
+         */
+        public ByteBuffer slice(long position, long count)
+        {
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit((int) (position + count));
+            slice.position((int) position);
+            return slice;
+        }
+
+        /**
+         * Name       : retain
+         * Input      : none
+         * Output     : none
+         * Description: Adds a reference for one more response
+         */
+        public void retain()
+        {
+            synchronized (MappedFileCache.this)
+            {
+                refCount += 1;
+            }
+        }
+
+        /**
+         * Name       : release
+         * Input      : none
+         * Output     : none
+         * Description: Drops the reference of a response; the file is
+         *              unmapped when the last reference goes
+         */
+        public void release()
+        {
+            synchronized (MappedFileCache.this)
+            {
+                refCount -= 1;
+                if (refCount > 0)
+                {
+                    return;
+                }
+                mappedBytes -= size;
+            }
+            unmap(buffer);
+        }
+    }
+
+    // Mappings in access order, least recently used first
+    private final LinkedHashMap<Path, Mapping> mappings =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    // Smallest file served from a mapping; -1 if mapping is off
+    private volatile long minFileSize;
+
+    // Limit on the bytes mapped at once
+    private volatile long maxMappedBytes;
+
+    // Bytes currently mapped, including replaced mappings still in use
+    private long mappedBytes = 0;
+
+    // Unmaps a buffer at once instead of when it is garbage collected
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static
+    {
+        // sun.misc.Unsafe.invokeCleaner, where the runtime provides it
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try
+        {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            // Leave the unmapping to the garbage collector
+            invokeCleaner = null;
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    /**
+     * Name       : MappedFileCache
+     * Input      : minFileSize as long, maxMappedBytes as long
+     * Output     : none
+     * Description: Constructor that sets the file size threshold and the
+     *              mapped bytes limit
+     * @param minFileSize
+     * @param maxMappedBytes
+     */
+    public MappedFileCache(long minFileSize, long maxMappedBytes)
+    {
+        this.minFileSize = minFileSize;
+        this.maxMappedBytes = maxMappedBytes;
+    }
+
+    /**
+     * Name       : acquire
+     * Input      : filePath as Path, attrs as BasicFileAttributes
+     * Output     : Mapping with a reference for the caller, or null if the
+     *              file isn't served from a mapping
+     * Description: Returns the mapping of the current version of the file,
+     *              mapping it on first use or after it changed. Small files,
+     *              files over 2 GB and files that don't fit under the limit
+     *              are not mapped; the caller sends them as usual. The
+     *              caller must release the mapping once the data is sent
+     * @param filePath
+     * @param attrs
+     * @return mapping/null
+     * @throws java.io.IOException
+     */
+    public Mapping acquire(Path filePath, BasicFileAttributes attrs) throws IOException
+    {
+        long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        long minSize = minFileSize;
+        if ((minSize < 0) || (size < minSize) || (size == 0)
+                || (size > Integer.MAX_VALUE) || (size > maxMappedBytes))
+        {
+            return null;
+        }
+
+        Path key = filePath.toAbsolutePath().normalize();
+        synchronized (this)
+        {
+            // Share the mapping of the current version
+            Mapping mapping = mappings.get(key);
+            if ((mapping != null) && (mapping.size == size)
+                    && (mapping.lastModified == lastModified))
+            {
+                mapping.refCount += 1;
+                return mapping;
+            }
+
+            // The file changed; its old mapping goes once no longer in use
+            if (mapping != null)
+            {
+                mappings.remove(key);
+                mapping.release();
+            }
+
+            // Make room under the limit
+            evict(maxMappedBytes - size);
+            if ((mappedBytes + size) > maxMappedBytes)
+            {
+                return null;
+            }
+            mappedBytes += size;
+        }
+
+        // Map the file outside of the lock; the mapping stays valid after
+        // the channel is closed
+        MappedByteBuffer buffer = null;
+        try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ))
+        {
+            buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        catch (IOException e)
+        {
+            synchronized (this)
+            {
+                mappedBytes -= size;
+            }
+            throw e;
+        }
+
+        Mapping mapping = new Mapping(buffer, size, lastModified);
+        synchronized (this)
+        {
+            // Another thread may have mapped it meanwhile; keep the newer
+            Mapping old = mappings.put(key, mapping);
+            if (old != null)
+            {
+                old.release();
+            }
+            mapping.refCount += 1;
+        }
+        return mapping;
+    }
+
+    /**
+     * Name       : setLimits
+     * Input      : minFileSize as long, maxMappedBytes as long
+     * Output     : none
+     * Description: Changes the file size threshold (-1 turns mapping off)
+     *              and the mapped bytes limit, evicting mappings if needed
+     * @param minFileSize
+     * @param maxMappedBytes
+     */
+    public synchronized void setLimits(long minFileSize, long maxMappedBytes)
+    {
+        this.minFileSize = minFileSize;
+        this.maxMappedBytes = maxMappedBytes;
+        evict((minFileSize < 0) ? -1 : maxMappedBytes);
+    }
+
+    /**
+     * Name       : getMappedBytes
+     * Input      : none
+     * Output     : Bytes currently mapped
+     * Description: Returns the size of the live mappings
+     * @return long
+     */
+    public synchronized long getMappedBytes()
+    {
+        return mappedBytes;
+    }
+
+    /**
+     * Name       : evict
+     * Input      : target as long
+     * Output     : none
+     * Description: Drops least recently used mappings from the cache until
+     *              at most target bytes are mapped; mappings in use are
+     *              unmapped when their last response is sent
+     * @param target
+     */
+    private void evict(long target)
+    {
+        Iterator<Map.Entry<Path, Mapping>> it = mappings.entrySet().iterator();
+        while ((mappedBytes > target) && it.hasNext())
+        {
+            Mapping mapping = it.next().getValue();
+            it.remove();
+            mapping.release();
+        }
+    }
+
+    /**
+     * Name       : unmap
+     * Input      : buffer as MappedByteBuffer
+     * Output     : none
+     * Description: Unmaps a buffer nothing refers to any more
+     * @param buffer
+     */
+    private static void unmap(MappedByteBuffer buffer)
+    {
+        if (INVOKE_CLEANER == null)
+        {
+            return;
+        }
+
+        try
+        {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            // The garbage collector unmaps it instead
+        }
+    }
+}
@@ -7,320 +7,840 @@
 package MultiThreadTCPServer;
 
 // Imported libraries
-import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import javax.imageio.ImageIO;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Name:        MessageHandler
  * Type:        Class
- * Description: This Class helps to compose and send messages
+ * Description: This Class helps to compose and send messages. Responses
+ *              are written from the pre-encoded fragments of
+ *              ResponseHeaders; only values such as lengths, entity tags
+ *              and dates are encoded per response. A HEAD request gets the
+ *              same status line and headers as a GET, without the data
  */
-public class MessasgeHandler 
+public class MessageHandler 
 {
+    // Pre-encoded responses of the html files
+    static final StaticContentCache contentCache = new StaticContentCache(
+            Constants.CONTENT_CACHE_MAX_BYTES, Constants.CONTENT_CACHE_MAX_ENTRY_BYTES);
+    
+    // Shared mappings of large files; off unless enabled at startup
+    static final MappedFileCache mappedFiles = new MappedFileCache(
+            Constants.MAPPED_FILES_MIN_SIZE, Constants.MAPPED_FILES_MAX_BYTES);
+    
+    // Headers of html responses, plain and precompressed; the content
+    // depends on Accept-Encoding, which caches are told with Vary
+    private static final String HTML_HEADERS = 
+            Constants.HTTP_RESPONSE_HEADER_CONTENT_TYPE_HTML
+            + Constants.HTTP_RESPONSE_HEADER_VARY_ACCEPT_ENCODING;
+    private static final String HTML_GZIP_HEADERS = 
+            Constants.HTTP_RESPONSE_HEADER_CONTENT_TYPE_HTML
+            + Constants.HTTP_RESPONSE_HEADER_CONTENT_ENCODING_GZIP
+            + Constants.HTTP_RESPONSE_HEADER_VARY_ACCEPT_ENCODING;
+    
     /**
      * Name       : sendMsg_301
-     * Input      : filePath as Path; filename as String,
-     *              outToClient as DataOutputStream
+     * Input      : filename as String; newAddr as String, head as boolean,
+     *              keepAlive as boolean, outToClient as ResponseOutputStream
      * Output     : none
-     * Description: Send Message 301 - Moved Permanently
+     * Description: Send Message 301 - Moved Permanently; only the Location
+     *              value is spliced into the pre-encoded response
      * @param filename
      * @param newAddr
+     * @param head
+     * @param keepAlive
      * @param outToClient
      * @throws java.io.IOException
      */
-    public static void sendMsg_301(String filename, String newAddr, 
-            DataOutputStream outToClient) throws IOException
+    public static void sendMsg_301(String filename, String newAddr, boolean head,
+            boolean keepAlive, ResponseOutputStream outToClient) throws IOException
     {
         // Show error message for base-html file request
         if (Utilities.getContentType(filename).equals("text/html"))
         {
-            // write error message with error code, phrase and custom
-            // html message
-            String responseMsg = Constants.HTTP_RESPONSE_LINE_MOVED_PERMANENTLY; 
-            responseMsg += "Location: " + newAddr + "\r\n";
-            responseMsg += Constants.HTTP_RESPONSE_HEADER_CONTENT_TYPE_HTML;
-            responseMsg += ComposeMsg_301();
-
             // Write message to the socket and send it to the client
-            outToClient.writeBytes(responseMsg);
+            outToClient.setStatus(301);
+            outToClient.write(ErrorResponses.getMovedPrefix());
+            outToClient.writeAscii(newAddr);
+            outToClient.write(ErrorResponses.getMovedSuffix(head, keepAlive));
+            outToClient.endHeaders(ErrorResponses.getBodyLength(301, head));
         }
     }
     
     /**
      * Name       : sendErrorMsg_400
-     * Input      : filePath as Path; filename as String,
-     *              outToClient as DataOutputStream
+     * Input      : filename as String,
+     *              outToClient as ResponseOutputStream
      * Output     : none
      * Description: Send Error Message 400 - Bad Request to client socket
+     * @param filename
      * @param outToClient
      * @throws java.io.IOException
      */
     public static void sendErrorMsg_400(String filename, 
-            DataOutputStream outToClient) throws IOException
+            ResponseOutputStream outToClient) throws IOException
     {
-        // write error message with error code, phrase and custom
-        // html message
-        String responseMsg = Constants.HTTP_RESPONSE_LINE_BAD_REQUEST;
-        responseMsg += Constants.HTTP_RESPONSE_HEADER_CONTENT_TYPE_HTML;
-        responseMsg += composeErrorMsg_400();
-
-        // log the responsse message for debugging
-        //WriteMsgToFile(responseMsg);
-
-        // Write message to the socket and send it to the client
-        outToClient.writeBytes(responseMsg);
+        // Write the pre-encoded message to the socket; the connection is
+        // always closed after a bad request
+        outToClient.setStatus(400);
+        outToClient.write(ErrorResponses.getBadRequest());
+        outToClient.endHeaders(ErrorResponses.getBodyLength(400, false));
     }
     
     /**
      * Name       : sendErrorMsg_404
-     * Input      : filePath as Path; filename as String,
-     *              outToClient as DataOutputStream
+     * Input      : filePath as Path; filename as String, head as boolean,
+     *              keepAlive as boolean, outToClient as ResponseOutputStream
      * Output     : none
      * Description: Send Error Message 404 - Not Found to client socket
      * @param filePath
      * @param filename
+     * @param head
+     * @param keepAlive
      * @param outToClient
      * @throws java.io.IOException
      */
-    public static void sendErrorMsg_404(Path filePath, String filename, 
-            DataOutputStream outToClient) throws IOException
+    public static void sendErrorMsg_404(Path filePath, String filename, boolean head,
+            boolean keepAlive, ResponseOutputStream outToClient) throws IOException
     {
-        // Show error message for base-html file request
-        if (Utilities.getContentType(filename).equals("text/html"))
+        // Every request gets a response, even for missing images; on a
+        // persistent connection the client would otherwise wait forever
+        
+        // Write the pre-encoded message to the socket
+        outToClient.setStatus(404);
+        outToClient.write(ErrorResponses.getNotFound(head, keepAlive));
+        outToClient.endHeaders(ErrorResponses.getBodyLength(404, head));
+    }
+    
+    /**
+     * Name       : sendErrorMsg_503
+     * Input      : outToClient as ResponseOutputStream
+     * Output     : none
+     * Description: Send Error Message 503 - Service Unavailable to client
+     *              socket, asking it to retry later
+     * @param outToClient
+     * @throws java.io.IOException
+     */
+    public static void sendErrorMsg_503(ResponseOutputStream outToClient)
+            throws IOException
+    {
+        // Write the pre-encoded message to the socket; the connection is
+        // always closed after it
+        outToClient.setStatus(503);
+        outToClient.write(ErrorResponses.getServiceUnavailable());
+        outToClient.endHeaders(ErrorResponses.getBodyLength(503, false));
+    }
+    
+    /**
+     * Name       : sendMetricsResponseMsg
+     * Input      : head as boolean, keepAlive as boolean,
+     *              outToClient as ResponseOutputStream
+     * Output     : none
+     * Description: Write Response Message with the server metrics in the
+     *              Prometheus text format
+     * @param head
+     * @param keepAlive
+     * @param outToClient
+     * @throws java.io.IOException
+     */
+    public static void sendMetricsResponseMsg(boolean head, boolean keepAlive,
+            ResponseOutputStream outToClient) throws IOException
+    {
+        byte body[] = ServerMetrics.SHARED.format().getBytes(StandardCharsets.UTF_8);
+        
+        // write response message including data
+        outToClient.setStatus(200);
+        outToClient.write(ResponseHeaders.STATUS_OK);
+        outToClient.write(ResponseHeaders.CONTENT_TYPE_METRICS);
+        writeHeaderEnd(body.length, keepAlive, outToClient);
+        if (!head)
         {
-            // write error message with error code, phrase and custom
-            // html message
-            String responseMsg = Constants.HTTP_RESPONSE_LINE_NOT_FOUND;
-            responseMsg += Constants.HTTP_RESPONSE_HEADER_CONTENT_TYPE_HTML;
-            responseMsg += composeErrorMsg_404();
-
-            // log the responsse message for debugging
-            //WriteMsgToFile(responseMsg);
-
-            // Write message to the socket and send it to the client
-            outToClient.writeBytes(responseMsg);
+            outToClient.write(body);
         }
     }
     
     /**
      * Name       : sendHtmlResponseMsg
-     * Input      : filePath as Path; outToClient as DataOutputStream
-     * Output     : none
-     * Description: Write Response Message with HTML data to client socket
+     * Input      : filePath as Path; request as HttpRequest,
+     *              keepAlive as boolean, outToClient as ResponseOutputStream
+     * Output     : True if the connection can stay open
+     * Description: Write Response Message with HTML data to client socket.
+     *              Hot pages come pre-encoded from the content cache; pages
+     *              too large to cache are sent straight from disk. Clients
+     *              accepting gzip get a precompressed '.gz' sibling if one
+     *              is up to date, otherwise the cached compressed variant.
+     *              A client holding the current version gets 304
      * @param filePath
+     * @param request
+     * @param keepAlive
      * @param outToClient
+     * @return true/false
+     * @throws java.io.IOException
      */
-    public static void sendHtmlResponseMsg(Path filePath, DataOutputStream outToClient)
+    public static boolean sendHtmlResponseMsg(Path filePath, HttpRequest request,
+            boolean keepAlive, ResponseOutputStream outToClient) throws IOException
     {
-        // Html data to be sent to the client
-        String data = "";
+        // Content codings the client accepts
+        int encodings = request.getAcceptedEncodings();
         
-        // Response message to send to the client, excluding data
-        String responseMsg = "";
+        // A special file (eg: a pipe); its size isn't known up front
+        if (ResolvedPathCache.SHARED.stat(filePath).special)
+        {
+            return sendStreamResponseMsg(openStream(filePath, request),
+                    HTML_HEADERS, -1, request.isHttp11(), keepAlive, outToClient);
+        }
         
-        // write response message
-        responseMsg = Constants.HTTP_RESPONSE_LINE_OK;
-        responseMsg += Constants.HTTP_RESPONSE_HEADER_CONTENT_TYPE_HTML;
-
-        // Create an input stream to read the requested file
-        // Buffered reader will read the file
-        try (InputStream in = Files.newInputStream(filePath);
-            BufferedReader reader =
-                    new BufferedReader(new InputStreamReader(in))) 
+        // Prefer a file compressed ahead of time
+        if ((encodings & Constants.ENCODING_GZIP) != 0)
         {
-            // Stores each line of the file
-            String line = null;
-
-            // Read each line until end of line
-            while ((line = reader.readLine()) != null) 
+            Path gzipPath = getPrecompressedPath(filePath);
+            if (gzipPath != null)
             {
-                // Get resource content from the file
-                data += line;
+                sendFileResponseMsg(gzipPath, HTML_GZIP_HEADERS,
+                        Constants.ENCODING_IDENTITY, request, keepAlive, outToClient);
+                return keepAlive;
             }
-
-            // Send response message including data to the client
-            outToClient.writeBytes(responseMsg + data);
         }
-
-        // Catch an IO Exception and print it
-        catch (IOException e)   
+        
+        // Otherwise compress it ourselves, once; gzip is preferred as it is
+        // the better supported of the two
+        int encoding = Constants.ENCODING_IDENTITY;
+        if ((encodings & Constants.ENCODING_GZIP) != 0)
         {
-            System.err.println(e);
+            encoding = Constants.ENCODING_GZIP;
         }
+        else if ((encodings & Constants.ENCODING_DEFLATE) != 0)
+        {
+            encoding = Constants.ENCODING_DEFLATE;
+        }
+        sendFileResponseMsg(filePath, HTML_HEADERS, encoding, request, keepAlive,
+                outToClient);
+        return keepAlive;
     }
     
     /**
-     * Name       : sendImageResponseMsg
-     * Input      : filePath as Path; filename as String, 
-     *              outToClient as DataOutputStream
+     * Name       : sendFileResponseMsg
+     * Input      : filePath as Path; headers as String, encoding as int,
+     *              request as HttpRequest, keepAlive as boolean,
+     *              outToClient as ResponseOutputStream
      * Output     : none
-     * Description: Write Response Message with Image data to client socket
+     * Description: Write Response Message with the data of a regular file,
+     *              from the content cache if it fits, else straight from
+     *              disk. Files too large to cache are sent uncompressed
+     *              rather than compressed for every request
      * @param filePath
-     * @param filename
+     * @param headers
+     * @param encoding
+     * @param request
+     * @param keepAlive
      * @param outToClient
+     * @throws java.io.IOException
      */
-    public static void sendImageResponseMsg(Path filePath, String filename,
-            DataOutputStream outToClient)
+    private static void sendFileResponseMsg(Path filePath, String headers,
+            int encoding, HttpRequest request, boolean keepAlive,
+            ResponseOutputStream outToClient) throws IOException
     {
-        // Reads image data
-        BufferedImage imageData = null;
-         
-        // Response message to send to the client, excluding data
-        String responseMsg = "";
-                
-        // write response message
-        responseMsg = Constants.HTTP_RESPONSE_LINE_OK;
-        responseMsg += Constants.HTTP_RESPONSE_HEADER_CONTENT_TYPE_IMAGE;
-
-        try  
+        // Get the cached response of the file
+        StaticContentCache.Entry entry = contentCache.get(filePath, headers, encoding);
+        
+        if (entry != null)
         {
-            // Read the image file and put the data in buffered image
-            String fileExt = filename.substring(filename.indexOf(".") + 1);
-            imageData = ImageIO.read(new File(filePath.toString()));
-
-            // Send response message excluding image data to the client
-            outToClient.writeBytes(responseMsg);
-
-            // Now send image data to the client
-            ImageIO.write(imageData, fileExt, outToClient);
+            // The client already has this version
+            if (isNotModified(request, entry.etag, entry.lastModified))
+            {
+                sendMsg_304(headers, entry.etag, entry.lastModified, keepAlive,
+                        outToClient);
+                return;
+            }
+            
+            // Send the pre-encoded response message; the data goes out as
+            // it is, with the headers
+            outToClient.setStatus(200);
+            outToClient.write(entry.head);
+            outToClient.write(ResponseHeaders.getHeaderEnd(keepAlive));
+            outToClient.endHeaders();
+            if (!request.isHead())
+            {
+                outToClient.writeBuffer(entry.body.duplicate());
+            }
+            return;
         }
-
-        // Catch an IO Exception and print it
-        catch (IOException e)   
+        
+        // Too large to cache; send it as it is from disk
+        sendRegularFile(filePath, headers, request, keepAlive, outToClient);
+    }
+    
+    /**
+     * Name       : getPrecompressedPath
+     * Input      : filePath as Path
+     * Output     : Path of the gzip sibling, or null if there is none
+     * Description: Looks for 'file.gz' next to the file; it is ignored if
+     *              it is older than the file itself
+     * @param filePath
+     * @return path/null
+     */
+    private static Path getPrecompressedPath(Path filePath)
+    {
+        Path gzipPath = filePath.resolveSibling(filePath.getFileName()
+                + Constants.PRECOMPRESSED_GZIP_SUFFIX);
+        
+        // Both lookups are served from the path cache while nothing changes
+        ResolvedPathCache.FileInfo gzipInfo = ResolvedPathCache.SHARED.stat(gzipPath);
+        if (gzipInfo.regular && (gzipInfo.lastModified
+                >= ResolvedPathCache.SHARED.stat(filePath).lastModified))
         {
-            System.err.println(e);
+            return gzipPath;
         }
+        return null;
     }
     
+    /**
+     * Name       : sendImageResponseMsg
+     * Input      : filePath as Path; filename as String, request as HttpRequest,
+     *              keepAlive as boolean, outToClient as ResponseOutputStream
+     * Output     : True if the connection can stay open
+     * Description: Write Response Message with Image data to client socket
+     * @param filePath
+     * @param filename
+     * @param request
+     * @param keepAlive
+     * @param outToClient
+     * @return true/false
+     * @throws java.io.IOException
+     */
+    public static boolean sendImageResponseMsg(Path filePath, String filename,
+            HttpRequest request, boolean keepAlive, ResponseOutputStream outToClient)
+            throws IOException
+    {
+        // Content-Type header of the image
+        String contentTypeHeader = ResponseHeaders.getContentTypeHeader(
+                Utilities.getMimeType(filename));
+        
+        // A special file (eg: a pipe); its size isn't known up front
+        if (ResolvedPathCache.SHARED.stat(filePath).special)
+        {
+            return sendStreamResponseMsg(openStream(filePath, request),
+                    contentTypeHeader, -1, request.isHttp11(), keepAlive, outToClient);
+        }
+        
+        // The bytes on disk are sent as they are
+        sendRegularFile(filePath, contentTypeHeader, request, keepAlive, outToClient);
+        return keepAlive;
+    }
     
+    /**
+     * Name       : openStream
+     * Input      : filePath as Path; request as HttpRequest
+     * Output     : Stream of the file data, or null for HEAD
+     * Description: Opens a special file for reading; a HEAD
+     *              request reads nothing, so it isn't opened
+     * @param filePath
+     * @param request
+     * @return stream/null
+     * @throws java.io.IOException
+     */
+    private static InputStream openStream(Path filePath, HttpRequest request)
+            throws IOException
+    {
+        return request.isHead() ? null : Files.newInputStream(filePath);
+    }
     
     /**
-     * Name       : composeMsg_301
-     * Input      : none
-     * Output     : Message as string
-     * Description: Compose the 301 message : Moved Permanently
-     * @return message
+     * Name       : sendRegularFile
+     * Input      : filePath as Path; headers as String, request as HttpRequest,
+     *              keepAlive as boolean, outToClient as ResponseOutputStream
+     * Output     : none
+     * Description: Write Response Message and send the file straight from
+     *              disk to the client; validators come from the file
+     *              attributes, so nothing is read to answer with 304. A
+     *              Range request gets only the bytes it asks for
+     * @param filePath
+     * @param headers
+     * @param request
+     * @param keepAlive
+     * @param outToClient
+     * @throws java.io.IOException
      */
-    private static String composeMsg_301()
+    private static void sendRegularFile(Path filePath, String headers,
+            HttpRequest request, boolean keepAlive, ResponseOutputStream outToClient)
+            throws IOException
     {
-        // compose html for Error 301
-        String data = "";
+        // Validators of the current version of the file
+        BasicFileAttributes attrs = Files.readAttributes(filePath,
+                BasicFileAttributes.class);
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        String etag = Utilities.getETag(attrs.size(), lastModified);
         
-        // Create an input stream to read the requested file
-        // Buffered reader will read the file
-        try (InputStream in = Files.newInputStream(Paths.get(
-                Constants.HTTP_MOVED_PERMANENTLY_MESSAGE_HTML_FILE));
-            BufferedReader reader =
-                    new BufferedReader(new InputStreamReader(in))) 
+        // The client already has this version
+        if (isNotModified(request, etag, lastModified))
         {
-            // Stores each line of the file
-            String line = null;
-
-            // Read each line until end of line
-            while ((line = reader.readLine()) != null) 
+            sendMsg_304(headers, etag, lastModified, keepAlive, outToClient);
+            return;
+        }
+        
+        // Large files may be served from a shared mapping; a HEAD request
+        // sends no data, so it needs none
+        boolean head = request.isHead();
+        MappedFileCache.Mapping mapping = head ? null : mappedFiles.acquire(filePath, attrs);
+        
+        try
+        {
+            // Byte ranges asked for, if they apply to this version of the
+            // file; HEAD gets the headers a GET would
+            String range = request.getHeader("Range");
+            if ((range != null) && (request.getMethod().equals("GET") || head)
+                    && isRangeCurrent(request, etag, lastModified))
+            {
+                List<ByteRange> ranges = ByteRange.parse(range, attrs.size());
+                if (ranges != null)
+                {
+                    sendPartialContent(filePath, mapping, headers, etag,
+                            lastModified, attrs.size(), ranges, head, keepAlive,
+                            outToClient);
+                    return;
+                }
+            }
+            
+            // Headers alone
+            if (head)
             {
-                // Get resource content from the file
-                data += line;
+                outToClient.setStatus(200);
+                writeFileHead(headers, etag, lastModified, attrs.size(), keepAlive,
+                        outToClient);
+                return;
+            }
+            
+            if (mapping != null)
+            {
+                // write response message
+                outToClient.setStatus(200);
+                writeFileHead(headers, etag, lastModified, attrs.size(), keepAlive,
+                        outToClient);
+                
+                // Now send the data from the mapping
+                sendFileRegion(filePath, mapping, 0, attrs.size(), outToClient);
+                return;
             }
         }
-
-        // Catch an IO Exception and print it
-        catch (IOException e)   
+        
+        finally
+        {
+            // Drop the reference of this method; the stream holds its own
+            if (mapping != null)
+            {
+                mapping.release();
+            }
+        }
+        
+        // Open the file
+        FileChannel fileData = FileChannel.open(filePath, StandardOpenOption.READ);
+        
+        try
+        {
+            // Send response message excluding data to the client
+            outToClient.setStatus(200);
+            writeFileHead(headers, etag, lastModified, fileData.size(), keepAlive,
+                    outToClient);
+        }
+        
+        catch (IOException e)
         {
-            System.err.println(e);
+            fileData.close();
+            throw e;
         }
         
-        // Return Message
-        return (data);
+        // Now send the data straight from disk to the client
+        outToClient.transferFile(fileData, 0, fileData.size());
     }
     
-    
     /**
-     * Name       : composeErrorMsg_404
-     * Input      : none
-     * Output     : Error Message as string
-     * Description: Compose the error message 404: Not Found
-     * @return message
+     * Name       : sendPartialContent
+     * Input      : filePath as Path; mapping as MappedFileCache.Mapping,
+     *              headers as String, etag as String, lastModified as long,
+     *              size as long, ranges as List, head as boolean,
+     *              keepAlive as boolean, outToClient as ResponseOutputStream
+     * Output     : none
+     * Description: Send Message 206 - Partial Content with the requested
+     *              ranges of the file, or 416 - Range Not Satisfiable if
+     *              none lies within it. One range is sent as it is; several
+     *              are sent as multipart/byteranges. Every range goes
+     *              straight from disk, or from the mapping if there is
+     *              one, from its offset in the file; for HEAD only the
+     *              headers are sent
+     * @param filePath
+     * @param mapping
+     * @param headers
+     * @param etag
+     * @param lastModified
+     * @param size
+     * @param ranges
+     * @param head
+     * @param keepAlive
+     * @param outToClient
+     * @throws java.io.IOException
      */
-    private static String composeErrorMsg_404()
+    private static void sendPartialContent(Path filePath,
+            MappedFileCache.Mapping mapping, String headers, String etag,
+            long lastModified, long size, List<ByteRange> ranges, boolean head,
+            boolean keepAlive, ResponseOutputStream outToClient) throws IOException
     {
-        // compose html for Error 404
-        String data = "";
+        // No range lies within the file
+        if (ranges.isEmpty())
+        {
+            outToClient.setStatus(416);
+            outToClient.write(ResponseHeaders.STATUS_RANGE_NOT_SATISFIABLE);
+            outToClient.write(ResponseHeaders.CONTENT_RANGE);
+            outToClient.writeAscii("*/");
+            outToClient.writeDecimal(size);
+            outToClient.write(ResponseHeaders.CRLF);
+            writeValidators(etag, lastModified, outToClient);
+            writeHeaderEnd(0, keepAlive, outToClient);
+            return;
+        }
         
-        // Create an input stream to read the requested file
-        // Buffered reader will read the file
-        try (InputStream in = Files.newInputStream(Paths.get(
-            Constants.HTTP_ERROR_404_HTML_FILE));
-            BufferedReader reader =
-                    new BufferedReader(new InputStreamReader(in))) 
+        // Single range; the data is sent as it is
+        if (ranges.size() == 1)
         {
-            // Stores each line of the file
-            String line = null;
-
-            // Read each line until end of line
-            while ((line = reader.readLine()) != null) 
+            ByteRange range = ranges.get(0);
+            outToClient.setStatus(206);
+            outToClient.write(ResponseHeaders.STATUS_PARTIAL_CONTENT);
+            outToClient.write(ResponseHeaders.getEncoded(headers));
+            writeValidators(etag, lastModified, outToClient);
+            outToClient.write(ResponseHeaders.CONTENT_RANGE);
+            outToClient.writeDecimal(range.first);
+            outToClient.write('-');
+            outToClient.writeDecimal(range.last);
+            outToClient.write('/');
+            outToClient.writeDecimal(size);
+            outToClient.write(ResponseHeaders.CRLF);
+            writeHeaderEnd(range.getLength(), keepAlive, outToClient);
+            if (!head)
             {
-                // Get resource content from the file
-                data += line;
+                sendFileRegion(filePath, mapping, range.first, range.getLength(),
+                        outToClient);
             }
+            return;
         }
-
-        // Catch an IO Exception and print it
-        catch (IOException e)   
+        
+        // Several ranges: each part repeats the Content-Type of the file,
+        // which is the first of the header lines; the others stay on top
+        int typeEnd = headers.indexOf("\r\n") + 2;
+        String contentTypeHeader = headers.substring(0, typeEnd);
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        
+        // Compose the part headers first, to know the total length
+        String partHeads[] = new String[ranges.size()];
+        String end = "\r\n--" + boundary + "--\r\n";
+        long contentLength = end.length();
+        for (int i = 0; i < partHeads.length; i++)
         {
-            System.err.println(e);
+            ByteRange range = ranges.get(i);
+            partHeads[i] = "\r\n--" + boundary + "\r\n" + contentTypeHeader
+                    + Constants.HTTP_RESPONSE_HEADER_CONTENT_RANGE + range.first
+                    + "-" + range.last + "/" + size + "\r\n\r\n";
+            contentLength += partHeads[i].length() + range.getLength();
         }
         
-        // Return Message
-        return (data);
+        outToClient.setStatus(206);
+        outToClient.write(ResponseHeaders.STATUS_PARTIAL_CONTENT);
+        outToClient.write(ResponseHeaders.CONTENT_TYPE_MULTIPART);
+        outToClient.writeAscii(boundary);
+        outToClient.write(ResponseHeaders.CRLF);
+        outToClient.writeAscii(headers.substring(typeEnd));
+        writeValidators(etag, lastModified, outToClient);
+        writeHeaderEnd(contentLength, keepAlive, outToClient);
+        if (head)
+        {
+            return;
+        }
+        
+        // Send each part
+        for (int i = 0; i < partHeads.length; i++)
+        {
+            ByteRange range = ranges.get(i);
+            outToClient.writeAscii(partHeads[i]);
+            sendFileRegion(filePath, mapping, range.first, range.getLength(),
+                    outToClient);
+        }
+        outToClient.writeAscii(end);
+    }
+    
+    /**
+     * Name       : sendFileRegion
+     * Input      : filePath as Path; mapping as MappedFileCache.Mapping,
+     *              position as long, count as long,
+     *              outToClient as ResponseOutputStream
+     * Output     : none
+     * Description: Sends a region of the file from the mapping, or from a
+     *              newly opened channel if the file isn't mapped. The stream
+     *              gets its own reference or channel, released once sent
+     * @param filePath
+     * @param mapping
+     * @param position
+     * @param count
+     * @param outToClient
+     * @throws java.io.IOException
+     */
+    private static void sendFileRegion(Path filePath, MappedFileCache.Mapping mapping,
+            long position, long count, ResponseOutputStream outToClient)
+            throws IOException
+    {
+        if (mapping != null)
+        {
+            mapping.retain();
+            outToClient.transferMapped(mapping, position, count);
+        }
+        else
+        {
+            outToClient.transferFile(FileChannel.open(filePath, StandardOpenOption.READ),
+                    position, count);
+        }
     }
     
     /**
-     * Name       : composeErrorMsg_400
-     * Input      : none
-     * Output     : Error Message as string
-     * Description: Compose the error message 400: Bad Request
-     * @return message
+     * Name       : isRangeCurrent
+     * Input      : request as HttpRequest; etag as String, lastModified as long
+     * Output     : True if the Range header applies
+     * Description: Evaluates If-Range: ranges are only sent if the client's
+     *              partial copy is of the current version, identified by a
+     *              strong entity tag or the exact modification date
+     * @param request
+     * @param etag
+     * @param lastModified
+     * @return true/false
      */
-    private static String composeErrorMsg_400()
+    private static boolean isRangeCurrent(HttpRequest request, String etag,
+            long lastModified)
     {
-        // compose html for Error 400
-        String data = "";
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null)
+        {
+            return true;
+        }
         
-        // Create an input stream to read the requested file
-        // Buffered reader will read the file
-        try (InputStream in = Files.newInputStream(Paths.get(
-            Constants.HTTP_ERROR_400_HTML_FILE));
-            BufferedReader reader =
-                    new BufferedReader(new InputStreamReader(in))) 
+        // Entity tag; weak tags never match
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
         {
-            // Stores each line of the file
-            String line = null;
-
-            // Read each line until end of line
-            while ((line = reader.readLine()) != null) 
+            return ifRange.equals(etag);
+        }
+        
+        // Date
+        return Utilities.parseHttpDate(ifRange) == ((lastModified / 1000) * 1000);
+    }
+    
+    /**
+     * Name       : writeFileHead
+     * Input      : headers as String; etag as String, lastModified as long,
+     *              contentLength as long, keepAlive as boolean,
+     *              outToClient as ResponseOutputStream
+     * Output     : none
+     * Description: Write the response line and headers of a whole file
+     * @param headers
+     * @param etag
+     * @param lastModified
+     * @param contentLength
+     * @param keepAlive
+     * @param outToClient
+     * @throws java.io.IOException
+     */
+    private static void writeFileHead(String headers, String etag,
+            long lastModified, long contentLength, boolean keepAlive,
+            ResponseOutputStream outToClient) throws IOException
+    {
+        outToClient.write(ResponseHeaders.STATUS_OK);
+        outToClient.write(ResponseHeaders.getEncoded(headers));
+        writeValidators(etag, lastModified, outToClient);
+        outToClient.write(ResponseHeaders.ACCEPT_RANGES);
+        writeHeaderEnd(contentLength, keepAlive, outToClient);
+    }
+    
+    /**
+     * Name       : writeValidators
+     * Input      : etag as String, lastModified as long,
+     *              outToClient as ResponseOutputStream
+     * Output     : none
+     * Description: Write the ETag and Last-Modified header lines
+     * @param etag
+     * @param lastModified
+     * @param outToClient
+     * @throws java.io.IOException
+     */
+    private static void writeValidators(String etag, long lastModified,
+            ResponseOutputStream outToClient) throws IOException
+    {
+        outToClient.write(ResponseHeaders.ETAG);
+        outToClient.writeAscii(etag);
+        outToClient.write(ResponseHeaders.CRLF);
+        outToClient.write(ResponseHeaders.LAST_MODIFIED);
+        outToClient.writeAscii(Utilities.formatHttpDate(lastModified));
+        outToClient.write(ResponseHeaders.CRLF);
+    }
+    
+    /**
+     * Name       : sendMsg_304
+     * Input      : headers as String; etag as String, lastModified as long,
+     *              keepAlive as boolean, outToClient as ResponseOutputStream
+     * Output     : none
+     * Description: Send Message 304 - Not Modified. It has no data, but
+     *              repeats the validators and Vary of the full response
+     * @param headers
+     * @param etag
+     * @param lastModified
+     * @param keepAlive
+     * @param outToClient
+     * @throws java.io.IOException
+     */
+    private static void sendMsg_304(String headers, String etag,
+            long lastModified, boolean keepAlive, ResponseOutputStream outToClient)
+            throws IOException
+    {
+        outToClient.setStatus(304);
+        outToClient.write(ResponseHeaders.STATUS_NOT_MODIFIED);
+        if (headers.contains(Constants.HTTP_RESPONSE_HEADER_VARY_ACCEPT_ENCODING))
+        {
+            outToClient.write(ResponseHeaders.VARY_ACCEPT_ENCODING);
+        }
+        writeValidators(etag, lastModified, outToClient);
+        outToClient.write(ResponseHeaders.getHeaderEnd(keepAlive));
+        outToClient.endHeaders();
+    }
+    
+    /**
+     * Name       : isNotModified
+     * Input      : request as HttpRequest; etag as String, lastModified as long
+     * Output     : True if the client's copy is still current
+     * Description: Evaluates If-None-Match, or If-Modified-Since when no
+     *              If-None-Match was sent, for GET and HEAD requests
+     * @param request
+     * @param etag
+     * @param lastModified
+     * @return true/false
+     */
+    private static boolean isNotModified(HttpRequest request, String etag,
+            long lastModified)
+    {
+        // Other methods always get the full response
+        if (!request.getMethod().equals("GET") && !request.getMethod().equals("HEAD"))
+        {
+            return false;
+        }
+        
+        // Entity tags take precedence over dates
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null)
+        {
+            return Utilities.matchesETag(ifNoneMatch, etag);
+        }
+        
+        // Dates have a resolution of one second
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (ifModifiedSince != null)
+        {
+            long since = Utilities.parseHttpDate(ifModifiedSince);
+            return (since >= 0) && ((lastModified / 1000) <= (since / 1000));
+        }
+        return false;
+    }
+    
+    /**
+     * Name       : sendStreamResponseMsg
+     * Input      : data as InputStream; contentTypeHeader as String,
+     *              length as long, http11 as boolean, keepAlive as boolean,
+     *              outToClient as ResponseOutputStream
+     * Output     : True if the connection can stay open
+     * Description: Write Response Message with data read from a stream.
+     *              With a known length the data is sent after Content-Length;
+     *              otherwise HTTP/1.1 clients get it chunked, and for HTTP/1.0
+     *              clients closing the connection marks its end. The data is
+     *              copied through a fixed size buffer whatever its size. A
+     *              null stream sends the headers alone, for HEAD
+     * @param data
+     * @param contentTypeHeader
+     * @param length
+     * @param http11
+     * @param keepAlive
+     * @param outToClient
+     * @return true/false
+     * @throws java.io.IOException
+     */
+    public static boolean sendStreamResponseMsg(InputStream data,
+            String contentTypeHeader, long length, boolean http11,
+            boolean keepAlive, ResponseOutputStream outToClient) throws IOException
+    {
+        // Chunk the data if its end can't be announced otherwise
+        boolean chunked = (length < 0) && http11;
+        
+        try
+        {
+            // write response message
+            outToClient.setStatus(200);
+            outToClient.write(ResponseHeaders.STATUS_OK);
+            outToClient.writeAscii(contentTypeHeader);
+            if (length >= 0)
+            {
+                outToClient.write(ResponseHeaders.CONTENT_LENGTH);
+                outToClient.writeDecimal(length);
+                outToClient.write(ResponseHeaders.CRLF);
+            }
+            else if (chunked)
             {
-                // Get resource content from the file
-                data += line;
+                outToClient.write(ResponseHeaders.TRANSFER_ENCODING_CHUNKED);
             }
+            else
+            {
+                // HTTP/1.0 without a length; the data ends with the connection
+                keepAlive = false;
+            }
+            outToClient.write(ResponseHeaders.getHeaderEnd(keepAlive));
+            outToClient.endHeaders();
         }
-
-        // Catch an IO Exception and print it
-        catch (IOException e)   
+        
+        catch (IOException e)
         {
-            System.err.println(e);
+            if (data != null)
+            {
+                data.close();
+            }
+            throw e;
         }
         
-        // Return Message
-        return (data);
+        // Now send the data as it is read
+        if (data != null)
+        {
+            outToClient.transferStream(data, length, chunked);
+        }
+        return keepAlive;
+    }
+    
+    /**
+     * Name       : writeHeaderEnd
+     * Input      : contentLength as long, keepAlive as boolean,
+     *              outToClient as ResponseOutputStream
+     * Output     : none
+     * Description: Write the header lines that end every response with
+     *              data, up to and including the blank line before the data
+     * @param contentLength
+     * @param keepAlive
+     * @param outToClient
+     * @throws java.io.IOException
+     */
+    private static void writeHeaderEnd(long contentLength, boolean keepAlive,
+            ResponseOutputStream outToClient) throws IOException
+    {
+        outToClient.write(ResponseHeaders.CONTENT_LENGTH);
+        outToClient.writeDecimal(contentLength);
+        outToClient.write(ResponseHeaders.CRLF);
+        outToClient.write(ResponseHeaders.getHeaderEnd(keepAlive));
+        outToClient.endHeaders();
     }
 }
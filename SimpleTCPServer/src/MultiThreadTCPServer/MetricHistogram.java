@@ -0,0 +1,120 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Name:        MetricHistogram
+ * Type:        Class
+ * Description: Histogram of durations for the metrics endpoint, with fixed
+ *              bucket bounds from 1 microsecond to 10 seconds. Every bucket
+ *              is a LongAdder, so threads recording at the same time update
+ *              separate cells instead of contending, and recording never
+ *              allocates once the cells exist
+ */
+public class MetricHistogram
+{
+    // Upper bounds of the buckets in nanoseconds; values above the last go
+    // to the +Inf bucket
+    private static final long BOUNDS[] = {
+        1000L, 2500L, 5000L,
+        10000L, 25000L, 50000L,
+        100000L, 250000L, 500000L,
+        1000000L, 2500000L, 5000000L,
+        10000000L, 25000000L, 50000000L,
+        100000000L, 250000000L, 500000000L,
+        1000000000L, 2500000000L, 5000000000L,
+        10000000000L };
+
+    // The bounds in seconds, as written in the 'le' label
+    private static final String BOUND_LABELS[] = new String[BOUNDS.length];
+
+    static
+    {
+        for (int i = 0; i < BOUNDS.length; i++)
+        {
+            BOUND_LABELS[i] = BigDecimal.valueOf(BOUNDS[i], 9).stripTrailingZeros()
+                    .toPlainString();
+        }
+    }
+
+    // Name and help text of the metric
+    private final String name;
+    private final String help;
+
+    // Values per bucket, the last one for values above every bound
+    private final LongAdder buckets[] = new LongAdder[BOUNDS.length + 1];
+
+    // Sum of the values in nanoseconds
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Name       : MetricHistogram
+     * Input      : name as String, help as String
+     * Output     : none
+     * Description: Constructor
+     * @param name
+     * @param help
+     */
+    public MetricHistogram(String name, String help)
+    {
+        this.name = name;
+        this.help = help;
+        for (int i = 0; i < buckets.length; i++)
+        {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Name       : record
+     * Input      : nanos as long
+     * Output     : none
+     * Description: Counts a duration in the first bucket it fits in
+     * @param nanos
+     */
+    public void record(long nanos)
+    {
+        // Most durations are short, so a scan from the bottom ends early
+        int i = 0;
+        while ((i < BOUNDS.length) && (nanos > BOUNDS[i]))
+        {
+            i += 1;
+        }
+        buckets[i].increment();
+        sum.add(nanos);
+    }
+
+    /**
+     * Name       : appendTo
+     * Input      : text as StringBuilder
+     * Output     : none
+     * Description: Writes the histogram in the Prometheus text format, with
+     *              cumulative buckets and the sum in seconds
+     * @param text
+     */
+    public void appendTo(StringBuilder text)
+    {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" histogram\n");
+
+        long count = 0;
+        for (int i = 0; i < BOUNDS.length; i++)
+        {
+            count += buckets[i].sum();
+            text.append(name).append("_bucket{le=\"").append(BOUND_LABELS[i])
+                    .append("\"} ").append(count).append('\n');
+        }
+        count += buckets[BOUNDS.length].sum();
+        text.append(name).append("_bucket{le=\"+Inf\"} ").append(count).append('\n');
+        text.append(name).append("_sum ").append(sum.sum() / 1e9).append('\n');
+        text.append(name).append("_count ").append(count).append('\n');
+    }
+}
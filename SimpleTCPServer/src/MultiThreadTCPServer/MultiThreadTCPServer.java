@@ -10,12 +10,21 @@ package MultiThreadTCPServer;
 // Imported libraries
 import java.io.IOException;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Name:        MultiThreadTCPServer
  * Type:        Class
  * Description: Main class that is an entry point of the program. Accepts client
- *              socket connection, and spurns a new thread for each client
+ *              socket connection, and runs each client with the chosen
+ *              connection executor (a new thread per client by default).
+ *              With --mode=nio the non-blocking NioTCPServer is run instead
  */
 public class MultiThreadTCPServer 
 {
@@ -24,6 +33,18 @@ public class MultiThreadTCPServer
     
     // Socket that connects to the client to transfer data
     private static Socket connectionSocket = null;
+    
+    // Strategy used to run the client connections
+    static volatile ConnectionExecutor connectionExecutor = null;
+    
+    // Port to listen on, and length of the queue of connections waiting to
+    // be accepted
+    private static int port = Constants.PORT;
+    private static int acceptBacklog = Constants.DEFAULT_ACCEPT_BACKLOG;
+    
+    // Files the access and error logs are written to
+    private static String accessLogFile = Constants.ACCESS_LOG_FILE;
+    private static String errorLogFile = Constants.ERROR_LOG_FILE;
         
     /**
      * Name       : main
@@ -35,10 +56,126 @@ public class MultiThreadTCPServer
      */
     public static void main(String argv[]) throws Exception
     {
+        // Read the configuration file; the command line, system properties
+        // and environment variables override its settings
+        ServerConfig config = ServerConfig.SHARED;
+        try
+        {
+            config.load(argv);
+        }
+        catch (IOException e)
+        {
+            // Report the error and exit application
+            AccessLog.SHARED.logFatal("Couldn't read the configuration", e);
+            return;
+        }
+        
         try
         {
-            // Create wecome socket to allow clients to initiate TCP connection
-            welcomeSocket = new ServerSocket(Constants.PORT);
+            // Start the access and error logs; an empty path turns the
+            // access log off and sends errors to the standard error stream
+            accessLogFile = config.get("access-log", Constants.ACCESS_LOG_FILE);
+            errorLogFile = config.get("error-log", Constants.ERROR_LOG_FILE);
+            AccessLog.SHARED.start(accessLogFile, errorLogFile,
+                    config.getLong("log-rotate-bytes", Constants.LOG_ROTATE_BYTES, 0),
+                    config.getLong("log-rotate-interval", Constants.LOG_ROTATE_INTERVAL_MS, 0));
+            
+            // Size the buffers before the first connection borrows one, and
+            // track pooled buffers that are never given back, for debugging
+            BufferPool.SHARED.configure(
+                    config.getInt("buffer-size", Constants.BUFFER_SIZE, 1),
+                    config.getInt("response-buffer-size", Constants.RESPONSE_BUFFER_SIZE, 1),
+                    config.getInt("buffer-pool-slab-size", Constants.BUFFER_POOL_SLAB_SIZE, 1),
+                    config.getInt("buffer-pool-max-slabs", Constants.BUFFER_POOL_MAX_SLABS, 0));
+            BufferPool.SHARED.setLeakDetection(
+                    config.getBoolean("buffer-leak-detection", false));
+            
+            // Port and length of the queue of connections waiting to be
+            // accepted
+            port = config.getInt("port", Constants.PORT, 0);
+            if (port > 65535)
+            {
+                throw new IllegalArgumentException("port " + port);
+            }
+            acceptBacklog = config.getInt("backlog", Constants.DEFAULT_ACCEPT_BACKLOG, 0);
+            
+            // Directory the files are served from, and the log of the
+            // permanently moved files
+            Path documentRoot = Paths.get(config.get("document-root", Constants.DOCUMENT_ROOT));
+            if (!Files.isDirectory(documentRoot))
+            {
+                throw new IllegalArgumentException("document-root " + documentRoot);
+            }
+            ResolvedPathCache.SHARED.setDocumentRoot(documentRoot);
+            RedirectTable.setLogFile(Paths.get(config.get("redirect-log",
+                    Constants.PERMANENTLY_MOVED_FILES_RECORDS)));
+            
+            // Limits, timeouts and cache budgets, which may also change
+            // while the server runs
+            applyRuntimeSettings(config);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Report the error and exit application
+            AccessLog.SHARED.logFatal("Invalid configuration", e);
+            return;
+        }
+        
+        // Apply the changes of the configuration file while running
+        long checkInterval = config.getLong("config-check-interval",
+                Constants.CONFIG_CHECK_INTERVAL_MS, 0);
+        if (checkInterval > 0)
+        {
+            config.startWatching(checkInterval, () -> reloadRuntimeSettings(config));
+        }
+        
+        // Index the moved files log and follow its changes
+        RedirectTable.reload();
+        RedirectTable.startWatching();
+        
+        // Follow changes under the document root so that resolved paths
+        // and file metadata can be cached, except in the log directories,
+        // which are never served
+        Path documentRoot = ResolvedPathCache.SHARED.getDocumentRoot();
+        try
+        {
+            ResolvedPathCache.SHARED.startWatching(documentRoot,
+                    getLogDirectories(documentRoot, accessLogFile, errorLogFile));
+        }
+        catch (IOException e)
+        {
+            // Only missing files are cached, for a short time
+            AccessLog.SHARED.logError("Couldn't watch the document root", e);
+        }
+        
+        // Periodically log the executor and buffer pool use if requested
+        int statsInterval = config.getInt("stats-interval", 0, 0);
+        if (statsInterval > 0)
+        {
+            startStatsReporter(statsInterval);
+        }
+        
+        // Run the non-blocking server if requested
+        String mode = config.get("mode", Constants.DEFAULT_SERVER_MODE);
+        if (mode.equals(Constants.SERVER_MODE_NIO))
+        {
+            runNioServer(config);
+            return;
+        }
+        
+        try
+        {
+            // Create the execution strategy for client connections
+            connectionExecutor = createConnectionExecutor(config);
+            
+            // Enforce the timeouts of the blocking connections
+            MultithreadTCPClientConnection.timeouts.start("connection-timeouts");
+            
+            // Create wecome socket to allow clients to initiate TCP connection;
+            // opened through a channel so that the accepted sockets have
+            // channels for zero-copy file transfers
+            welcomeSocket = ServerSocketChannel.open().socket();
+            welcomeSocket.bind(new InetSocketAddress(port), acceptBacklog);
             
             // Keep running to accept connections
             while(true) 
@@ -50,9 +187,277 @@ public class MultiThreadTCPServer
         
         catch (IOException e)
         {
-            // Print error message and exit application
-            System.out.println("Couldn't create socket!");
+            // Report the error and exit application
+            AccessLog.SHARED.logFatal("Couldn't create socket", e);
+        }
+        
+        catch (IllegalArgumentException | UnsupportedOperationException e)
+        {
+            // Report the error and exit application
+            AccessLog.SHARED.logFatal("Invalid executor option", e);
+        }
+    }
+    
+    /**
+     * Name       : applyRuntimeSettings
+     * Input      : config as ServerConfig
+     * Output     : none
+     * Description: Applies the settings that may change while the server
+     *              runs: admission limits, connection timeouts, requests per
+     *              connection, cache budgets, the error files and the
+     *              metrics path. Every value is read and checked, and every
+     *              error file read, before any is applied, so an invalid one
+     *              leaves the current settings in place
+     * @param config
+     */
+    static void applyRuntimeSettings(ServerConfig config)
+    {
+        // Connections and requests served at once; the 503 response
+        // carries the Retry-After value
+        int maxConnections = config.getInt("max-connections",
+                Constants.DEFAULT_MAX_CONNECTIONS, 0);
+        int maxInFlight = config.getInt("max-in-flight",
+                Constants.DEFAULT_MAX_IN_FLIGHT, 0);
+        String overloadPolicy = config.getChoice("overload-policy",
+                Constants.DEFAULT_OVERLOAD_POLICY,
+                Constants.OVERLOAD_POLICY_REJECT, Constants.OVERLOAD_POLICY_PAUSE);
+        int retryAfter = config.getInt("retry-after",
+                Constants.DEFAULT_RETRY_AFTER_SECONDS, 0);
+        
+        // Limits of clients that are too slow
+        long keepAliveTimeout = config.getLong("keep-alive-timeout",
+                Constants.KEEP_ALIVE_TIMEOUT_MS, 1);
+        long headerTimeout = config.getLong("header-timeout",
+                Constants.HEADER_READ_TIMEOUT_MS, 1);
+        long writeTimeout = config.getLong("write-timeout",
+                Constants.WRITE_STALL_TIMEOUT_MS, 1);
+        long minReceiveRate = config.getLong("min-receive-rate",
+                Constants.MIN_RECEIVE_RATE, 0);
+        
+        // Requests served on a persistent connection before it is closed
+        int maxKeepAliveRequests = config.getInt("max-keep-alive-requests",
+                Constants.MAX_KEEP_ALIVE_REQUESTS, 1);
+        
+        // Budgets of the content, mapped file and path caches
+        long contentCacheBytes = config.getLong("content-cache-max-bytes",
+                Constants.CONTENT_CACHE_MAX_BYTES, 0);
+        long contentCacheEntryBytes = config.getLong("content-cache-max-entry-bytes",
+                Constants.CONTENT_CACHE_MAX_ENTRY_BYTES, 0);
+        long mmapMinSize = config.getLong("mmap-min-size",
+                Constants.MAPPED_FILES_MIN_SIZE, -1);
+        long mmapMaxBytes = config.getLong("mmap-max-bytes",
+                Constants.MAPPED_FILES_MAX_BYTES, 0);
+        int pathCacheEntries = config.getInt("path-cache-max-entries",
+                Constants.PATH_CACHE_MAX_ENTRIES, 1);
+        long pathCacheTtl = config.getLong("path-cache-negative-ttl",
+                Constants.PATH_CACHE_NEGATIVE_TTL_MS, 0);
+        
+        // Path the metrics are served from, or none if empty
+        String metricsPath = config.get("metrics-path", Constants.METRICS_PATH);
+        
+        // Pages sent with the error and 301 responses, read now so that a
+        // missing or unreadable file is refused like an invalid value
+        ErrorResponses.Pages errorPages = ErrorResponses.readPages(
+                config.get("error-page-400", Constants.HTTP_ERROR_400_HTML_FILE),
+                config.get("error-page-404", Constants.HTTP_ERROR_404_HTML_FILE),
+                config.get("error-page-503", Constants.HTTP_ERROR_503_HTML_FILE),
+                config.get("moved-page", Constants.HTTP_MOVED_PERMANENTLY_MESSAGE_HTML_FILE));
+        
+        AdmissionControl.SHARED.configure(maxConnections, maxInFlight,
+                overloadPolicy, retryAfter);
+        ConnectionTimer.configure(keepAliveTimeout, headerTimeout, writeTimeout,
+                minReceiveRate);
+        RequestHandler.setMaxKeepAliveRequests(maxKeepAliveRequests);
+        MessageHandler.contentCache.setLimits(contentCacheBytes, contentCacheEntryBytes);
+        MessageHandler.mappedFiles.setLimits(mmapMinSize, mmapMaxBytes);
+        ResolvedPathCache.SHARED.setLimits(pathCacheEntries, pathCacheTtl);
+        ServerMetrics.SHARED.setPath(metricsPath);
+        
+        // Encode the error responses again, with the new pages and
+        // Retry-After value
+        ErrorResponses.setPages(errorPages);
+    }
+    
+    /**
+     * Name       : reloadRuntimeSettings
+     * Input      : config as ServerConfig
+     * Output     : none
+     * Description: Applies the runtime settings after the configuration file
+     *              changed; the other settings are only read at startup
+     * @param config
+     */
+    private static void reloadRuntimeSettings(ServerConfig config)
+    {
+        try
+        {
+            applyRuntimeSettings(config);
+            AccessLog.SHARED.logError("Configuration reloaded from " + config.getFile(), null);
+        }
+        catch (IllegalArgumentException e)
+        {
+            AccessLog.SHARED.logError("Invalid configuration, keeping the current settings: "
+                    + e.getMessage(), null);
+        }
+    }
+    
+    /**
+     * Name       : getLogDirectories
+     * Input      : documentRoot as Path, logFiles as array of String
+     * Output     : Directories of the log files as List of Path
+     * Description: Gets the directories the logs are written to, skipping
+     *              the logs that are turned off. A log written to the
+     *              document root, or above it, is given as the file alone
+     * @param documentRoot
+     * @param logFiles
+     * @return directories
+     */
+    private static List<Path> getLogDirectories(Path documentRoot, String... logFiles)
+    {
+        Path root = documentRoot.toAbsolutePath().normalize();
+        List<Path> directories = new ArrayList<>();
+        for (String logFile : logFiles)
+        {
+            if (logFile.isEmpty())
+            {
+                continue;
+            }
+            Path file = Paths.get(logFile).toAbsolutePath().normalize();
+            Path directory = file.getParent();
+            directories.add(((directory == null) || root.startsWith(directory))
+                    ? file : directory);
         }
+        return directories;
+    }
+    
+    /**
+     * Name       : createConnectionExecutor
+     * Input      : config as ServerConfig
+     * Output     : Execution strategy as ConnectionExecutor
+     * Description: Creates the strategy chosen with the executor setting,
+     *              sized with pool-size and queue-capacity
+     * @param config
+     * @return executor
+     */
+    static ConnectionExecutor createConnectionExecutor(ServerConfig config)
+    {
+        // Get the strategy and its sizes
+        String name = config.get("executor", Constants.DEFAULT_EXECUTOR);
+        int poolSize = config.getInt("pool-size", Constants.DEFAULT_POOL_SIZE, 1);
+        int queueCapacity = config.getInt("queue-capacity",
+                Constants.DEFAULT_QUEUE_CAPACITY, 1);
+        
+        switch (name)
+        {
+            case Constants.EXECUTOR_THREAD_PER_CONNECTION:
+                return new ThreadPerConnectionExecutor();
+            case Constants.EXECUTOR_BOUNDED_POOL:
+                return new BoundedPoolConnectionExecutor(poolSize, queueCapacity);
+            case Constants.EXECUTOR_WORK_STEALING:
+                return new WorkStealingConnectionExecutor(poolSize);
+            case Constants.EXECUTOR_VIRTUAL_THREADS:
+                return new VirtualThreadConnectionExecutor();
+            default:
+                throw new IllegalArgumentException(name);
+        }
+    }
+    
+    /**
+     * Name       : startStatsReporter
+     * Input      : interval in seconds as int
+     * Output     : none
+     * Description: Starts a daemon thread that writes the queue depth and
+     *              active count of the connection executor, and the use of
+     *              the buffer pool, to the error log
+     * @param interval
+     */
+    private static void startStatsReporter(int interval)
+    {
+        Thread reporter = new Thread(() ->
+        {
+            while (true)
+            {
+                try
+                {
+                    Thread.sleep(interval * 1000L);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                
+                // The non-blocking server has no executor
+                ConnectionExecutor executor = connectionExecutor;
+                if (executor != null)
+                {
+                    AccessLog.SHARED.logError("Executor " + executor.getName()
+                            + ": active=" + executor.getActiveCount()
+                            + " queued=" + executor.getQueueDepth(), null);
+                }
+                AccessLog.SHARED.logError("Buffer pool: "
+                        + BufferPool.SHARED.getStats(), null);
+            }
+        });
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+    
+    /**
+     * Name       : runNioServer
+     * Input      : config as ServerConfig
+     * Output     : none
+     * Description: Runs the selector based non-blocking server with the
+     *              reactors chosen with the reactors, reactor-balance and
+     *              reuseport settings
+     * @param config
+     */
+    private static void runNioServer(ServerConfig config)
+    {
+        try
+        {
+            // Serve all the clients from the event loops
+            new NioTCPServer(port, acceptBacklog,
+                    config.getInt("reactors", Constants.DEFAULT_REACTORS, 0),
+                    config.get("reactor-balance", Constants.DEFAULT_REACTOR_BALANCE),
+                    config.getBoolean("reuseport", false)).run();
+        }
+        
+        catch (IOException e)
+        {
+            // Report the error and exit application
+            AccessLog.SHARED.logFatal("Couldn't create socket", e);
+        }
+        
+        catch (IllegalArgumentException e)
+        {
+            // Report the error and exit application
+            AccessLog.SHARED.logFatal("Invalid reactor option", e);
+        }
+    }
+    
+    /**
+     * Name       : getArgValue
+     * Input      : argv as array of string, name as String,
+     *              defaultValue as String
+     * Output     : Value of the option as string
+     * Description: Returns the value of a --name=value command line option,
+     *              or the default value if the option is not given
+     * @param argv
+     * @param name
+     * @param defaultValue
+     * @return value
+     */
+    static String getArgValue(String argv[], String name, String defaultValue)
+    {
+        for (String arg : argv)
+        {
+            if (arg.startsWith(name + "="))
+            {
+                return arg.substring(name.length() + 1).trim();
+            }
+        }
+        
+        // Option not given
+        return defaultValue;
     }
     
     /**
@@ -60,29 +465,109 @@ public class MultiThreadTCPServer
      * Input      : none
      * Output     : none
      * Description: Establishes the unique connection with a client for
-     *              communication through socket
+     *              communication through socket. Over the connection limit
+     *              the client is answered with 503, or with the pause policy
+     *              not accepted until a connection closes
      */
     public static void connectTCPClient() throws Exception
     {
         try 
         { 
+            // Wait for a free connection slot before accepting, leaving new
+            // clients in the backlog
+            boolean admitted = AdmissionControl.SHARED.isPausing();
+            if (admitted)
+            {
+                AdmissionControl.SHARED.awaitConnection();
+            }
+            
             // Accept and establish a dedicated connection to each client
-            connectionSocket = welcomeSocket.accept();
+            try
+            {
+                connectionSocket = welcomeSocket.accept();
+            }
+            catch (IOException e)
+            {
+                if (admitted)
+                {
+                    AdmissionControl.SHARED.connectionClosed();
+                }
+                throw e;
+            }
+            ServerMetrics.SHARED.connectionAccepted();
+            
+            // Turn the client away if there is no free slot
+            if (!admitted && !AdmissionControl.SHARED.tryAdmitConnection())
+            {
+                shedConnection(connectionSocket);
+                return;
+            }
             
             // Create an instance of MultithreadTCPClientConnection class that
-            // is run in a unique thread
+            // is run by the connection executor
             MultithreadTCPClientConnection clientConn = 
                         new MultithreadTCPClientConnection(connectionSocket);
             
-            // Create and start a new thread to run each client connection
-            Thread clientConnThread = new Thread(clientConn);
-            clientConnThread.start();
+            // Hand the client connection to the execution strategy
+            connectionExecutor.execute(clientConn);
         } 
         
+        catch (RejectedExecutionException e)
+        {
+            // Executor is saturated; turn the client away
+            AdmissionControl.SHARED.connectionClosed();
+            AccessLog.SHARED.logError("Connection rejected: executor is saturated", null);
+            shedConnection(connectionSocket);
+        }
+        
+        catch (InterruptedException e)
+        {
+            // Interrupted while waiting for a free slot
+            Thread.currentThread().interrupt();
+        }
+        
         catch (IOException e) 
         {
-             // Print error message and exit application
-            System.out.println("Couldn't accept connection!");
+            // Log the error
+            AccessLog.SHARED.logError("Couldn't accept connection", e);
+        }
+    }
+    
+    /**
+     * Name       : shedConnection
+     * Input      : clientSocket as Socket
+     * Output     : none
+     * Description: Sends the pre-encoded 503 response to a client that
+     *              isn't served and closes its socket
+     * @param clientSocket
+     */
+    private static void shedConnection(Socket clientSocket)
+    {
+        ServerMetrics.SHARED.connectionRejected();
+        ServerMetrics.SHARED.recordStatus(503);
+        try
+        {
+            // The response fits in the socket send buffer, so this doesn't
+            // wait for the client
+            byte response[] = ErrorResponses.getServiceUnavailable();
+            clientSocket.getOutputStream().write(response);
+            ServerMetrics.SHARED.addBytesSent(response.length);
+            clientSocket.shutdownOutput();
+        }
+        catch (IOException e)
+        {
+            // The client is gone already
+        }
+        finally
+        {
+            try
+            {
+                clientSocket.close();
+            }
+            catch (IOException e)
+            {
+                // Nothing left to release
+            }
         }
     }
 }
@@ -9,9 +9,8 @@ package MultiThreadTCPServer;
 // Imported libraries
 import java.io.*;
 import java.net.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * Name:        MultithreadTCPClientConnection
@@ -21,6 +20,11 @@ import java.nio.file.Paths;
  */
 public class MultithreadTCPClientConnection implements Runnable
 {
+    // Timer wheel of the timeouts of all the blocking connections,
+    // advanced by its own thread
+    static final TimerWheel timeouts = new TimerWheel(
+            Constants.TIMER_WHEEL_TICK_MS, Constants.TIMER_WHEEL_SLOTS);
+    
     // Socket connection to handle data transfer
     private Socket connectionSocket = null;
     
@@ -41,7 +45,7 @@ public class MultithreadTCPClientConnection implements Runnable
         
         catch (Exception e) 
         {
-            System.out.println(e.getMessage());
+            AccessLog.SHARED.logError("Connection failed", e);
         }
     }
     
@@ -64,7 +68,7 @@ public class MultithreadTCPClientConnection implements Runnable
         catch (IOException e) 
         {
             // Print the error message
-            System.out.println("Socket couldn't be closed! : " + e.getMessage());
+            AccessLog.SHARED.logError("Socket couldn't be closed", e);
         } 
         finally 
         {
@@ -74,7 +78,7 @@ public class MultithreadTCPClientConnection implements Runnable
             } 
             catch (Throwable e) 
             {
-                System.out.println(e.getMessage());
+                AccessLog.SHARED.logError("Connection cleanup failed", e);
             }
         }
 }
@@ -86,7 +90,7 @@ public class MultithreadTCPClientConnection implements Runnable
      * Description: Constructor that assign client distinct connection
      * @param clientSocket
      */
-    public multithreadTCPClientConnection(Socket clientSocket)
+    public MultithreadTCPClientConnection(Socket clientSocket)
     {
         // Get the socket connected to the client
         this.connectionSocket = clientSocket;
@@ -97,193 +101,188 @@ public class MultithreadTCPClientConnection implements Runnable
      * Input      : none
      * Output     : none
      * Description: Establishes the unique connection with a client for
-     *              communication through socket
+     *              communication through socket. Serves requests in a loop
+     *              while the connection is persistent, up to the request
+     *              limit. A timer closes the socket if the client waits too
+     *              long between requests, sends a request too slowly or
+     *              stops reading the response, which ends a blocked read or
+     *              write. Pipelined requests are answered in order and their
+     *              responses flushed together
      * @throws java.lang.Exception
      */
     public void connectTCPClient() throws Exception
     {           
-        // Holds client's request for resources one line at a time
-        String clientRequest = "";
-        
-        // Reads text data
-        BufferedReader inFromClient = null;
+        // Reads raw request data
+        ReadableByteChannel inFromClient = null;
         
         // Output stream connected to socket used to send data to the client
-        DataOutputStream outToClient = null;  
+        ResponseOutputStream outToClient = null;  
         
-        // Holds file path to the resourses from request line
-        String unparsedPath = "";
+        // Splits the received data into (pipelined) request messages
+        RequestBuffer requestBuffer = new RequestBuffer();
         
-        // File path for the base html file or other objects
-        Path filePath = null;
+        // Parsed request message from the client, reused for each request
+        HttpRequest request = new HttpRequest();
+        request.setClientAddress(connectionSocket.getInetAddress());
         
-        // Filename of the resource without complete path info
-        String filename = "";
+        // Number of requests served on this connection
+        int requestCount = 0;
         
-        // Stores the request message from the client
-        String requestMsg = "";
+        // Whether the connection stays open after a response
+        boolean keepAlive = true;
         
-        // Stores each line of request message temporary
-        String aLine = "";
+        // Closes the socket when the client is too slow
+        ConnectionTimer timer = new ConnectionTimer(timeouts, this::closeSocket);
         
+        ServerMetrics.SHARED.connectionOpened();
         try  
         {
-            // Attach input stream from socket to input stream reader and store
-            // data read into a buffered reader
-            inFromClient = new BufferedReader(new
-                        InputStreamReader(connectionSocket.getInputStream()));
-            
-            // create an output stream connected to the socket
-            outToClient = new DataOutputStream(connectionSocket.getOutputStream());
-            
-            // Read each line of request message
-            while ((aLine = inFromClient.readLine()) != null)
-            {
-                requestMsg += (aLine + "\r\n"); 
-                
-                // If end of header lines, exit
-                if (aLine.trim().equals(""))
-                    break;
-            }
+            // Attach the channel of the socket, which is read through
+            // pooled buffers; sockets without one are read as a stream
+            inFromClient = (connectionSocket.getChannel() != null)
+                    ? connectionSocket.getChannel()
+                    : Channels.newChannel(connectionSocket.getInputStream());
             
-            // Parse request to indicate end of request
-            requestMsg += ("     ");
+            // create an output stream connected to the socket; buffered so
+            // that the responses to pipelined requests leave together
+            SocketResponseOutputStream socketOut = new SocketResponseOutputStream(
+                        connectionSocket, BufferPool.SHARED.getResponseBufferSize());
+            socketOut.setTimer(timer);
+            outToClient = socketOut;
             
-            // Check if the message is not empty
-            if (!requestMsg.trim().equals(""))
+            while (keepAlive)
             {
-                // Splits the message into lines
-                String msgLines[] = requestMsg.split("\r\n");
-                
-                // Check if the request message has an incorrect syntax
-                if (Utilities.checkForRequestMsgErrors(msgLines))
-                {
-                    // Throw an exception if the request message has incorrect
-                    // syntax
-                    throw new BadRequestException();
-                }
-
-                // Get the first line from client request message
-                clientRequest = msgLines[0];
-
-                // Split the request line and hold the data into array
-                String splits[] = clientRequest.split(" ");
-
-                // assign unparsed path from client request
-                unparsedPath = splits[1];
-
-                // Check to see if user only specify IP and Port #
-                // If yes, default resource will be index.html file
-                if (!unparsedPath.trim().equals("/"))
-                {                    
-                    // Parse the file path that is consistent with the IDE
-                    String parsedPath = Utilities.parseFilePath(unparsedPath);
-
-                    // Get the file path in standard form
-                    filePath = Paths.get(parsedPath);
-
-                    // Get the file name without path information
-                    filename = Utilities.getFileNameOnly(parsedPath);
-                } 
-                else
-                {
-                    // Default base html file
-                    filePath = Paths.get(Constants.DEFAULT_FILE_PATH);
-                    filename = Constants.DEFAULT_FILE_NAME;
-                }
-
-                // If the requested file exists, process request
-                if (Files.exists(filePath))
+                // Take the next request already received, if any
+                if (!requestBuffer.nextRequest(request))
                 {
-                    // Send response message with text/html or image data
-                    switch (Utilities.getContentType(filename)) {
-                        case "text/html":
-                            MessageHandler.sendHtmlResponseMsg(filePath, outToClient);
-                            break;
-                        case "image":
-                            MessageHandler.sendImageResponseMsg(filePath, filename, outToClient);
-                            break;
-                    }
-                }
-
-                // If requested file doesn't exist ...
-                else 
-                {
-                    // Holds the new url address
-                    String newAddr = null;
+                    // Send the responses queued so far before waiting for
+                    // more data from the client
+                    outToClient.flush();
                     
-                    // Get the requested url to check if file exists
-                    if (unparsedPath.charAt(unparsedPath.length() - 1) == '/')
+                    // Wait for more data: the next request of a persistent
+                    // connection, or the rest of the current one
+                    if ((requestCount > 0) && requestBuffer.isEmpty())
                     {
-                        unparsedPath = unparsedPath.substring(0, unparsedPath.length() -1);
-                    }                   
-                    
-                    // Get the host
-                    String host = (Utilities.findHostHeaderLine(msgLines).split(" "))[1].trim();
-                    
-                    // Create a full URL (with protocol, host and path)
-                    String url = "http://" + host + unparsedPath;
-                    
-                    //url = Constants.BASE_URL + unparsedPath;
-                    
-                    //check if it has been permanently moved; if not, 
-                    // show error message
-                    if ((newAddr = Utilities.isFileMovedPermanently(filename, url)) != null)
+                        timer.idle();
+                    }
+                    else
+                    {
+                        timer.readingHeaders(!requestBuffer.isEmpty());
+                    }
+                    int count = requestBuffer.readFrom(inFromClient);
+                    if (count >= 0)
                     {
-                         // Send the moved permanently message
-                        MessageHandler.sendMsg_301(filename, newAddr, outToClient);
+                        timer.received(count);
+                        continue;
                     }
                     
-                    else
+                    // Client closed the connection between requests, or
+                    // before sending any
+                    if (requestBuffer.isEmpty())
                     {
-                        // NOT FOUND 404 error
-                        MessageHandler.sendErrorMsg_404(filePath, filename, outToClient); 
+                        break;
                     }
+                    
+                    // Answer the request cut short by the client
+                    requestBuffer.drain(request);
+                    keepAlive = false;
                 }
+                requestCount += 1;
+                timer.writing();
+                
+                // Process the request and queue the response; responses are
+                // written in the order the requests arrived
+                keepAlive = RequestHandler.handleRequest(request,
+                        keepAlive && (requestCount < RequestHandler.getMaxKeepAliveRequests()),
+                        outToClient);
             }
             
-            else
-            {
-                // Throw exception for empty request
-                throw new BadRequestException();
-            }
+            // Send the last responses
+            outToClient.flush();
         }
         
         // Catch Socket Exception
         catch (SocketException e) 
         {
-            // Print the error message
-            System.out.println(e.getMessage());
+            // Nothing to report if the timer closed the socket
+            if (!timer.hasExpired())
+            {
+                ServerMetrics.SHARED.connectionError();
+                AccessLog.SHARED.logError("Connection error", e);
+            }
         }
         
         // Catch IO Exception
         catch (IOException e) 
         {
-            // Print the error message
-            System.out.println(e.getMessage());
-        }
-        
-        // Catch exception throw when request message has incorrect syntax
-        catch (BadRequestException  e)
-        {
-            // Send the Bad Request Message
-            MessageHandler.sendErrorMsg_400(filename, outToClient);
+            // Nothing to report if the timer closed the socket
+            if (!timer.hasExpired())
+            {
+                ServerMetrics.SHARED.connectionError();
+                AccessLog.SHARED.logError("Connection error", e);
+            }
         }
         
         // Close the streams
         finally
         {
-            if (inFromClient != null)
-            {
-                // Close input stream
-                inFromClient.close();
-            }
+            timer.stop();
+            ServerMetrics.SHARED.connectionClosed();
+            AdmissionControl.SHARED.connectionClosed();
             
+            // Close the output stream first, as closing the input stream
+            // closes the socket they share. On an error path the last
+            // flush fails the same way the connection did; that failure
+            // was reported already
             if (outToClient != null)
             {
-                // Close output stream
-                outToClient.close(); 
+                try
+                {
+                    outToClient.close();
+                }
+                
+                catch (IOException e)
+                {
+                    // The socket is closed below
+                }
             }
+            
+            // Close the socket, and the input stream with it
+            connectionSocket.close();
         }
-    }    
+    }
+    
+    /**
+     * Name       : closeSocket
+     * Input      : none
+     * Output     : none
+     * Description: Closes the socket when a timeout expires; run by the
+     *              thread of the timer wheel. The socket is shut down first:
+     *              closing alone doesn't wake a thread blocked sending a
+     *              file to it
+     */
+    private void closeSocket()
+    {
+        try
+        {
+            connectionSocket.shutdownInput();
+            connectionSocket.shutdownOutput();
+        }
+        
+        catch (IOException e)
+        {
+            // Already shut down by the client or the connection
+        }
+        
+        try
+        {
+            connectionSocket.close();
+        }
+        
+        catch (IOException e)
+        {
+            // Log the error
+            AccessLog.SHARED.logError("Socket couldn't be closed", e);
+        }
+    }
 }
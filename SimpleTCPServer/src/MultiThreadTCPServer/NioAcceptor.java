@@ -0,0 +1,195 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.function.Consumer;
+
+/**
+ * Name:        NioAcceptor
+ * Type:        Class
+ * Description: Non-blocking welcome channel registered with a selector.
+ *              Accepts the pending clients in batches, applying admission
+ *              control: over the connection limit a client is answered with
+ *              503, or accepting pauses until a connection closes. Used by
+ *              the dedicated acceptor thread, or by every reactor when each
+ *              has its own listener bound with SO_REUSEPORT. Confined to
+ *              the thread of its selector
+ */
+public class NioAcceptor
+{
+    // Channel used to welcome client sockets (handshaking)
+    private final ServerSocketChannel welcomeChannel;
+
+    // Selection key of the welcome channel
+    private final SelectionKey welcomeKey;
+
+    // Whether accepting stopped at the connection limit
+    private boolean acceptPaused = false;
+
+    /**
+     * Name       : NioAcceptor
+     * Input      : selector as Selector, port as int, backlog as int,
+     *              reusePort as boolean
+     * Output     : none
+     * Description: Constructor that binds the non-blocking welcome channel
+     *              to the port and registers it for accept events; with
+     *              reusePort other listeners may bind the same port and the
+     *              kernel spreads the connections between them
+     * @param selector
+     * @param port
+     * @param backlog
+     * @param reusePort
+     * @throws java.io.IOException
+     */
+    public NioAcceptor(Selector selector, int port, int backlog, boolean reusePort)
+            throws IOException
+    {
+        welcomeChannel = ServerSocketChannel.open();
+        if (reusePort)
+        {
+            welcomeChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        welcomeChannel.configureBlocking(false);
+        welcomeChannel.bind(new InetSocketAddress(port), backlog);
+        welcomeKey = welcomeChannel.register(selector, SelectionKey.OP_ACCEPT, this);
+    }
+
+    /**
+     * Name       : supportsReusePort
+     * Input      : none
+     * Output     : True if listeners can share a port
+     * Description: Tells whether SO_REUSEPORT is available on this platform
+     * @return true/false
+     */
+    public static boolean supportsReusePort()
+    {
+        try (ServerSocketChannel channel = ServerSocketChannel.open())
+        {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Name       : acceptPending
+     * Input      : handler as Consumer of SocketChannel
+     * Output     : none
+     * Description: Accepts the pending clients, up to a batch, and hands
+     *              each admitted one, in non-blocking mode, to the handler
+     * @param handler
+     */
+    public void acceptPending(Consumer<SocketChannel> handler)
+    {
+        for (int i = 0; i < Constants.ACCEPT_BATCH_SIZE; i++)
+        {
+            try
+            {
+                // Take a connection slot; without one, stop accepting until
+                // a connection closes, or turn the client away with 503
+                boolean admitted = AdmissionControl.SHARED.tryAdmitConnection();
+                if (!admitted && AdmissionControl.SHARED.isPausing())
+                {
+                    welcomeKey.interestOps(0);
+                    acceptPaused = true;
+                    AdmissionControl.SHARED.acceptPaused();
+                    return;
+                }
+
+                // Accept the connection; null once none is pending
+                SocketChannel clientChannel = welcomeChannel.accept();
+                if (clientChannel == null)
+                {
+                    if (admitted)
+                        AdmissionControl.SHARED.connectionClosed();
+                    return;
+                }
+                ServerMetrics.SHARED.connectionAccepted();
+                if (!admitted)
+                {
+                    shedConnection(clientChannel);
+                    continue;
+                }
+
+                clientChannel.configureBlocking(false);
+                handler.accept(clientChannel);
+            }
+
+            catch (IOException e)
+            {
+                // Log the error
+                AccessLog.SHARED.logError("Couldn't accept connection", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Name       : resumeAccepting
+     * Input      : none
+     * Output     : none
+     * Description: Accepts connections again once a connection slot is
+     *              free, after accepting was paused at the limit
+     */
+    public void resumeAccepting()
+    {
+        if (acceptPaused && AdmissionControl.SHARED.hasConnectionCapacity())
+        {
+            welcomeKey.interestOps(SelectionKey.OP_ACCEPT);
+            acceptPaused = false;
+        }
+    }
+
+    /**
+     * Name       : shedConnection
+     * Input      : clientChannel as SocketChannel
+     * Output     : none
+     * Description: Sends the pre-encoded 503 response to a client that
+     *              isn't served and closes its channel
+     * @param clientChannel
+     */
+    private static void shedConnection(SocketChannel clientChannel)
+    {
+        ServerMetrics.SHARED.connectionRejected();
+        ServerMetrics.SHARED.recordStatus(503);
+        try
+        {
+            // A single non-blocking write; the response fits in the socket
+            // send buffer of a new connection
+            clientChannel.configureBlocking(false);
+            ServerMetrics.SHARED.addBytesSent(clientChannel.write(
+                    ByteBuffer.wrap(ErrorResponses.getServiceUnavailable())));
+            clientChannel.shutdownOutput();
+        }
+        catch (IOException e)
+        {
+            // The client is gone already
+        }
+        finally
+        {
+            try
+            {
+                clientChannel.close();
+            }
+            catch (IOException e)
+            {
+                // Nothing left to release
+            }
+        }
+    }
+}
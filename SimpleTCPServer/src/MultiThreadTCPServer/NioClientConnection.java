@@ -0,0 +1,293 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Name:        NioClientConnection
+ * Type:        Class
+ * Description: State machine of one client socket in the non-blocking server
+ *              mode. Collects request messages from partial reads, builds
+ *              the responses of pipelined requests in order and writes them
+ *              back as the socket allows
+ */
+public class NioClientConnection
+{
+    /**
+     * Name:        State
+     * Type:        Enum
+     * Description: States of the connection
+     */
+    private enum State
+    {
+        READING_REQUEST,
+        WRITING_RESPONSE,
+        CLOSED
+    }
+
+    // Socket channel connected to the client
+    private final SocketChannel clientChannel;
+
+    // Selection key of the client channel
+    private final SelectionKey key;
+
+    // Current state of the connection
+    private State state = State.READING_REQUEST;
+
+    // Request bytes received so far, split into pipelined requests
+    private final RequestBuffer requestBuffer = new RequestBuffer();
+
+    // Parsed request message, reused for each request
+    private final HttpRequest request = new HttpRequest();
+
+    // Responses waiting to be written to the socket
+    private final QueuedResponseOutputStream outToClient =
+            new QueuedResponseOutputStream();
+
+    // Number of requests served on this connection
+    private int requestCount = 0;
+
+    // Whether the connection stays open after the current response
+    private boolean keepAlive = false;
+
+    // Whether the client has closed its side of the connection
+    private boolean inputClosed = false;
+
+    // Reactor the connection belongs to
+    private final NioReactor reactor;
+
+    // Closes the connection when the client is too slow
+    private final ConnectionTimer timer;
+
+    /**
+     * Name       : NioClientConnection
+     * Input      : clientChannel as SocketChannel, key as SelectionKey,
+     *              reactor as NioReactor
+     * Output     : none
+     * Description: Constructor that assign client distinct connection and
+     *              starts waiting for its first request
+     * @param clientChannel
+     * @param key
+     * @param reactor
+     */
+    public NioClientConnection(SocketChannel clientChannel, SelectionKey key,
+            NioReactor reactor)
+    {
+        this.clientChannel = clientChannel;
+        this.key = key;
+        this.reactor = reactor;
+        this.timer = new ConnectionTimer(reactor.getTimeouts(), this::close);
+        timer.readingHeaders(false);
+        request.setClientAddress(clientChannel.socket().getInetAddress());
+        ServerMetrics.SHARED.connectionOpened();
+    }
+
+    /**
+     * Name       : handleEvent
+     * Input      : none
+     * Output     : none
+     * Description: Advances the state machine on a selector event
+     */
+    public void handleEvent()
+    {
+        try
+        {
+            switch (state)
+            {
+                case READING_REQUEST:
+                    readRequest();
+                    break;
+                case WRITING_RESPONSE:
+                    writeResponse();
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // Catch IO Exception
+        catch (IOException e)
+        {
+            // Log the error and drop the connection
+            ServerMetrics.SHARED.connectionError();
+            AccessLog.SHARED.logError("Connection error", e);
+            close();
+        }
+
+        // Catch a bug in serving the connection; the other connections of
+        // the reactor keep being served
+        catch (RuntimeException e)
+        {
+            // Log the error and drop the connection
+            ServerMetrics.SHARED.connectionError();
+            AccessLog.SHARED.logError("Unexpected connection error", e);
+            close();
+        }
+    }
+
+    /**
+     * Name       : readRequest
+     * Input      : none
+     * Output     : none
+     * Description: Reads available data and builds the responses of all the
+     *              complete request messages received so far
+     * @throws java.io.IOException
+     */
+    private void readRequest() throws IOException
+    {
+        // Read whatever the socket has for us through a pooled buffer; the
+        // data is copied out at once, so idle connections hold no buffer
+        int count = requestBuffer.readFrom(clientChannel);
+        timer.received(count);
+
+        // Client closed the connection; what it sent is still answered
+        if (count < 0)
+        {
+            inputClosed = true;
+        }
+
+        // Build the responses once complete requests are received
+        prepareResponses();
+    }
+
+    /**
+     * Name       : prepareResponses
+     * Input      : none
+     * Output     : none
+     * Description: Processes every complete request in the buffer, queues
+     *              their responses in order and switches the socket to write
+     *              events; does nothing if no request is complete yet
+     * @throws java.io.IOException
+     */
+    private void prepareResponses() throws IOException
+    {
+        // Answer the buffered requests until one ends the connection
+        keepAlive = true;
+        while (keepAlive && requestBuffer.nextRequest(request))
+        {
+            requestCount += 1;
+            keepAlive = RequestHandler.handleRequest(request,
+                    !inputClosed
+                            && (requestCount < RequestHandler.getMaxKeepAliveRequests()),
+                    outToClient);
+        }
+
+        // The client closed its side: a request cut short is answered like
+        // in the blocking mode; between requests there is nothing to answer
+        if (keepAlive && inputClosed)
+        {
+            if (!requestBuffer.isEmpty())
+            {
+                requestCount += 1;
+                requestBuffer.drain(request);
+                RequestHandler.handleRequest(request, false, outToClient);
+            }
+            keepAlive = false;
+        }
+
+        // No complete request yet: wait for the next request of the
+        // persistent connection, or the rest of the current one; done if
+        // the client closed the connection
+        if (!outToClient.hasPending())
+        {
+            if (inputClosed)
+            {
+                close();
+                return;
+            }
+
+            if ((requestCount > 0) && requestBuffer.isEmpty())
+            {
+                timer.idle();
+            }
+            else
+            {
+                timer.readingHeaders(!requestBuffer.isEmpty());
+            }
+            return;
+        }
+
+        // Start writing the responses with as few writes as possible
+        timer.writing();
+        state = State.WRITING_RESPONSE;
+        key.interestOps(SelectionKey.OP_WRITE);
+        writeResponse();
+    }
+
+    /**
+     * Name       : writeResponse
+     * Input      : none
+     * Output     : none
+     * Description: Writes as much of the queued responses as the socket
+     *              accepts, then waits for the next request or closes the
+     *              connection
+     * @throws java.io.IOException
+     */
+    private void writeResponse() throws IOException
+    {
+        // Write the pending part of the responses
+        boolean done = outToClient.drainTo(clientChannel);
+
+        // Responses not fully written yet; wait for the socket, which must
+        // take more of them before the write timeout
+        if (!done)
+        {
+            timer.writing();
+            return;
+        }
+
+        // Done with a non-persistent connection
+        if (!keepAlive)
+        {
+            close();
+            return;
+        }
+
+        // Wait for the next request on the persistent connection
+        state = State.READING_REQUEST;
+        key.interestOps(SelectionKey.OP_READ);
+
+        // More requests may have been received meanwhile
+        prepareResponses();
+    }
+
+    /**
+     * Name       : close
+     * Input      : none
+     * Output     : none
+     * Description: Closes the client socket and releases the selection key
+     */
+    public void close()
+    {
+        if (state == State.CLOSED)
+        {
+            return;
+        }
+        state = State.CLOSED;
+        timer.stop();
+        reactor.connectionClosed();
+        ServerMetrics.SHARED.connectionClosed();
+        AdmissionControl.SHARED.connectionClosed();
+        key.cancel();
+        outToClient.discard();
+
+        try
+        {
+            clientChannel.close();
+        }
+
+        catch (IOException e)
+        {
+            // Log the error
+            AccessLog.SHARED.logError("Socket couldn't be closed", e);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Name:        NioReactor
+ * Type:        Class
+ * Description: Event loop of the non-blocking mode, run by its own thread
+ *              with its own selector and timer wheel. Drives the state
+ *              machine of every connection it owns; the selector, the
+ *              wheel and the connections are only touched by this thread,
+ *              so serving a request takes no lock. New connections arrive
+ *              through a queue from the acceptor, or from a listener of its
+ *              own bound with SO_REUSEPORT
+ */
+public class NioReactor implements Runnable
+{
+    // Number of the reactor, for the name of its thread
+    private final int index;
+
+    // Selector that multiplexes the events of the reactor's sockets
+    private final Selector selector;
+
+    // Timeouts of the connections, advanced by the event loop
+    private final TimerWheel timeouts = new TimerWheel(
+            Constants.TIMER_WHEEL_TICK_MS, Constants.TIMER_WHEEL_SLOTS);
+
+    // Connections handed over by the acceptor, waiting to be registered
+    private final Queue<SocketChannel> handedOff = new ConcurrentLinkedQueue<>();
+
+    // Connections owned, read by the acceptor to balance the load
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    // Own listener, or null if connections are handed over
+    private NioAcceptor acceptor = null;
+
+    /**
+     * Name       : NioReactor
+     * Input      : index as int
+     * Output     : none
+     * Description: Constructor that opens the selector
+     * @param index
+     * @throws java.io.IOException
+     */
+    public NioReactor(int index) throws IOException
+    {
+        this.index = index;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Name       : listen
+     * Input      : port as int, backlog as int
+     * Output     : none
+     * Description: Binds a listener of this reactor to the port with
+     *              SO_REUSEPORT, so that it accepts its own connections
+     * @param port
+     * @param backlog
+     * @throws java.io.IOException
+     */
+    public void listen(int port, int backlog) throws IOException
+    {
+        acceptor = new NioAcceptor(selector, port, backlog, true);
+    }
+
+    /**
+     * Name       : getName
+     * Input      : none
+     * Output     : Name as string
+     * Description: Returns the name of the reactor's thread
+     * @return name
+     */
+    public String getName()
+    {
+        return "nio-reactor-" + index;
+    }
+
+    /**
+     * Name       : getConnectionCount
+     * Input      : none
+     * Output     : Number of connections
+     * Description: Returns how many connections the reactor owns, including
+     *              those handed over but not registered yet
+     * @return int
+     */
+    public int getConnectionCount()
+    {
+        return connectionCount.get();
+    }
+
+    /**
+     * Name       : getTimeouts
+     * Input      : none
+     * Output     : Timer wheel
+     * Description: Returns the timer wheel of the reactor's connections
+     * @return wheel
+     */
+    public TimerWheel getTimeouts()
+    {
+        return timeouts;
+    }
+
+    /**
+     * Name       : handOff
+     * Input      : clientChannel as SocketChannel
+     * Output     : none
+     * Description: Gives an accepted connection to the reactor; called by
+     *              the acceptor thread
+     * @param clientChannel
+     */
+    public void handOff(SocketChannel clientChannel)
+    {
+        connectionCount.incrementAndGet();
+        handedOff.add(clientChannel);
+        selector.wakeup();
+    }
+
+    /**
+     * Name       : connectionClosed
+     * Input      : none
+     * Output     : none
+     * Description: Counts a connection of the reactor as closed
+     */
+    public void connectionClosed()
+    {
+        connectionCount.decrementAndGet();
+    }
+
+    /**
+     * Name       : run
+     * Input      : none
+     * Output     : none
+     * Description: Event loop; waits for ready sockets and dispatches accept,
+     *              read and write events. An unexpected exception only costs
+     *              the connection it happened on
+     */
+    @Override
+    public void run()
+    {
+        // Keep running to serve connections
+        while (true)
+        {
+            try
+            {
+                // Wait until a socket is ready or a connection is handed
+                // over, waking up every tick of the timer wheel to close
+                // the connections that timed out
+                selector.select(timeouts.getTickMillis());
+            }
+            catch (IOException e)
+            {
+                AccessLog.SHARED.logError("Selector failed", e);
+                return;
+            }
+            registerHandedOff();
+            timeouts.advance(System.currentTimeMillis());
+
+            // Handle each ready socket
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext())
+            {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                // Skip keys cancelled by a previous event of this round
+                if (!key.isValid())
+                    continue;
+
+                try
+                {
+                    if (key.isAcceptable())
+                    {
+                        // New clients on the reactor's own listener
+                        acceptor.acceptPending(this::accepted);
+                    }
+                    else
+                    {
+                        // Let the connection's state machine handle the event
+                        NioClientConnection clientConn =
+                                (NioClientConnection) key.attachment();
+                        clientConn.handleEvent();
+                    }
+                }
+
+                // Catch a bug in handling the key, so the loop goes on
+                catch (RuntimeException e)
+                {
+                    AccessLog.SHARED.logError("Unexpected error in " + getName(), e);
+                    if (key.attachment() instanceof NioClientConnection)
+                    {
+                        ((NioClientConnection) key.attachment()).close();
+                    }
+                }
+            }
+
+            // Accept again if connections closed while accepting was paused
+            if (acceptor != null)
+            {
+                acceptor.resumeAccepting();
+            }
+        }
+    }
+
+    /**
+     * Name       : accepted
+     * Input      : clientChannel as SocketChannel
+     * Output     : none
+     * Description: Takes a connection accepted by the reactor's listener
+     * @param clientChannel
+     */
+    private void accepted(SocketChannel clientChannel)
+    {
+        connectionCount.incrementAndGet();
+        register(clientChannel);
+    }
+
+    /**
+     * Name       : registerHandedOff
+     * Input      : none
+     * Output     : none
+     * Description: Registers the connections handed over since the last
+     *              round
+     */
+    private void registerHandedOff()
+    {
+        SocketChannel clientChannel;
+        while ((clientChannel = handedOff.poll()) != null)
+        {
+            register(clientChannel);
+        }
+    }
+
+    /**
+     * Name       : register
+     * Input      : clientChannel as SocketChannel
+     * Output     : none
+     * Description: Registers the client socket with the selector for read
+     *              events and attaches its connection state
+     * @param clientChannel
+     */
+    private void register(SocketChannel clientChannel)
+    {
+        try
+        {
+            SelectionKey key = clientChannel.register(selector, SelectionKey.OP_READ);
+            key.attach(new NioClientConnection(clientChannel, key, this));
+        }
+
+        catch (ClosedChannelException e)
+        {
+            // Client is gone already; give its slot back
+            connectionCount.decrementAndGet();
+            AdmissionControl.SHARED.connectionClosed();
+        }
+
+        catch (RuntimeException e)
+        {
+            // The connection can't be served; drop it and give its slot back
+            AccessLog.SHARED.logError("Connection couldn't be registered", e);
+            connectionCount.decrementAndGet();
+            AdmissionControl.SHARED.connectionClosed();
+            try
+            {
+                clientChannel.close();
+            }
+            catch (IOException closeError)
+            {
+                // Nothing more to do with it
+            }
+        }
+    }
+}
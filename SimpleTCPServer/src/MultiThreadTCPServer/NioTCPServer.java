@@ -0,0 +1,172 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+
+/**
+ * Name:        NioTCPServer
+ * Type:        Class
+ * Description: Non-blocking server mode. Connections are served by a set of
+ *              reactor threads, one per core by default, each running its
+ *              own selector, instead of spurning a thread for each client.
+ *              Either an acceptor thread accepts the clients and hands each
+ *              to a reactor, in turn or to the least loaded one, or every
+ *              reactor listens on the port with SO_REUSEPORT and the kernel
+ *              spreads the connections
+ */
+public class NioTCPServer
+{
+    // Reactors serving the connections
+    private final NioReactor reactors[];
+
+    // Whether every reactor accepts its own connections
+    private final boolean reusePort;
+
+    // Whether connections go to the reactor with the fewest of them
+    private final boolean leastLoaded;
+
+    // Selector and listener of the acceptor thread; null with SO_REUSEPORT
+    private Selector selector = null;
+    private NioAcceptor acceptor = null;
+
+    // Reactor the next connection goes to, in turn
+    private int nextReactor = 0;
+
+    /**
+     * Name       : NioTCPServer
+     * Input      : port as int, backlog as int, reactorCount as int,
+     *              balance as String, reusePort as boolean
+     * Output     : none
+     * Description: Constructor that opens the reactors and binds the
+     *              listeners to the port. A reactor count of 0 means one per
+     *              core; SO_REUSEPORT is only used where it is supported
+     * @param port
+     * @param backlog
+     * @param reactorCount
+     * @param balance
+     * @param reusePort
+     * @throws java.io.IOException
+     */
+    public NioTCPServer(int port, int backlog, int reactorCount, String balance,
+            boolean reusePort) throws IOException
+    {
+        if (!balance.equals(Constants.REACTOR_BALANCE_ROUND_ROBIN)
+                && !balance.equals(Constants.REACTOR_BALANCE_LEAST_LOADED))
+        {
+            throw new IllegalArgumentException("reactor balance " + balance);
+        }
+        if (reactorCount <= 0)
+        {
+            reactorCount = Runtime.getRuntime().availableProcessors();
+        }
+        if (reusePort && !NioAcceptor.supportsReusePort())
+        {
+            AccessLog.SHARED.logError("SO_REUSEPORT isn't supported; using an acceptor thread", null);
+            reusePort = false;
+        }
+        this.reusePort = reusePort;
+        this.leastLoaded = balance.equals(Constants.REACTOR_BALANCE_LEAST_LOADED);
+
+        // Open the reactors, each with its own listener if the port is shared
+        reactors = new NioReactor[reactorCount];
+        for (int i = 0; i < reactorCount; i++)
+        {
+            reactors[i] = new NioReactor(i);
+            if (reusePort)
+            {
+                reactors[i].listen(port, backlog);
+            }
+        }
+
+        // Otherwise a single listener hands the connections over
+        if (!reusePort)
+        {
+            selector = Selector.open();
+            acceptor = new NioAcceptor(selector, port, backlog, false);
+        }
+    }
+
+    /**
+     * Name       : run
+     * Input      : none
+     * Output     : none
+     * Description: Starts the reactor threads and runs the acceptor loop,
+     *              or with SO_REUSEPORT the last reactor, in this thread
+     * @throws java.io.IOException
+     */
+    public void run() throws IOException
+    {
+        int started = reusePort ? (reactors.length - 1) : reactors.length;
+        for (int i = 0; i < started; i++)
+        {
+            Thread thread = new Thread(reactors[i], reactors[i].getName());
+            thread.start();
+        }
+
+        if (reusePort)
+        {
+            reactors[reactors.length - 1].run();
+            return;
+        }
+
+        // Keep running to accept connections
+        while (true)
+        {
+            // Wait for clients, waking up regularly to resume accepting
+            // after a pause at the connection limit
+            selector.select(Constants.TIMER_WHEEL_TICK_MS);
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext())
+            {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (key.isValid() && key.isAcceptable())
+                {
+                    acceptor.acceptPending(this::handOff);
+                }
+            }
+            acceptor.resumeAccepting();
+        }
+    }
+
+    /**
+     * Name       : handOff
+     * Input      : clientChannel as SocketChannel
+     * Output     : none
+     * Description: Gives an accepted connection to the next reactor in
+     *              turn, or to the one with the fewest connections
+     * @param clientChannel
+     */
+    private void handOff(SocketChannel clientChannel)
+    {
+        NioReactor reactor;
+        if (leastLoaded)
+        {
+            reactor = reactors[0];
+            for (int i = 1; i < reactors.length; i++)
+            {
+                if (reactors[i].getConnectionCount() < reactor.getConnectionCount())
+                {
+                    reactor = reactors[i];
+                }
+            }
+        }
+        else
+        {
+            reactor = reactors[nextReactor];
+            nextReactor = (nextReactor + 1) % reactors.length;
+        }
+        reactor.handOff(clientChannel);
+    }
+}
@@ -0,0 +1,505 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Name:        QueuedResponseOutputStream
+ * Type:        Class
+ * Description: Response stream of a non-blocking connection. Written bytes
+ *              and file regions are queued in order and sent as the socket
+ *              becomes writable; the bytes are held in pooled direct buffers
+ *              only until they are sent. Consecutive segments in memory,
+ *              such as the headers and body of a response or several
+ *              pipelined responses, go out in one gathering write
+ */
+public class QueuedResponseOutputStream extends ResponseOutputStream
+{
+    /**
+     * Name:        FileRegion
+     * Type:        Class
+     * Description: Part of a file waiting to be transferred to the socket
+     */
+    private static class FileRegion
+    {
+        // File to send from
+        final FileChannel file;
+
+        // Next byte to send and number of bytes left
+        long position;
+        long count;
+
+        FileRegion(FileChannel file, long position, long count)
+        {
+            this.file = file;
+            this.position = position;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Name:        StreamRegion
+     * Type:        Class
+     * Description: Streamed data waiting to be sent; read one buffer at a
+     *              time as the socket accepts the previous one
+     */
+    private static class StreamRegion
+    {
+        // Data source and the piece being sent
+        final StreamedBody body;
+        final ByteBuffer piece;
+
+        StreamRegion(StreamedBody body)
+        {
+            this.body = body;
+            this.piece = ByteBuffer.wrap(body.buffer);
+            this.piece.limit(0);
+        }
+    }
+
+    /**
+     * Name:        MappedRegion
+     * Type:        Class
+     * Description: Part of a mapped file waiting to be sent
+     */
+    private static class MappedRegion
+    {
+        // Mapping to release once sent, and the region left to send
+        final MappedFileCache.Mapping mapping;
+        final ByteBuffer region;
+
+        MappedRegion(MappedFileCache.Mapping mapping, ByteBuffer region)
+        {
+            this.mapping = mapping;
+            this.region = region;
+        }
+    }
+
+    /**
+     * Name:        PendingOutputStream
+     * Type:        Class
+     * Description: Collects the written bytes in direct buffers borrowed
+     *              from the buffer pool; a full buffer joins the segment
+     *              queue and is given back once it is sent
+     */
+    private static class PendingOutputStream extends OutputStream
+    {
+        // Segments waiting to be sent: PooledBuffer, ByteBuffer,
+        // FileRegion, MappedRegion or StreamRegion
+        final ArrayDeque<Object> segments = new ArrayDeque<>();
+
+        // Buffer being filled; null until something is written
+        BufferPool.PooledBuffer current = null;
+
+        @Override
+        public void write(int b)
+        {
+            nextBuffer().put((byte) b);
+        }
+
+        @Override
+        public void write(byte b[], int off, int len)
+        {
+            while (len > 0)
+            {
+                ByteBuffer buffer = nextBuffer();
+                int count = Math.min(len, buffer.remaining());
+                buffer.put(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+
+        // Buffer with room for more bytes
+        private ByteBuffer nextBuffer()
+        {
+            if ((current != null) && !current.buffer().hasRemaining())
+            {
+                queueCurrent();
+            }
+            if (current == null)
+            {
+                current = BufferPool.SHARED.borrow(
+                        BufferPool.SHARED.getResponseBufferSize());
+            }
+            return current.buffer();
+        }
+
+        // Number of bytes written since the last queued segment
+        int size()
+        {
+            return (current == null) ? 0 : current.buffer().position();
+        }
+
+        // Moves the buffer being filled into the segment queue
+        void queueCurrent()
+        {
+            if (size() > 0)
+            {
+                current.buffer().flip();
+                segments.add(current);
+                current = null;
+            }
+        }
+    }
+
+    // Bytes written since the last queued segment
+    private final PendingOutputStream pending;
+
+    // Segments waiting to be sent, in order
+    private final ArrayDeque<Object> segments;
+
+    // Most segments sent in one gathering write, and the array they are
+    // gathered in
+    private static final int MAX_GATHERED_SEGMENTS = 16;
+    private final ByteBuffer gather[] = new ByteBuffer[MAX_GATHERED_SEGMENTS];
+
+    // Buffer the streamed responses are read into, created on first use.
+    // Only the segment at the head of the queue is read, so all of them
+    // can share it
+    private byte streamBuffer[] = null;
+
+    /**
+     * Name       : QueuedResponseOutputStream
+     * Input      : none
+     * Output     : none
+     * Description: Constructor that collects the written bytes in pooled
+     *              buffers
+     */
+    public QueuedResponseOutputStream()
+    {
+        this(new PendingOutputStream());
+    }
+
+    /**
+     * Name       : QueuedResponseOutputStream
+     * Input      : pending as PendingOutputStream
+     * Output     : none
+     * Description: Constructor that keeps a handle on the pending stream
+     * @param pending
+     */
+    private QueuedResponseOutputStream(PendingOutputStream pending)
+    {
+        super(pending);
+        this.pending = pending;
+        this.segments = pending.segments;
+    }
+
+    /**
+     * Name       : transferFile
+     * Input      : file as FileChannel, position as long, count as long
+     * Output     : none
+     * Description: Queues the file region after the bytes written so far
+     * @param file
+     * @param position
+     * @param count
+     * @throws java.io.IOException
+     */
+    @Override
+    public void transferFile(FileChannel file, long position, long count)
+            throws IOException
+    {
+        queuePending();
+        segments.add(new FileRegion(file, position, count));
+        transferred += count;
+    }
+
+    /**
+     * Name       : transferMapped
+     * Input      : mapping as MappedFileCache.Mapping, position as long,
+     *              count as long
+     * Output     : none
+     * Description: Queues the mapped region after the bytes written so far
+     * @param mapping
+     * @param position
+     * @param count
+     * @throws java.io.IOException
+     */
+    @Override
+    public void transferMapped(MappedFileCache.Mapping mapping, long position,
+            long count) throws IOException
+    {
+        queuePending();
+        segments.add(new MappedRegion(mapping, mapping.slice(position, count)));
+        transferred += count;
+    }
+
+    /**
+     * Name       : writeBuffer
+     * Input      : data as ByteBuffer
+     * Output     : none
+     * Description: Copies data that fits in the buffer being filled; larger
+     *              data is queued as it is, to be gathered with the bytes
+     *              around it when sent
+     * @param data
+     * @throws java.io.IOException
+     */
+    @Override
+    public void writeBuffer(ByteBuffer data) throws IOException
+    {
+        if ((pending.current != null)
+                && (data.remaining() <= pending.current.buffer().remaining()))
+        {
+            super.writeBuffer(data);
+            return;
+        }
+
+        queuePending();
+        transferred += data.remaining();
+        segments.add(data);
+    }
+
+    /**
+     * Name       : transferStream
+     * Input      : in as InputStream, length as long, chunked as boolean
+     * Output     : none
+     * Description: Queues the stream after the bytes written so far; it is
+     *              read only as the socket becomes writable
+     * @param in
+     * @param length
+     * @param chunked
+     * @throws java.io.IOException
+     */
+    @Override
+    public void transferStream(InputStream in, long length, boolean chunked)
+            throws IOException
+    {
+        if (streamBuffer == null)
+        {
+            streamBuffer = new byte[StreamedBody.BUFFER_LENGTH];
+        }
+
+        queuePending();
+        segments.add(new StreamRegion(new StreamedBody(in, length, chunked,
+                streamBuffer)));
+        if (length > 0)
+        {
+            // A stream of unknown length is only counted once drained
+            transferred += length;
+        }
+    }
+
+    /**
+     * Name       : hasPending
+     * Input      : none
+     * Output     : True if some data is waiting to be sent
+     * Description: Tells whether a response is queued
+     * @return true/false
+     */
+    public boolean hasPending()
+    {
+        return (pending.size() > 0) || !segments.isEmpty();
+    }
+
+    /**
+     * Name       : drainTo
+     * Input      : clientChannel as SocketChannel
+     * Output     : True if everything queued was sent
+     * Description: Sends as much of the queue as the non-blocking socket
+     *              accepts
+     * @param clientChannel
+     * @return true/false
+     * @throws java.io.IOException
+     */
+    public boolean drainTo(SocketChannel clientChannel) throws IOException
+    {
+        // Queue the bytes written since the last segment
+        queuePending();
+
+        while (!segments.isEmpty())
+        {
+            Object segment = segments.peek();
+
+            if (getMemory(segment) != null)
+            {
+                // Send the segments in memory at the head of the queue
+                if (!drainMemory(clientChannel))
+                    return false;
+                continue;
+            }
+            else if (segment instanceof StreamRegion)
+            {
+                // Send the stream one buffer at a time
+                StreamRegion region = (StreamRegion) segment;
+                while (true)
+                {
+                    ServerMetrics.SHARED.addBytesSent(clientChannel.write(region.piece));
+                    if (region.piece.hasRemaining())
+                        return false;
+
+                    // Read the next piece once the last one is sent
+                    if (!region.body.next())
+                        break;
+                    region.piece.limit(region.body.end).position(region.body.start);
+                }
+                region.body.close();
+            }
+            else
+            {
+                // Send the file region straight from disk
+                FileRegion region = (FileRegion) segment;
+                long sent = region.file.transferTo(region.position,
+                        region.count, clientChannel);
+                ServerMetrics.SHARED.addBytesSent(sent);
+                region.position += sent;
+                region.count -= sent;
+
+                if (region.count > 0)
+                {
+                    // File shrank under us; give up on this response
+                    if (region.position >= region.file.size())
+                        throw new IOException("File truncated while sending");
+                    return false;
+                }
+                region.file.close();
+            }
+
+            // Segment done
+            segments.poll();
+        }
+
+        // Everything sent
+        return true;
+    }
+
+    /**
+     * Name       : drainMemory
+     * Input      : clientChannel as SocketChannel
+     * Output     : True if the segments were sent
+     * Description: Sends the consecutive segments in memory at the head of
+     *              the queue in one gathering write, and releases the ones
+     *              that were sent completely
+     * @param clientChannel
+     * @return true/false
+     * @throws java.io.IOException
+     */
+    private boolean drainMemory(SocketChannel clientChannel) throws IOException
+    {
+        // Gather the segments in memory, in order
+        int count = 0;
+        for (Object segment : segments)
+        {
+            ByteBuffer buffer = getMemory(segment);
+            if ((buffer == null) || (count == MAX_GATHERED_SEGMENTS))
+                break;
+            gather[count++] = buffer;
+        }
+
+        try
+        {
+            ServerMetrics.SHARED.addBytesSent(clientChannel.write(gather, 0, count));
+
+            // Drop the segments sent, up to the first one left over
+            for (int i = 0; i < count; i++)
+            {
+                if (gather[i].hasRemaining())
+                    return false;
+
+                Object segment = segments.poll();
+                if (segment instanceof BufferPool.PooledBuffer)
+                    ((BufferPool.PooledBuffer) segment).release();
+                else if (segment instanceof MappedRegion)
+                    ((MappedRegion) segment).mapping.release();
+            }
+            return true;
+        }
+        finally
+        {
+            // Keep no references to released buffers
+            for (int i = 0; i < count; i++)
+            {
+                gather[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Name       : getMemory
+     * Input      : segment as Object
+     * Output     : Bytes of the segment, or null if not in memory
+     * Description: Returns the buffer of a segment whose bytes are in
+     *              memory: written bytes, a buffer handed over or a region
+     *              of a mapped file
+     * @param segment
+     * @return buffer/null
+     */
+    private static ByteBuffer getMemory(Object segment)
+    {
+        if (segment instanceof BufferPool.PooledBuffer)
+            return ((BufferPool.PooledBuffer) segment).buffer();
+        if (segment instanceof ByteBuffer)
+            return (ByteBuffer) segment;
+        if (segment instanceof MappedRegion)
+            return ((MappedRegion) segment).region;
+        return null;
+    }
+
+    /**
+     * Name       : discard
+     * Input      : none
+     * Output     : none
+     * Description: Drops the queue, closing its files and releasing its
+     *              mappings; used when the connection closes early
+     */
+    public void discard()
+    {
+        queuePending();
+        for (Object segment : segments)
+        {
+            if (segment instanceof BufferPool.PooledBuffer)
+            {
+                ((BufferPool.PooledBuffer) segment).release();
+            }
+            else if (segment instanceof FileRegion)
+            {
+                try
+                {
+                    ((FileRegion) segment).file.close();
+                }
+                catch (IOException e)
+                {
+                    // Nothing more to do with a file we are dropping
+                }
+            }
+            else if (segment instanceof StreamRegion)
+            {
+                ((StreamRegion) segment).body.close();
+            }
+            else if (segment instanceof MappedRegion)
+            {
+                ((MappedRegion) segment).mapping.release();
+            }
+        }
+        segments.clear();
+
+        // An empty buffer isn't queued; give it back too
+        if (pending.current != null)
+        {
+            pending.current.release();
+            pending.current = null;
+        }
+    }
+
+    /**
+     * Name       : queuePending
+     * Input      : none
+     * Output     : none
+     * Description: Moves the bytes written so far into the segment queue
+     */
+    private void queuePending()
+    {
+        pending.queueCurrent();
+    }
+}
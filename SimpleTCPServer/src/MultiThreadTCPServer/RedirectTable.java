@@ -0,0 +1,224 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Name:        RedirectTable
+ * Type:        Class
+ * Description: In-memory hash index of the permanently moved files log.
+ *              Lookups never touch the disk; when the log changes a new
+ *              index is built and swapped in (copy-on-write), so readers
+ *              always see either the old or the new table as a whole
+ */
+public final class RedirectTable
+{
+    // Current index: old url -> new url
+    private static volatile Map<String, String> table = null;
+
+    // Log of the permanently moved files
+    private static volatile Path logFile = Paths.get(Constants.PERMANENTLY_MOVED_FILES_RECORDS);
+
+    // Size and modification time of the log the index was built from
+    private static long loadedSize = -1;
+    private static long loadedModified = -1;
+
+    // Background thread checking the log for changes
+    private static Thread watcher = null;
+
+    /**
+     * Name       : RedirectTable
+     * Input      : none
+     * Output     : none
+     * Description: Not instantiated; all members are static
+     */
+    private RedirectTable()
+    {
+    }
+
+    /**
+     * Name       : setLogFile
+     * Input      : log as Path
+     * Output     : none
+     * Description: Sets the log the index is built from; used from the
+     *              next reload
+     * @param log
+     */
+    public static void setLogFile(Path log)
+    {
+        logFile = log;
+    }
+
+    /**
+     * Name       : lookup
+     * Input      : url as String
+     * Output     : New location as string, or null if not moved
+     * Description: Returns the new location of a permanently moved url
+     * @param url
+     * @return string/null
+     */
+    public static String lookup(String url)
+    {
+        Map<String, String> current = table;
+        if (current == null)
+        {
+            reload();
+            current = table;
+        }
+        return current.get(url.trim());
+    }
+
+    /**
+     * Name       : size
+     * Input      : none
+     * Output     : Number of redirects as integer
+     * Description: Returns the number of indexed redirects
+     * @return integer
+     */
+    public static int size()
+    {
+        Map<String, String> current = table;
+        return (current == null) ? 0 : current.size();
+    }
+
+    /**
+     * Name       : reload
+     * Input      : none
+     * Output     : none
+     * Description: Builds a new index from the log and swaps it in; the old
+     *              index stays in use if the log can't be read
+     */
+    public static synchronized void reload()
+    {
+        Path log = logFile;
+
+        try
+        {
+            // Remember the version of the log being indexed
+            BasicFileAttributes attrs = Files.readAttributes(log,
+                    BasicFileAttributes.class);
+            long size = attrs.size();
+            long modified = attrs.lastModifiedTime().toMillis();
+
+            // Build the new index off to the side
+            Map<String, String> index = new HashMap<>();
+            try (BufferedReader reader = Files.newBufferedReader(log,
+                    StandardCharsets.ISO_8859_1))
+            {
+                // Stores each line of the file
+                String line = null;
+
+                // Read each line until end of line
+                while ((line = reader.readLine()) != null)
+                {
+                    // Split the line into source and destination urls
+                    int separator = line.indexOf(
+                            Constants.PERMANENTLY_MOVED_FILES_MAPPING_SEPARATOR);
+                    if (separator < 0)
+                    {
+                        continue;
+                    }
+
+                    // The first mapping of a url wins, as with a linear scan
+                    index.putIfAbsent(line.substring(0, separator).trim(),
+                            line.substring(separator
+                                    + Constants.PERMANENTLY_MOVED_FILES_MAPPING_SEPARATOR.length())
+                                    .trim());
+                }
+            }
+
+            // Publish the new index
+            table = Collections.unmodifiableMap(index);
+            loadedSize = size;
+            loadedModified = modified;
+        }
+
+        // Catch an IO Exception and log it
+        catch (IOException e)
+        {
+            AccessLog.SHARED.logError("Couldn't read the moved files log", e);
+
+            // Nothing loaded yet; use an empty table
+            if (table == null)
+            {
+                table = Collections.emptyMap();
+            }
+        }
+    }
+
+    /**
+     * Name       : startWatching
+     * Input      : none
+     * Output     : none
+     * Description: Starts a daemon thread that reloads the index whenever
+     *              the size or modification time of the log changes
+     */
+    public static synchronized void startWatching()
+    {
+        if (watcher != null)
+        {
+            return;
+        }
+
+        watcher = new Thread(() ->
+        {
+            while (true)
+            {
+                try
+                {
+                    Thread.sleep(Constants.REDIRECT_TABLE_CHECK_INTERVAL_MS);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+
+                if (isLogChanged())
+                {
+                    reload();
+                }
+            }
+        }, "redirect-table-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Name       : isLogChanged
+     * Input      : none
+     * Output     : True if the log differs from the indexed version
+     * Description: Compares the size and modification time of the log
+     * @return true/false
+     */
+    private static synchronized boolean isLogChanged()
+    {
+        try
+        {
+            BasicFileAttributes attrs = Files.readAttributes(logFile,
+                    BasicFileAttributes.class);
+            return (attrs.size() != loadedSize)
+                    || (attrs.lastModifiedTime().toMillis() != loadedModified);
+        }
+
+        catch (IOException e)
+        {
+            // Log missing; keep the current index
+            return false;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Name:        RequestBuffer
+ * Type:        Class
+ * Description: Buffers the bytes received on a connection and splits them
+ *              into request messages. A single read may carry several
+ *              pipelined requests; they are parsed in place and handed out
+ *              one at a time, in the order they were received. The socket
+ *              is read through a pooled direct buffer; the parser works on
+ *              the array the data is copied to
+ */
+public class RequestBuffer
+{
+    // Received bytes
+    private byte data[] = new byte[BufferPool.SHARED.getRequestBufferSize()];
+
+    // Index of the first byte not yet handed out as a request
+    private int start = 0;
+
+    // Index after the last received byte
+    private int end = 0;
+
+    // Scan position and start of the line being scanned for the end of the
+    // header section
+    private int scanOffset = 0;
+    private int lineStart = 0;
+
+    // Body bytes of the last request still to be dropped
+    private long bodyToSkip = 0;
+
+    /**
+     * Name       : readFrom
+     * Input      : channel as ReadableByteChannel
+     * Output     : Number of bytes read, or -1 at end of stream
+     * Description: Reads once from the channel into a buffer borrowed from
+     *              the pool, and appends what was read. The buffer goes back
+     *              right after, so a connection only holds one while a read
+     *              is in progress
+     * @param channel
+     * @return integer
+     * @throws java.io.IOException
+     */
+    public int readFrom(ReadableByteChannel channel) throws IOException
+    {
+        BufferPool.PooledBuffer readBuffer = BufferPool.SHARED.borrow(
+                BufferPool.SHARED.getRequestBufferSize());
+        try
+        {
+            // Read whatever the channel has
+            int count = channel.read(readBuffer.buffer());
+
+            // Keep the received data
+            if (count > 0)
+            {
+                readBuffer.buffer().flip();
+                append(readBuffer.buffer());
+            }
+            return count;
+        }
+        finally
+        {
+            readBuffer.release();
+        }
+    }
+
+    /**
+     * Name       : append
+     * Input      : src as ByteBuffer
+     * Output     : none
+     * Description: Appends the remaining bytes of the buffer
+     * @param src
+     */
+    public void append(ByteBuffer src)
+    {
+        int count = src.remaining();
+        ensureSpace(count);
+        src.get(data, end, count);
+        end += count;
+    }
+
+    /**
+     * Name       : isEmpty
+     * Input      : none
+     * Output     : True if no unprocessed bytes are buffered
+     * Description: Tells whether part of a request is waiting in the buffer
+     * @return true/false
+     */
+    public boolean isEmpty()
+    {
+        skipBody();
+        return start == end;
+    }
+
+    /**
+     * Name       : nextRequest
+     * Input      : request as HttpRequest
+     * Output     : True if a request was parsed into the request object
+     * Description: Removes the next complete request message from the buffer
+     *              and parses it. The scan for the end of the headers resumes
+     *              where the previous call stopped, so each byte is looked at
+     *              once. Headers larger than the limit make a bad request.
+     *              A body announced with Content-Length is skipped as it
+     *              arrives so it is not taken for the next request
+     * @param request
+     * @return true/false
+     */
+    public boolean nextRequest(HttpRequest request)
+    {
+        // Drop body bytes of the previous request
+        skipBody();
+
+        // Look for the blank line that ends the header section
+        int headerEnd = findHeaderEnd();
+        if (headerEnd < 0)
+        {
+            // Header section too large; answer with a bad request
+            if ((end - start) > Constants.MAX_REQUEST_HEADER_SIZE)
+            {
+                drain(request);
+                return true;
+            }
+            return false;
+        }
+        if ((headerEnd - start) > Constants.MAX_REQUEST_HEADER_SIZE)
+        {
+            drain(request);
+            return true;
+        }
+
+        // Parse the request in place
+        long parseStart = System.nanoTime();
+        HttpRequestParser.parse(data, start, headerEnd, request);
+        ServerMetrics.SHARED.recordParse(System.nanoTime() - parseStart);
+
+        // Hand out the request and skip its body
+        start = headerEnd;
+        scanOffset = start;
+        lineStart = start;
+        bodyToSkip = request.getContentLength();
+        return true;
+    }
+
+    /**
+     * Name       : drain
+     * Input      : request as HttpRequest
+     * Output     : none
+     * Description: Removes whatever is left in the buffer as a bad request;
+     *              used when the client closes the connection in the middle
+     *              of a request or sends oversized headers
+     * @param request
+     */
+    public void drain(HttpRequest request)
+    {
+        request.reset(data);
+        request.markBad();
+        start = end;
+        scanOffset = end;
+        lineStart = end;
+        bodyToSkip = 0;
+    }
+
+    /**
+     * Name       : skipBody
+     * Input      : none
+     * Output     : none
+     * Description: Drops the received bytes of a request body
+     */
+    private void skipBody()
+    {
+        int count = (int) Math.min(bodyToSkip, end - start);
+        start += count;
+        bodyToSkip -= count;
+        scanOffset = Math.max(scanOffset, start);
+        lineStart = Math.max(lineStart, start);
+    }
+
+    /**
+     * Name       : findHeaderEnd
+     * Input      : none
+     * Output     : Index after the blank line, or -1 if not received yet
+     * Description: Scans the bytes received since the last call for the end
+     *              of the header section
+     * @return integer
+     */
+    private int findHeaderEnd()
+    {
+        for (; scanOffset < end; scanOffset++)
+        {
+            if (data[scanOffset] == '\n')
+            {
+                // A line of only white space ends the headers
+                if (HttpRequestParser.isBlank(data, lineStart, scanOffset))
+                {
+                    return scanOffset + 1;
+                }
+                lineStart = scanOffset + 1;
+            }
+        }
+
+        // Need more data
+        return -1;
+    }
+
+    /**
+     * Name       : ensureSpace
+     * Input      : count as int
+     * Output     : none
+     * Description: Makes room for count more bytes, first by dropping the
+     *              bytes already handed out, then by growing the buffer
+     * @param count
+     */
+    private void ensureSpace(int count)
+    {
+        // Drop the processed bytes
+        if (start > 0)
+        {
+            System.arraycopy(data, start, data, 0, end - start);
+            end -= start;
+            scanOffset -= start;
+            lineStart -= start;
+            start = 0;
+        }
+
+        // Grow if still too small
+        if ((data.length - end) < count)
+        {
+            byte grown[] = new byte[Math.max(data.length * 2, end + count)];
+            System.arraycopy(data, 0, grown, 0, end);
+            data = grown;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Name:        RequestHandler
+ * Type:        Class
+ * Description: Processes a complete request message and writes the response.
+ *              Shared by the blocking and the non-blocking server modes
+ */
+public class RequestHandler
+{
+    // Requests served on one persistent connection before it is closed
+    private static volatile int maxKeepAliveRequests = Constants.MAX_KEEP_ALIVE_REQUESTS;
+
+    /**
+     * Name       : setMaxKeepAliveRequests
+     * Input      : max as int
+     * Output     : none
+     * Description: Sets how many requests a persistent connection serves
+     * @param max
+     */
+    public static void setMaxKeepAliveRequests(int max)
+    {
+        maxKeepAliveRequests = max;
+    }
+
+    /**
+     * Name       : getMaxKeepAliveRequests
+     * Input      : none
+     * Output     : Requests per connection as integer
+     * Description: Returns how many requests a persistent connection serves
+     * @return integer
+     */
+    public static int getMaxKeepAliveRequests()
+    {
+        return maxKeepAliveRequests;
+    }
+
+    /**
+     * Name       : handleRequest
+     * Input      : request as HttpRequest, keepAliveAllowed as boolean,
+     *              outToClient as ResponseOutputStream
+     * Output     : True if the connection stays open for another request
+     * Description: Resolves the resource of a parsed request and sends the
+     *              response message to the client, or 503 over the limit of
+     *              requests in flight; then counts the response and hands it
+     *              to the access log
+     * @param request
+     * @param keepAliveAllowed
+     * @param outToClient
+     * @return true/false
+     * @throws java.io.IOException
+     */
+    public static boolean handleRequest(HttpRequest request,
+            boolean keepAliveAllowed, ResponseOutputStream outToClient)
+            throws IOException
+    {
+        long start = System.nanoTime();
+        outToClient.startResponse();
+
+        // Shed the request if too many are being processed already
+        boolean keepAlive = false;
+        if (AdmissionControl.SHARED.tryStartRequest())
+        {
+            try
+            {
+                keepAlive = respond(request, keepAliveAllowed, outToClient);
+            }
+            finally
+            {
+                AdmissionControl.SHARED.requestFinished();
+            }
+        }
+        else
+        {
+            MessageHandler.sendErrorMsg_503(outToClient);
+        }
+
+        // Count the response and log it
+        int status = outToClient.getStatus();
+        ServerMetrics.SHARED.recordStatus(status);
+        AccessLog.SHARED.logAccess(request, status, outToClient.getBodyBytes(),
+                System.nanoTime() - start);
+        return keepAlive;
+    }
+
+    /**
+     * Name       : respond
+     * Input      : request as HttpRequest, keepAliveAllowed as boolean,
+     *              outToClient as ResponseOutputStream
+     * Output     : True if the connection stays open for another request
+     * Description: Resolves the resource of the request and writes the
+     *              response
+     * @param request
+     * @param keepAliveAllowed
+     * @param outToClient
+     * @return true/false
+     * @throws java.io.IOException
+     */
+    private static boolean respond(HttpRequest request,
+            boolean keepAliveAllowed, ResponseOutputStream outToClient)
+            throws IOException
+    {
+        // Whether the connection stays open after this response
+        boolean keepAlive = false;
+        
+        // Holds file path to the resourses from request line
+        String unparsedPath = "";
+
+        // File path for the base html file or other objects
+        Path filePath = null;
+
+        // Filename of the resource without complete path info
+        String filename = "";
+
+        try
+        {
+            // Check if the request message has an incorrect syntax
+            if (request.isBad())
+            {
+                // Throw an exception if the request message has incorrect
+                // syntax
+                throw new BadRequestException();
+            }
+
+            // Keep the connection open if both sides agree
+            keepAlive = keepAliveAllowed && request.isKeepAliveRequested();
+
+            // assign unparsed path from client request
+            unparsedPath = request.getTarget();
+
+            // Metrics are served from a reserved path
+            if (unparsedPath.equals(ServerMetrics.SHARED.getPath()))
+            {
+                MessageHandler.sendMetricsResponseMsg(request.isHead(), keepAlive,
+                        outToClient);
+                return keepAlive;
+            }
+
+            // Resolve the file path, file name and content type of the
+            // target and look the file up; both come from the path cache
+            // after the first request for the target
+            long resolveStart = System.nanoTime();
+            ResolvedPathCache.Resource resource =
+                    ResolvedPathCache.SHARED.resolve(unparsedPath);
+            filePath = resource.filePath;
+            filename = resource.filename;
+            ResolvedPathCache.FileInfo info = ResolvedPathCache.SHARED.stat(resource);
+
+            // Time the writing of the response from here
+            long writeStart = System.nanoTime();
+            ServerMetrics.SHARED.recordResolve(writeStart - resolveStart);
+
+            // If the requested file exists, process request; special files
+            // such as pipes are streamed. A directory is no file to send
+            if (info.regular || info.special)
+            {
+                // Send response message with text/html or image data
+                switch (resource.contentType) {
+                    case "text/html":
+                        keepAlive = MessageHandler.sendHtmlResponseMsg(filePath,
+                                request, keepAlive, outToClient);
+                        break;
+                    case "image":
+                        keepAlive = MessageHandler.sendImageResponseMsg(filePath,
+                                filename, request, keepAlive, outToClient);
+                        break;
+                }
+            }
+
+            // If requested file doesn't exist or is a directory ...
+            else
+            {
+                // Holds the new url address
+                String newAddr = null;
+
+                // Get the requested url to check if file exists
+                if (unparsedPath.charAt(unparsedPath.length() - 1) == '/')
+                {
+                    unparsedPath = unparsedPath.substring(0, unparsedPath.length() -1);
+                }
+
+                // Create a full URL (with protocol, host and path)
+                String url = "http://" + request.getHost() + unparsedPath;
+
+                //check if it has been permanently moved; if not,
+                // show error message
+                if ((newAddr = Utilities.isFileMovedPermanently(filename, url)) != null)
+                {
+                     // Send the moved permanently message
+                    MessageHandler.sendMsg_301(filename, newAddr, request.isHead(),
+                            keepAlive, outToClient);
+                }
+
+                else
+                {
+                    // NOT FOUND 404 error
+                    MessageHandler.sendErrorMsg_404(filePath, filename, request.isHead(),
+                            keepAlive, outToClient);
+                }
+            }
+            ServerMetrics.SHARED.recordWrite(System.nanoTime() - writeStart);
+        }
+
+        // Catch exception throw when request message has incorrect syntax
+        catch (BadRequestException  e)
+        {
+            // Send the Bad Request Message
+            MessageHandler.sendErrorMsg_400(filename, outToClient);
+            keepAlive = false;
+        }
+        
+        // Return the connection decision
+        return keepAlive;
+    }
+}
@@ -0,0 +1,564 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Name:        ResolvedPathCache
+ * Type:        Class
+ * Description: Caches the work of resolving a request target: the file
+ *              path, file name and content type derived from the target,
+ *              and the metadata of the file (exists, size, modification
+ *              time). Missing files are remembered for a short time. A
+ *              WatchService on the document root drops the metadata of
+ *              files that change, so a cache hit needs no string rewriting
+ *              and no file system call. Directories written by the server
+ *              itself, such as the logs, aren't watched, and targets in
+ *              them are answered as missing. A full map drops a random
+ *              share of its entries to make room
+ */
+public class ResolvedPathCache
+{
+    /**
+     * Name:        Resource
+     * Type:        Class
+     * Description: What a request target resolves to; depends only on the
+     *              target, so it never goes stale
+     */
+    public static final class Resource
+    {
+        // Path of the file, as used to open it, and its absolute form
+        public final Path filePath;
+        final Path absolutePath;
+
+        // File name without path information, and its content type
+        public final String filename;
+        public final String contentType;
+
+        // Whether the file is in an excluded directory and never served
+        final boolean hidden;
+
+        Resource(Path filePath, String filename, boolean hidden)
+        {
+            this.filePath = filePath;
+            this.absolutePath = filePath.toAbsolutePath().normalize();
+            this.filename = filename;
+            this.contentType = Utilities.getContentType(filename);
+            this.hidden = hidden;
+        }
+    }
+
+    /**
+     * Name:        FileInfo
+     * Type:        Class
+     * Description: Metadata of a file at the time it was looked up
+     */
+    public static final class FileInfo
+    {
+        // Whether the file exists, and is a regular file or a special file
+        // such as a pipe, whose size isn't known up front; a directory is
+        // neither
+        public final boolean exists;
+        public final boolean regular;
+        public final boolean special;
+
+        // Size and modification time of a regular file
+        public final long size;
+        public final long lastModified;
+
+        // Time (System.nanoTime) after which a negative entry is stale
+        final long expires;
+
+        FileInfo(boolean exists, boolean regular, boolean special, long size,
+                long lastModified, long expires)
+        {
+            this.exists = exists;
+            this.regular = regular;
+            this.special = special;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+    }
+
+    // One in this many entries is dropped when a map is full
+    private static final int EVICTION_SHARE = 8;
+
+    // Metadata of a hidden file: missing, so it is answered with a 404
+    private static final FileInfo HIDDEN = new FileInfo(false, false, false, 0, 0, 0);
+
+    // Cache shared by all connections
+    public static final ResolvedPathCache SHARED = new ResolvedPathCache(
+            Paths.get(Constants.DOCUMENT_ROOT), Constants.PATH_CACHE_MAX_ENTRIES,
+            Constants.PATH_CACHE_NEGATIVE_TTL_MS);
+
+    // Directory the request targets are resolved against
+    private volatile Path documentRoot;
+
+    // Request target -> resolved resource
+    private final ConcurrentHashMap<String, Resource> resources = new ConcurrentHashMap<>();
+
+    // Absolute file path -> metadata
+    private final ConcurrentHashMap<Path, FileInfo> files = new ConcurrentHashMap<>();
+
+    // Directories whose changes are watched; files elsewhere are looked up
+    // every time unless missing
+    private final Set<Path> watchedDirs = ConcurrentHashMap.newKeySet();
+
+    // Directories and files under the root left unwatched and hidden, with
+    // everything below
+    private final Set<Path> excludedDirs = ConcurrentHashMap.newKeySet();
+
+    // Watch keys and the directories they belong to
+    private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+
+    // Incremented on every invalidation; a lookup that raced with one
+    // doesn't store its result
+    private final AtomicLong generation = new AtomicLong();
+
+    // Most entries per map and lifetime of an entry for a missing file
+    private volatile int maxEntries;
+    private volatile long negativeTtlNanos;
+
+    // Watcher of the document root
+    private WatchService watchService = null;
+
+    /**
+     * Name       : ResolvedPathCache
+     * Input      : documentRoot as Path, maxEntries as int,
+     *              negativeTtlMillis as long
+     * Output     : none
+     * Description: Constructor that sets the document root, the size limit
+     *              and the lifetime of negative entries
+     * @param documentRoot
+     * @param maxEntries
+     * @param negativeTtlMillis
+     */
+    public ResolvedPathCache(Path documentRoot, int maxEntries, long negativeTtlMillis)
+    {
+        this.documentRoot = documentRoot;
+        this.maxEntries = maxEntries;
+        this.negativeTtlNanos = negativeTtlMillis * 1000000L;
+    }
+
+    /**
+     * Name       : setDocumentRoot
+     * Input      : documentRoot as Path
+     * Output     : none
+     * Description: Changes the directory the request targets are resolved
+     *              against, dropping what was cached for the old one; set
+     *              before watching
+     * @param documentRoot
+     */
+    public void setDocumentRoot(Path documentRoot)
+    {
+        this.documentRoot = documentRoot;
+        resources.clear();
+        clear();
+    }
+
+    /**
+     * Name       : getDocumentRoot
+     * Input      : none
+     * Output     : Document root as Path
+     * Description: Returns the directory the request targets are resolved
+     *              against
+     * @return path
+     */
+    public Path getDocumentRoot()
+    {
+        return documentRoot;
+    }
+
+    /**
+     * Name       : setLimits
+     * Input      : maxEntries as int, negativeTtlMillis as long
+     * Output     : none
+     * Description: Changes the size limit and the lifetime of negative
+     *              entries; a smaller limit takes effect as entries are
+     *              added
+     * @param maxEntries
+     * @param negativeTtlMillis
+     */
+    public void setLimits(int maxEntries, long negativeTtlMillis)
+    {
+        this.maxEntries = maxEntries;
+        this.negativeTtlNanos = negativeTtlMillis * 1000000L;
+    }
+
+    /**
+     * Name       : resolve
+     * Input      : target as String
+     * Output     : Resolved resource
+     * Description: Returns the file path, file name and content type of a
+     *              request target; '/' is the default html file. Targets
+     *              leading out of the document root are bad requests, and
+     *              targets in an excluded directory are hidden
+     * @param target
+     * @return resource
+     * @throws MultiThreadTCPServer.BadRequestException
+     */
+    public Resource resolve(String target) throws BadRequestException
+    {
+        Resource resource = resources.get(target);
+        if (resource != null)
+        {
+            return resource;
+        }
+
+        // Resolve it below the document root
+        Path filePath;
+        String filename;
+        if (target.equals("/"))
+        {
+            filePath = documentRoot.resolve(Constants.DEFAULT_FILE_PATH);
+            filename = Constants.DEFAULT_FILE_NAME;
+        }
+        else
+        {
+            filePath = Utilities.parseFilePath(documentRoot, target);
+            if (filePath == null)
+            {
+                throw new BadRequestException();
+            }
+            filename = Utilities.getFileNameOnly(filePath);
+        }
+        resource = new Resource(filePath, filename,
+                isExcluded(filePath.toAbsolutePath().normalize()));
+
+        // Random targets must not grow the cache without bound
+        if (resources.size() >= maxEntries)
+        {
+            evict(resources);
+        }
+        resources.put(target, resource);
+        return resource;
+    }
+
+    /**
+     * Name       : getResolvedCount
+     * Input      : none
+     * Output     : Number of resolved targets as integer
+     * Description: Returns how many request targets are cached
+     * @return integer
+     */
+    int getResolvedCount()
+    {
+        return resources.size();
+    }
+
+    /**
+     * Name       : stat
+     * Input      : filePath as Path
+     * Output     : Metadata of the file
+     * Description: Returns the metadata of a file, from the cache if it is
+     *              current. Existing files are only cached in a watched
+     *              directory; missing files are cached for a short time
+     * @param filePath
+     * @return file info
+     */
+    public FileInfo stat(Path filePath)
+    {
+        Path key = filePath.toAbsolutePath().normalize();
+        FileInfo info = files.get(key);
+        if ((info != null) && (info.exists || (System.nanoTime() - info.expires < 0)))
+        {
+            return info;
+        }
+
+        // Look the file up
+        long startGeneration = generation.get();
+        try
+        {
+            BasicFileAttributes attrs = Files.readAttributes(key,
+                    BasicFileAttributes.class);
+            info = new FileInfo(true, attrs.isRegularFile(), attrs.isOther(),
+                    attrs.size(), attrs.lastModifiedTime().toMillis(), 0);
+        }
+        catch (NoSuchFileException e)
+        {
+            info = new FileInfo(false, false, false, 0, 0,
+                    System.nanoTime() + negativeTtlNanos);
+        }
+        catch (IOException e)
+        {
+            // Unreadable or a bad name; treat as missing, like Files.exists
+            info = new FileInfo(false, false, false, 0, 0,
+                    System.nanoTime() + negativeTtlNanos);
+        }
+
+        // Keep it unless the file changed meanwhile
+        if ((!info.exists || watchedDirs.contains(key.getParent()))
+                && (generation.get() == startGeneration))
+        {
+            if (files.size() >= maxEntries)
+            {
+                evict(files);
+            }
+            files.put(key, info);
+        }
+        return info;
+    }
+
+    /**
+     * Name       : stat
+     * Input      : resource as Resource
+     * Output     : Metadata of the file
+     * Description: Returns the metadata of the file of a resolved target;
+     *              a hidden file is reported missing
+     * @param resource
+     * @return file info
+     */
+    public FileInfo stat(Resource resource)
+    {
+        if (resource.hidden)
+        {
+            return HIDDEN;
+        }
+        return stat(resource.absolutePath);
+    }
+
+    /**
+     * Name       : invalidate
+     * Input      : filePath as Path
+     * Output     : none
+     * Description: Drops the metadata of a path and of everything below it
+     * @param filePath
+     */
+    public void invalidate(Path filePath)
+    {
+        Path key = filePath.toAbsolutePath().normalize();
+        generation.incrementAndGet();
+        files.keySet().removeIf(path -> path.startsWith(key));
+    }
+
+    /**
+     * Name       : evict
+     * Input      : map as ConcurrentHashMap
+     * Output     : none
+     * Description: Makes room in a full map by dropping one entry in
+     *              EVICTION_SHARE, picked at random, and at least enough to
+     *              get under the limit. A scan of random targets then only
+     *              costs the hot entries their share, instead of flushing
+     *              them all
+     * @param map
+     */
+    private void evict(ConcurrentHashMap<?, ?> map)
+    {
+        int excess = map.size() - maxEntries + 1;
+        int count = Math.max(excess, maxEntries / EVICTION_SHARE);
+
+        // Random picks first, then the first entries for the rest
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Iterator<?> keys = map.keySet().iterator();
+        while ((count > 0) && keys.hasNext())
+        {
+            keys.next();
+            if (random.nextInt(EVICTION_SHARE) == 0)
+            {
+                keys.remove();
+                count -= 1;
+            }
+        }
+        keys = map.keySet().iterator();
+        while ((count > 0) && keys.hasNext())
+        {
+            keys.next();
+            keys.remove();
+            count -= 1;
+        }
+    }
+
+    /**
+     * Name       : clear
+     * Input      : none
+     * Output     : none
+     * Description: Drops all the metadata
+     */
+    public void clear()
+    {
+        generation.incrementAndGet();
+        files.clear();
+    }
+
+    /**
+     * Name       : startWatching
+     * Input      : root as Path, excluded as Collection of Path
+     * Output     : none
+     * Description: Watches the document root and its sub directories, and
+     *              starts a daemon thread that drops the metadata of every
+     *              file reported as created, modified or deleted. The
+     *              excluded directories, such as the one the logs are
+     *              written to, aren't watched: their constant changes would
+     *              keep emptying the cache. Targets in them are hidden from
+     *              then on. An excluded path may also be a single file
+     * @param root
+     * @param excluded
+     * @throws java.io.IOException
+     */
+    public synchronized void startWatching(Path root, Collection<Path> excluded)
+            throws IOException
+    {
+        if (watchService != null)
+        {
+            return;
+        }
+        for (Path dir : excluded)
+        {
+            excludedDirs.add(dir.toAbsolutePath().normalize());
+        }
+        resources.clear();
+        watchService = FileSystems.getDefault().newWatchService();
+        registerTree(root.toAbsolutePath().normalize());
+
+        Thread watcher = new Thread(this::processEvents, "path-cache-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Name       : processEvents
+     * Input      : none
+     * Output     : none
+     * Description: Waits for file system events and invalidates the paths
+     *              they name; if events were lost, everything is dropped
+     */
+    private void processEvents()
+    {
+        while (true)
+        {
+            WatchKey watchKey = null;
+            try
+            {
+                watchKey = watchService.take();
+            }
+            catch (InterruptedException | ClosedWatchServiceException e)
+            {
+                return;
+            }
+
+            Path dir = watchKeys.get(watchKey);
+            for (WatchEvent<?> event : watchKey.pollEvents())
+            {
+                if ((dir == null) || (event.kind() == StandardWatchEventKinds.OVERFLOW))
+                {
+                    clear();
+                    continue;
+                }
+
+                // Changes in excluded directories are of no interest
+                Path changed = dir.resolve((Path) event.context());
+                if (isExcluded(changed))
+                {
+                    continue;
+                }
+                invalidate(changed);
+
+                // Follow new sub directories too
+                if ((event.kind() == StandardWatchEventKinds.ENTRY_CREATE)
+                        && Files.isDirectory(changed, LinkOption.NOFOLLOW_LINKS))
+                {
+                    try
+                    {
+                        registerTree(changed);
+                    }
+                    catch (IOException e)
+                    {
+                        // Left unwatched; its files are looked up every time
+                    }
+                }
+            }
+
+            // The directory is gone; stop watching it
+            if (!watchKey.reset())
+            {
+                watchKeys.remove(watchKey);
+                if (dir != null)
+                {
+                    watchedDirs.remove(dir);
+                    invalidate(dir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Name       : registerTree
+     * Input      : root as Path
+     * Output     : none
+     * Description: Registers a directory and its sub directories with the
+     *              watch service, skipping the excluded ones
+     * @param root
+     * @throws java.io.IOException
+     */
+    private void registerTree(Path root) throws IOException
+    {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir,
+                    BasicFileAttributes attrs) throws IOException
+            {
+                Path key = dir.toAbsolutePath().normalize();
+                if (isExcluded(key))
+                {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey watchKey = key.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                watchKeys.put(watchKey, key);
+                watchedDirs.add(key);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Name       : isExcluded
+     * Input      : path as Path
+     * Output     : True if the path is in an excluded directory
+     * Description: Tells whether a path is left unwatched
+     * @param path
+     * @return true/false
+     */
+    private boolean isExcluded(Path path)
+    {
+        for (Path dir : excludedDirs)
+        {
+            if (path.startsWith(dir))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
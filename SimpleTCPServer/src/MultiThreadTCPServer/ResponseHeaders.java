@@ -0,0 +1,137 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Name:        ResponseHeaders
+ * Type:        Class
+ * Description: Response lines and header fragments encoded once as ASCII
+ *              bytes, so that composing a response copies bytes into the
+ *              stream buffer instead of building Strings and narrowing them
+ *              a char at a time. Header lines that depend on the content,
+ *              such as the Content-Type of a file type, are encoded the
+ *              first time they are used and kept; there are only a few
+ */
+public final class ResponseHeaders
+{
+    // Response lines
+    public static final byte STATUS_OK[] = encode(Constants.HTTP_RESPONSE_LINE_OK);
+    public static final byte STATUS_PARTIAL_CONTENT[] =
+            encode(Constants.HTTP_RESPONSE_LINE_PARTIAL_CONTENT);
+    public static final byte STATUS_NOT_MODIFIED[] =
+            encode(Constants.HTTP_RESPONSE_LINE_NOT_MODIFIED);
+    public static final byte STATUS_RANGE_NOT_SATISFIABLE[] =
+            encode(Constants.HTTP_RESPONSE_LINE_RANGE_NOT_SATISFIABLE);
+
+    // Complete header lines
+    public static final byte ACCEPT_RANGES[] = encode(Constants.HTTP_RESPONSE_HEADER_ACCEPT_RANGES);
+    public static final byte VARY_ACCEPT_ENCODING[] =
+            encode(Constants.HTTP_RESPONSE_HEADER_VARY_ACCEPT_ENCODING);
+    public static final byte TRANSFER_ENCODING_CHUNKED[] =
+            encode(Constants.HTTP_RESPONSE_HEADER_TRANSFER_ENCODING_CHUNKED);
+    public static final byte CONTENT_TYPE_METRICS[] =
+            encode(Constants.HTTP_RESPONSE_HEADER_CONTENT_TYPE_METRICS);
+
+    // Header names a value follows, and the end of a line
+    public static final byte CONTENT_LENGTH[] = encode(Constants.HTTP_RESPONSE_HEADER_CONTENT_LENGTH);
+    public static final byte CONTENT_RANGE[] = encode(Constants.HTTP_RESPONSE_HEADER_CONTENT_RANGE);
+    public static final byte CONTENT_TYPE_MULTIPART[] =
+            encode(Constants.HTTP_RESPONSE_HEADER_CONTENT_TYPE_MULTIPART);
+    public static final byte ETAG[] = encode(Constants.HTTP_RESPONSE_HEADER_ETAG);
+    public static final byte LAST_MODIFIED[] = encode(Constants.HTTP_RESPONSE_HEADER_LAST_MODIFIED);
+    public static final byte CRLF[] = encode("\r\n");
+
+    // Connection header and the blank line ending the headers
+    private static final byte END_KEEP_ALIVE[] =
+            encode(Constants.HTTP_RESPONSE_HEADER_CONNECTION_KEEP_ALIVE + "\r\n");
+    private static final byte END_CLOSE[] =
+            encode(Constants.HTTP_RESPONSE_HEADER_CONNECTION_CLOSE + "\r\n");
+
+    // Header lines encoded on first use, and Content-Type lines by type
+    private static final ConcurrentHashMap<String, byte[]> encoded = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, String> contentTypes = new ConcurrentHashMap<>();
+
+    /**
+     * Name       : ResponseHeaders
+     * Input      : none
+     * Output     : none
+     * Description: Not instantiated; all members are static
+     */
+    private ResponseHeaders()
+    {
+    }
+
+    /**
+     * Name       : encode
+     * Input      : text as String
+     * Output     : Text as bytes
+     * Description: Encodes header text; every char is one byte
+     * @param text
+     * @return bytes
+     */
+    public static byte[] encode(String text)
+    {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Name       : getEncoded
+     * Input      : headers as String
+     * Output     : Header lines as bytes
+     * Description: Returns the encoded form of header lines that are
+     *              constants, or were returned by getContentTypeHeader,
+     *              encoding them on first use
+     * @param headers
+     * @return bytes
+     */
+    public static byte[] getEncoded(String headers)
+    {
+        byte bytes[] = encoded.get(headers);
+        if (bytes == null)
+        {
+            bytes = encoded.computeIfAbsent(headers, ResponseHeaders::encode);
+        }
+        return bytes;
+    }
+
+    /**
+     * Name       : getContentTypeHeader
+     * Input      : mimeType as String
+     * Output     : Header line as string
+     * Description: Returns the Content-Type header line of a type; the same
+     *              String every time, so its encoded form is found quickly
+     * @param mimeType
+     * @return header line
+     */
+    public static String getContentTypeHeader(String mimeType)
+    {
+        String header = contentTypes.get(mimeType);
+        if (header == null)
+        {
+            header = contentTypes.computeIfAbsent(mimeType,
+                    type -> Constants.HTTP_RESPONSE_HEADER_CONTENT_TYPE + type + "\r\n");
+        }
+        return header;
+    }
+
+    /**
+     * Name       : getHeaderEnd
+     * Input      : keepAlive as boolean
+     * Output     : Connection header and blank line as bytes
+     * Description: Returns the bytes ending the headers of a response
+     * @param keepAlive
+     * @return bytes
+     */
+    public static byte[] getHeaderEnd(boolean keepAlive)
+    {
+        return keepAlive ? END_KEEP_ALIVE : END_CLOSE;
+    }
+}
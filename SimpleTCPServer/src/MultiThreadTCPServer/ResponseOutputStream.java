@@ -0,0 +1,286 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Name:        ResponseOutputStream
+ * Type:        Abstract Class
+ * Description: Output stream the response messages are written to. Besides
+ *              the usual stream writes it can send a region of a file
+ *              straight from disk to the socket, without copying it through
+ *              the heap, and hand over a buffer to be sent as it is, in the
+ *              same gathering write as the headers before it. Header text
+ *              and numbers are encoded in bulk rather than a char at a time
+ */
+public abstract class ResponseOutputStream extends DataOutputStream
+{
+    // Status code of the response being written; 0 until it is known
+    private int status = 0;
+
+    // Bytes of the response sent as file regions, streams or buffers
+    // rather than written
+    protected long transferred = 0;
+
+    // Bytes of the response up to the end of its headers
+    private long headerBytes = 0;
+
+    // Scratch space text, numbers and buffers are copied through
+    private byte scratch[] = new byte[64];
+
+    // Most bytes of a buffer copied through the scratch space at once
+    private static final int COPY_CHUNK_SIZE = 8192;
+
+    /**
+     * Name       : ResponseOutputStream
+     * Input      : out as OutputStream
+     * Output     : none
+     * Description: Constructor that wraps the stream receiving the bytes
+     * @param out
+     */
+    protected ResponseOutputStream(OutputStream out)
+    {
+        super(out);
+    }
+
+    /**
+     * Name       : transferFile
+     * Input      : file as FileChannel, position as long, count as long
+     * Output     : none
+     * Description: Sends count bytes of the file starting at position, after
+     *              everything written so far. The stream takes ownership of
+     *              the file channel and closes it once the bytes are sent
+     * @param file
+     * @param position
+     * @param count
+     * @throws java.io.IOException
+     */
+    public abstract void transferFile(FileChannel file, long position, long count)
+            throws IOException;
+
+    /**
+     * Name       : transferMapped
+     * Input      : mapping as MappedFileCache.Mapping, position as long,
+     *              count as long
+     * Output     : none
+     * Description: Sends count bytes of a mapped file starting at position,
+     *              after everything written so far. The stream takes over
+     *              the caller's reference to the mapping and releases it
+     *              once the bytes are sent
+     * @param mapping
+     * @param position
+     * @param count
+     * @throws java.io.IOException
+     */
+    public abstract void transferMapped(MappedFileCache.Mapping mapping,
+            long position, long count) throws IOException;
+
+    /**
+     * Name       : transferStream
+     * Input      : in as InputStream, length as long, chunked as boolean
+     * Output     : none
+     * Description: Sends the data of the stream after everything written so
+     *              far, copying it through a fixed size buffer. length bytes
+     *              are sent, or the whole stream if length is -1; with
+     *              chunked the data is framed as chunks and ended with the
+     *              last chunk. The stream takes ownership of the input stream
+     *              and closes it once the data is sent
+     * @param in
+     * @param length
+     * @param chunked
+     * @throws java.io.IOException
+     */
+    public abstract void transferStream(InputStream in, long length, boolean chunked)
+            throws IOException;
+
+    /**
+     * Name       : writeAscii
+     * Input      : text as String
+     * Output     : none
+     * Description: Writes the text narrowing every char to a byte, like
+     *              writeBytes, but as a single write
+     * @param text
+     * @throws java.io.IOException
+     */
+    public void writeAscii(String text) throws IOException
+    {
+        int length = text.length();
+        byte bytes[] = getScratch(length);
+        for (int i = 0; i < length; i++)
+        {
+            bytes[i] = (byte) text.charAt(i);
+        }
+        write(bytes, 0, length);
+    }
+
+    /**
+     * Name       : writeDecimal
+     * Input      : value as long
+     * Output     : none
+     * Description: Writes the decimal digits of a value that isn't negative,
+     *              without making a String of it
+     * @param value
+     * @throws java.io.IOException
+     */
+    public void writeDecimal(long value) throws IOException
+    {
+        byte bytes[] = getScratch(20);
+        int start = 20;
+        do
+        {
+            bytes[--start] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        while (value > 0);
+        write(bytes, start, 20 - start);
+    }
+
+    /**
+     * Name       : writeBuffer
+     * Input      : data as ByteBuffer
+     * Output     : none
+     * Description: Sends the remaining bytes of the buffer after everything
+     *              written so far, leaving it consumed. Its content must not
+     *              change until it is sent: streams writing to a channel
+     *              send large buffers as they are, in one gathering write
+     *              with the buffered headers. This one copies them
+     * @param data
+     * @throws java.io.IOException
+     */
+    public void writeBuffer(ByteBuffer data) throws IOException
+    {
+        if (data.hasArray())
+        {
+            write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+            return;
+        }
+
+        byte bytes[] = getScratch(Math.min(data.remaining(), COPY_CHUNK_SIZE));
+        while (data.hasRemaining())
+        {
+            int count = Math.min(data.remaining(), bytes.length);
+            data.get(bytes, 0, count);
+            write(bytes, 0, count);
+        }
+    }
+
+    /**
+     * Name       : getScratch
+     * Input      : size as int
+     * Output     : Array of at least size bytes
+     * Description: Returns the scratch space, grown if it is too small
+     * @param size
+     * @return bytes
+     */
+    private byte[] getScratch(int size)
+    {
+        if (scratch.length < size)
+        {
+            scratch = new byte[Math.max(size, scratch.length * 2)];
+        }
+        return scratch;
+    }
+
+    /**
+     * Name       : startResponse
+     * Input      : none
+     * Output     : none
+     * Description: Clears the status and byte count before a new response
+     */
+    public void startResponse()
+    {
+        status = 0;
+        written = 0;
+        transferred = 0;
+        headerBytes = 0;
+    }
+
+    /**
+     * Name       : endHeaders
+     * Input      : none
+     * Output     : none
+     * Description: Records that the headers of the current response end
+     *              here; whatever follows is the body
+     */
+    public void endHeaders()
+    {
+        headerBytes = written + transferred;
+    }
+
+    /**
+     * Name       : endHeaders
+     * Input      : bodyLength as int
+     * Output     : none
+     * Description: Records that the headers of the current response ended
+     *              before its last bodyLength bytes; used after a response
+     *              written in one piece
+     * @param bodyLength
+     */
+    public void endHeaders(int bodyLength)
+    {
+        headerBytes = written + transferred - bodyLength;
+    }
+
+    /**
+     * Name       : setStatus
+     * Input      : status as int
+     * Output     : none
+     * Description: Records the status code of the response being written
+     * @param status
+     */
+    public void setStatus(int status)
+    {
+        this.status = status;
+    }
+
+    /**
+     * Name       : getStatus
+     * Input      : none
+     * Output     : Status code as int, 0 if no response was written
+     * Description: Returns the status code of the current response
+     * @return int
+     */
+    public int getStatus()
+    {
+        return status;
+    }
+
+    /**
+     * Name       : getResponseBytes
+     * Input      : none
+     * Output     : Number of bytes as long
+     * Description: Returns the size of the current response: the bytes
+     *              written plus the file regions and streams of known
+     *              length handed to the stream
+     * @return long
+     */
+    public long getResponseBytes()
+    {
+        return written + transferred;
+    }
+
+    /**
+     * Name       : getBodyBytes
+     * Input      : none
+     * Output     : Number of bytes as long
+     * Description: Returns the size of the body of the current response,
+     *              counted like getResponseBytes from the end of the headers
+     * @return long
+     */
+    public long getBodyBytes()
+    {
+        return written + transferred - headerBytes;
+    }
+}
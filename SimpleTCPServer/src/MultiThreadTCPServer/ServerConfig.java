@@ -0,0 +1,419 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Name:        ServerConfig
+ * Type:        Class
+ * Description: Runtime configuration of the server. A setting is looked up
+ *              by the name of its command line option, without the dashes,
+ *              in the command line (--name=value), the system properties
+ *              (simpletcp.name), the environment (SIMPLETCP_NAME) and the
+ *              configuration file given with --config, in that order; the
+ *              values in Constants are the defaults. The file is a
+ *              properties file or, if its name ends with .yml or .yaml, a
+ *              flat YAML mapping. It can be watched: when it changes it is
+ *              read again and the settings that may change at runtime are
+ *              applied by the caller
+ */
+public class ServerConfig
+{
+    // Configuration of the server
+    public static final ServerConfig SHARED = new ServerConfig();
+
+    // Command line arguments, which override every other source
+    private volatile String argv[] = new String[0];
+
+    // Configuration file, or null if none; its settings as last read, with
+    // the size and modification time of that version
+    private Path file = null;
+    private volatile Map<String, String> fileSettings = Collections.emptyMap();
+    private long loadedSize = -1;
+    private long loadedModified = -1;
+
+    // Thread following the changes of the file
+    private Thread watcher = null;
+
+    /**
+     * Name       : load
+     * Input      : argv as array of string
+     * Output     : none
+     * Description: Takes the command line and reads the configuration file
+     *              named by the config setting, if any
+     * @param argv
+     * @throws java.io.IOException
+     */
+    public synchronized void load(String argv[]) throws IOException
+    {
+        this.argv = argv.clone();
+
+        // The file itself can't be named in the file
+        fileSettings = Collections.emptyMap();
+        String path = get("config", Constants.CONFIG_FILE);
+        if (path.isEmpty())
+        {
+            file = null;
+            return;
+        }
+        file = Paths.get(path);
+        readFile();
+    }
+
+    /**
+     * Name       : getFile
+     * Input      : none
+     * Output     : Path of the configuration file, or null
+     * Description: Returns the configuration file that was loaded
+     * @return path
+     */
+    public synchronized Path getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Name       : get
+     * Input      : name as String, defaultValue as String
+     * Output     : Value of the setting as string
+     * Description: Returns the value of a setting from the first source that
+     *              has it, or the default value
+     * @param name
+     * @param defaultValue
+     * @return value
+     */
+    public String get(String name, String defaultValue)
+    {
+        // Command line
+        String value = MultiThreadTCPServer.getArgValue(argv, "--" + name, null);
+        if (value != null)
+        {
+            return value;
+        }
+
+        // System property, then environment variable
+        value = System.getProperty(Constants.CONFIG_PROPERTY_PREFIX + name);
+        if (value == null)
+        {
+            value = System.getenv(Constants.CONFIG_ENVIRONMENT_PREFIX
+                    + name.toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+        if (value != null)
+        {
+            return value.trim();
+        }
+
+        // Configuration file
+        value = fileSettings.get(name);
+        return (value != null) ? value : defaultValue;
+    }
+
+    /**
+     * Name       : getInt
+     * Input      : name as String, defaultValue as int, min as int
+     * Output     : Value of the setting as int
+     * Description: Returns a whole number setting that is at least min
+     * @param name
+     * @param defaultValue
+     * @param min
+     * @return int
+     */
+    public int getInt(String name, int defaultValue, int min)
+    {
+        long value = getLong(name, defaultValue, min);
+        if (value > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(name + " is too large: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Name       : getLong
+     * Input      : name as String, defaultValue as long, min as long
+     * Output     : Value of the setting as long
+     * Description: Returns a whole number setting that is at least min
+     * @param name
+     * @param defaultValue
+     * @param min
+     * @return long
+     */
+    public long getLong(String name, long defaultValue, long min)
+    {
+        String text = get(name, null);
+        long value = defaultValue;
+        if (text != null)
+        {
+            try
+            {
+                value = Long.parseLong(text);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException(name + " isn't a number: " + text);
+            }
+        }
+        if (value < min)
+        {
+            throw new IllegalArgumentException(name + " must be at least " + min);
+        }
+        return value;
+    }
+
+    /**
+     * Name       : getBoolean
+     * Input      : name as String, defaultValue as boolean
+     * Output     : Value of the setting as boolean
+     * Description: Returns a setting that is true or false
+     * @param name
+     * @param defaultValue
+     * @return true/false
+     */
+    public boolean getBoolean(String name, boolean defaultValue)
+    {
+        String text = get(name, null);
+        if (text == null)
+        {
+            return defaultValue;
+        }
+        if (text.equalsIgnoreCase("true") || text.equalsIgnoreCase("false"))
+        {
+            return Boolean.parseBoolean(text);
+        }
+        throw new IllegalArgumentException(name + " isn't true or false: " + text);
+    }
+
+    /**
+     * Name       : getChoice
+     * Input      : name as String, defaultValue as String,
+     *              choices as array of string
+     * Output     : Value of the setting as string
+     * Description: Returns a setting that must be one of the choices
+     * @param name
+     * @param defaultValue
+     * @param choices
+     * @return value
+     */
+    public String getChoice(String name, String defaultValue, String... choices)
+    {
+        String value = get(name, defaultValue);
+        for (String choice : choices)
+        {
+            if (choice.equals(value))
+            {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException(name + " " + value);
+    }
+
+    /**
+     * Name       : startWatching
+     * Input      : interval as long, onChange as Runnable
+     * Output     : none
+     * Description: Starts a daemon thread that reads the configuration file
+     *              again whenever its size or modification time changes,
+     *              and then runs onChange. Does nothing without a file
+     * @param interval
+     * @param onChange
+     */
+    public synchronized void startWatching(long interval, Runnable onChange)
+    {
+        if ((file == null) || (watcher != null))
+        {
+            return;
+        }
+
+        watcher = new Thread(() ->
+        {
+            while (true)
+            {
+                try
+                {
+                    Thread.sleep(interval);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+
+                if (reloadIfChanged())
+                {
+                    onChange.run();
+                }
+            }
+        }, "config-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Name       : reloadIfChanged
+     * Input      : none
+     * Output     : True if new settings were read
+     * Description: Reads the configuration file again if it differs from
+     *              the version last read; the current settings stay in use
+     *              if it can't be read or parsed
+     * @return true/false
+     */
+    public synchronized boolean reloadIfChanged()
+    {
+        try
+        {
+            BasicFileAttributes attrs = Files.readAttributes(file,
+                    BasicFileAttributes.class);
+            if ((attrs.size() == loadedSize)
+                    && (attrs.lastModifiedTime().toMillis() == loadedModified))
+            {
+                return false;
+            }
+            readFile();
+            return true;
+        }
+
+        catch (IOException e)
+        {
+            AccessLog.SHARED.logError("Couldn't read the configuration file " + file, e);
+
+            // Don't report the same version again
+            try
+            {
+                BasicFileAttributes attrs = Files.readAttributes(file,
+                        BasicFileAttributes.class);
+                loadedSize = attrs.size();
+                loadedModified = attrs.lastModifiedTime().toMillis();
+            }
+            catch (IOException missing)
+            {
+                // Looked at again on the next check
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Name       : readFile
+     * Input      : none
+     * Output     : none
+     * Description: Parses the configuration file and swaps its settings in,
+     *              remembering the version that was read
+     * @throws java.io.IOException
+     */
+    private void readFile() throws IOException
+    {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        Map<String, String> settings = (name.endsWith(".yml") || name.endsWith(".yaml"))
+                ? parseYaml(file) : parseProperties(file);
+
+        // Publish the new settings
+        fileSettings = Collections.unmodifiableMap(settings);
+        loadedSize = attrs.size();
+        loadedModified = attrs.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * Name       : parseProperties
+     * Input      : path as Path
+     * Output     : Settings as map of string to string
+     * Description: Reads a properties file
+     * @param path
+     * @return map
+     * @throws java.io.IOException
+     */
+    static Map<String, String> parseProperties(Path path) throws IOException
+    {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8))
+        {
+            properties.load(reader);
+        }
+
+        Map<String, String> settings = new HashMap<>();
+        for (String name : properties.stringPropertyNames())
+        {
+            settings.put(name.trim(), properties.getProperty(name).trim());
+        }
+        return settings;
+    }
+
+    /**
+     * Name       : parseYaml
+     * Input      : path as Path
+     * Output     : Settings as map of string to string
+     * Description: Reads a YAML file holding a flat mapping of names to
+     *              scalar values, with # comments and optionally quoted
+     *              values; nested mappings and lists aren't supported
+     * @param path
+     * @return map
+     * @throws java.io.IOException
+     */
+    static Map<String, String> parseYaml(Path path) throws IOException
+    {
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        Map<String, String> settings = new HashMap<>();
+
+        for (int i = 0; i < lines.size(); i++)
+        {
+            String line = lines.get(i);
+
+            // Skip blank lines, comments and document markers
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")
+                    || trimmed.equals("---") || trimmed.equals("..."))
+            {
+                continue;
+            }
+
+            int separator = line.indexOf(':');
+            if (Character.isWhitespace(line.charAt(0)) || trimmed.startsWith("-")
+                    || (separator < 0))
+            {
+                throw new IOException("Unsupported YAML at line " + (i + 1)
+                        + ": only a flat mapping of names to values is read");
+            }
+
+            String name = line.substring(0, separator).trim();
+            String value = line.substring(separator + 1).trim();
+
+            // Quoted value, kept as is; otherwise drop a trailing comment
+            if ((value.length() >= 2) && ((value.startsWith("\"") && value.endsWith("\""))
+                    || (value.startsWith("'") && value.endsWith("'"))))
+            {
+                value = value.substring(1, value.length() - 1);
+            }
+            else
+            {
+                int comment = value.indexOf(" #");
+                if (comment >= 0)
+                {
+                    value = value.substring(0, comment).trim();
+                }
+                else if (value.startsWith("#"))
+                {
+                    value = "";
+                }
+            }
+            settings.put(name, value);
+        }
+        return settings;
+    }
+}
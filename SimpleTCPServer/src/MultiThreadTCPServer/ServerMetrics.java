@@ -0,0 +1,323 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Name:        ServerMetrics
+ * Type:        Class
+ * Description: Counters and latency histograms of the server, served in the
+ *              Prometheus text format from a reserved path. Everything is
+ *              recorded with LongAdders: threads update their own cells, so
+ *              recording on the request path neither allocates nor contends
+ */
+public class ServerMetrics
+{
+    // Metrics of the server
+    public static final ServerMetrics SHARED = new ServerMetrics();
+
+    // Highest status code counted
+    private static final int MAX_STATUS = 599;
+
+    // Responses per status code
+    private final LongAdder responses[] = new LongAdder[MAX_STATUS + 1];
+
+    // Bytes written to client sockets
+    private final LongAdder bytesSent = new LongAdder();
+
+    // Connections accepted, rejected, open and ended by an error
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder active = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    // Connections closed by a timeout, by reason
+    private final LongAdder timeouts[] = new LongAdder[ConnectionTimer.REASONS.length];
+
+    // Time spent parsing requests, resolving their files, and writing the
+    // responses
+    private final MetricHistogram parseTime = new MetricHistogram(
+            "http_server_request_parse_seconds",
+            "Time spent parsing request headers.");
+    private final MetricHistogram resolveTime = new MetricHistogram(
+            "http_server_request_resolve_seconds",
+            "Time spent resolving the requested file.");
+    private final MetricHistogram writeTime = new MetricHistogram(
+            "http_server_response_write_seconds",
+            "Time spent composing and writing responses.");
+
+    // Path the metrics are served from; empty if they aren't served
+    private volatile String path = Constants.METRICS_PATH;
+
+    /**
+     * Name       : ServerMetrics
+     * Input      : none
+     * Output     : none
+     * Description: Constructor that creates the counter of every status code
+     */
+    public ServerMetrics()
+    {
+        for (int i = 0; i <= MAX_STATUS; i++)
+        {
+            responses[i] = new LongAdder();
+        }
+        for (int i = 0; i < timeouts.length; i++)
+        {
+            timeouts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Name       : recordStatus
+     * Input      : status as int
+     * Output     : none
+     * Description: Counts a response with the status code
+     * @param status
+     */
+    public void recordStatus(int status)
+    {
+        if ((status > 0) && (status <= MAX_STATUS))
+        {
+            responses[status].increment();
+        }
+    }
+
+    /**
+     * Name       : addBytesSent
+     * Input      : count as long
+     * Output     : none
+     * Description: Counts bytes written to a client socket
+     * @param count
+     */
+    public void addBytesSent(long count)
+    {
+        if (count > 0)
+        {
+            bytesSent.add(count);
+        }
+    }
+
+    /**
+     * Name       : connectionAccepted
+     * Input      : none
+     * Output     : none
+     * Description: Counts an accepted connection
+     */
+    public void connectionAccepted()
+    {
+        accepted.increment();
+    }
+
+    /**
+     * Name       : connectionRejected
+     * Input      : none
+     * Output     : none
+     * Description: Counts a connection dropped without being served
+     */
+    public void connectionRejected()
+    {
+        rejected.increment();
+    }
+
+    /**
+     * Name       : connectionOpened
+     * Input      : none
+     * Output     : none
+     * Description: Counts a connection being served
+     */
+    public void connectionOpened()
+    {
+        active.increment();
+    }
+
+    /**
+     * Name       : connectionClosed
+     * Input      : none
+     * Output     : none
+     * Description: Counts a connection no longer being served
+     */
+    public void connectionClosed()
+    {
+        active.decrement();
+    }
+
+    /**
+     * Name       : connectionError
+     * Input      : none
+     * Output     : none
+     * Description: Counts a connection ended by an I/O error
+     */
+    public void connectionError()
+    {
+        errors.increment();
+    }
+
+    /**
+     * Name       : connectionTimedOut
+     * Input      : reason as int
+     * Output     : none
+     * Description: Counts a connection closed by a timeout; the reason is
+     *              one of those of ConnectionTimer
+     * @param reason
+     */
+    public void connectionTimedOut(int reason)
+    {
+        timeouts[reason].increment();
+    }
+
+    /**
+     * Name       : recordParse
+     * Input      : nanos as long
+     * Output     : none
+     * Description: Records the time spent parsing a request
+     * @param nanos
+     */
+    public void recordParse(long nanos)
+    {
+        parseTime.record(nanos);
+    }
+
+    /**
+     * Name       : recordResolve
+     * Input      : nanos as long
+     * Output     : none
+     * Description: Records the time spent resolving the file of a request
+     * @param nanos
+     */
+    public void recordResolve(long nanos)
+    {
+        resolveTime.record(nanos);
+    }
+
+    /**
+     * Name       : recordWrite
+     * Input      : nanos as long
+     * Output     : none
+     * Description: Records the time spent writing a response
+     * @param nanos
+     */
+    public void recordWrite(long nanos)
+    {
+        writeTime.record(nanos);
+    }
+
+    /**
+     * Name       : getPath
+     * Input      : none
+     * Output     : Path as string
+     * Description: Returns the path the metrics are served from
+     * @return path
+     */
+    public String getPath()
+    {
+        return path;
+    }
+
+    /**
+     * Name       : setPath
+     * Input      : path as String
+     * Output     : none
+     * Description: Changes the path the metrics are served from; an empty
+     *              path stops serving them
+     * @param path
+     */
+    public void setPath(String path)
+    {
+        this.path = path;
+    }
+
+    /**
+     * Name       : format
+     * Input      : none
+     * Output     : Metrics as string
+     * Description: Writes all the metrics in the Prometheus text format
+     * @return metrics
+     */
+    public String format()
+    {
+        StringBuilder text = new StringBuilder(8192);
+
+        text.append("# HELP http_server_responses_total Responses sent, by status code.\n");
+        text.append("# TYPE http_server_responses_total counter\n");
+        for (int i = 0; i <= MAX_STATUS; i++)
+        {
+            long count = responses[i].sum();
+            if (count > 0)
+            {
+                text.append("http_server_responses_total{code=\"").append(i)
+                        .append("\"} ").append(count).append('\n');
+            }
+        }
+
+        appendMetric(text, "http_server_sent_bytes_total", "counter",
+                "Bytes written to client sockets.", bytesSent.sum());
+        appendMetric(text, "http_server_connections_accepted_total", "counter",
+                "Connections accepted.", accepted.sum());
+        appendMetric(text, "http_server_connections_rejected_total", "counter",
+                "Connections turned away without being served.", rejected.sum());
+        appendMetric(text, "http_server_connection_errors_total", "counter",
+                "Connections ended by an I/O error.", errors.sum());
+        text.append("# HELP http_server_connection_timeouts_total Connections closed by a timeout, by reason.\n");
+        text.append("# TYPE http_server_connection_timeouts_total counter\n");
+        for (int i = 1; i < timeouts.length; i++)
+        {
+            text.append("http_server_connection_timeouts_total{reason=\"")
+                    .append(ConnectionTimer.REASONS[i]).append("\"} ")
+                    .append(timeouts[i].sum()).append('\n');
+        }
+        appendMetric(text, "http_server_active_connections", "gauge",
+                "Connections being served.", active.sum());
+
+        appendMetric(text, "http_server_requests_in_flight", "gauge",
+                "Requests being processed.", AdmissionControl.SHARED.getInFlight());
+        appendMetric(text, "http_server_requests_shed_total", "counter",
+                "Requests answered with 503 over the in-flight limit.",
+                AdmissionControl.SHARED.getRequestsShed());
+        appendMetric(text, "http_server_accept_pauses_total", "counter",
+                "Times accepting stopped at the connection limit.",
+                AdmissionControl.SHARED.getAcceptPauses());
+
+        parseTime.appendTo(text);
+        resolveTime.appendTo(text);
+        writeTime.appendTo(text);
+
+        appendMetric(text, "http_server_buffer_pool_outstanding", "gauge",
+                "Pooled buffers in use.", BufferPool.SHARED.getOutstanding());
+        appendMetric(text, "http_server_content_cache_bytes", "gauge",
+                "Bytes held by the static content cache.",
+                MessageHandler.contentCache.getCurrentBytes());
+        appendMetric(text, "http_server_mapped_bytes", "gauge",
+                "Bytes of files currently memory mapped.",
+                MessageHandler.mappedFiles.getMappedBytes());
+        appendMetric(text, "http_server_log_records_dropped_total", "counter",
+                "Log records dropped because the log was overloaded.",
+                AccessLog.SHARED.getDropped());
+        return text.toString();
+    }
+
+    /**
+     * Name       : appendMetric
+     * Input      : text as StringBuilder, name as String, type as String,
+     *              help as String, value as long
+     * Output     : none
+     * Description: Writes a metric with a single value
+     * @param text
+     * @param name
+     * @param type
+     * @param help
+     * @param value
+     */
+    private static void appendMetric(StringBuilder text, String name, String type,
+            String help, long value)
+    {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append(name).append(' ').append(value).append('\n');
+    }
+}
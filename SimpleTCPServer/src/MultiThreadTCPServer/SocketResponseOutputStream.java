@@ -0,0 +1,365 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Name:        SocketResponseOutputStream
+ * Type:        Class
+ * Description: Response stream of a blocking connection. Buffers the written
+ *              bytes in a direct buffer borrowed from the buffer pool, and
+ *              sends files with FileChannel.transferTo, which lets the
+ *              kernel copy them to the socket (sendfile). A large buffer is
+ *              sent together with the buffered headers in one gathering
+ *              write instead of being copied behind them
+ */
+public class SocketResponseOutputStream extends ResponseOutputStream
+{
+    /**
+     * Name:        ChannelOutputStream
+     * Type:        Class
+     * Description: Collects the written bytes in a pooled direct buffer and
+     *              writes them to the channel when it is full or flushed
+     */
+    private static class ChannelOutputStream extends OutputStream
+    {
+        // Channel the bytes are written to
+        final WritableByteChannel channel;
+
+        // Timeout of the connection, told before every write; may be null
+        ConnectionTimer timer = null;
+
+        // Borrowed buffer; null once released
+        private BufferPool.PooledBuffer pooled;
+        private final ByteBuffer buffer;
+
+        // Buffered bytes and the data sent with them in a gathering write
+        private final ByteBuffer gather[] = new ByteBuffer[2];
+
+        ChannelOutputStream(WritableByteChannel channel, int bufferSize)
+        {
+            this.channel = channel;
+            this.pooled = BufferPool.SHARED.borrow(bufferSize);
+            this.buffer = pooled.buffer();
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            if (!buffer.hasRemaining())
+                flush();
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte b[], int off, int len) throws IOException
+        {
+            while (len > 0)
+            {
+                if (!buffer.hasRemaining())
+                    flush();
+                int count = Math.min(len, buffer.remaining());
+                buffer.put(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            buffer.flip();
+            try
+            {
+                while (buffer.hasRemaining())
+                {
+                    if (timer != null)
+                        timer.writing();
+                    ServerMetrics.SHARED.addBytesSent(channel.write(buffer));
+                }
+            }
+            finally
+            {
+                buffer.clear();
+            }
+        }
+
+        // Sends the buffered bytes and the data in as few writes as the
+        // channel takes, a piece of the data at a time
+        void writeGathering(GatheringByteChannel target, ByteBuffer data)
+                throws IOException
+        {
+            buffer.flip();
+            gather[0] = buffer;
+            gather[1] = data;
+            int end = data.limit();
+            try
+            {
+                while (buffer.hasRemaining() || data.hasRemaining())
+                {
+                    if (timer != null)
+                        timer.writing();
+                    data.limit(Math.min(end, data.position() + Constants.TRANSFER_CHUNK_SIZE));
+                    ServerMetrics.SHARED.addBytesSent(target.write(gather));
+                    data.limit(end);
+                }
+            }
+            finally
+            {
+                data.limit(end);
+                gather[1] = null;
+                buffer.clear();
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (pooled == null)
+                return;
+
+            try
+            {
+                if (buffer.position() > 0)
+                    flush();
+                channel.close();
+            }
+            finally
+            {
+                // Give the buffer back even if the client is gone
+                pooled.release();
+                pooled = null;
+            }
+        }
+    }
+
+    // Channel of the client socket, target of the file transfers
+    private final WritableByteChannel socketChannel;
+
+    // Buffered stream written to the socket
+    private final ChannelOutputStream channelOut;
+
+    // Buffer the streamed responses are copied through, created on first use
+    private byte streamBuffer[] = null;
+
+    /**
+     * Name       : SocketResponseOutputStream
+     * Input      : connectionSocket as Socket, bufferSize as int
+     * Output     : none
+     * Description: Constructor that buffers the output of the socket
+     * @param connectionSocket
+     * @param bufferSize
+     * @throws java.io.IOException
+     */
+    public SocketResponseOutputStream(Socket connectionSocket, int bufferSize)
+            throws IOException
+    {
+        this(new ChannelOutputStream(getChannel(connectionSocket), bufferSize));
+    }
+
+    /**
+     * Name       : SocketResponseOutputStream
+     * Input      : out as ChannelOutputStream
+     * Output     : none
+     * Description: Constructor that keeps a handle on the socket channel
+     * @param out
+     */
+    private SocketResponseOutputStream(ChannelOutputStream out)
+    {
+        super(out);
+        this.socketChannel = out.channel;
+        this.channelOut = out;
+    }
+
+    /**
+     * Name       : setTimer
+     * Input      : timer as ConnectionTimer
+     * Output     : none
+     * Description: Tells the timeout of the connection before every write
+     *              to the socket, so that a client that stops reading is
+     *              dropped instead of holding the thread
+     * @param timer
+     */
+    public void setTimer(ConnectionTimer timer)
+    {
+        channelOut.timer = timer;
+    }
+
+    /**
+     * Name       : getChannel
+     * Input      : connectionSocket as Socket
+     * Output     : Channel writing to the socket
+     * Description: Sockets accepted by a ServerSocketChannel have a channel;
+     *              any other socket is written through its stream
+     * @param connectionSocket
+     * @return channel
+     * @throws java.io.IOException
+     */
+    private static WritableByteChannel getChannel(Socket connectionSocket)
+            throws IOException
+    {
+        if (connectionSocket.getChannel() != null)
+        {
+            return connectionSocket.getChannel();
+        }
+        return Channels.newChannel(connectionSocket.getOutputStream());
+    }
+
+    /**
+     * Name       : transferFile
+     * Input      : file as FileChannel, position as long, count as long
+     * Output     : none
+     * Description: Flushes the buffered bytes, then transfers the file region
+     *              to the socket
+     * @param file
+     * @param position
+     * @param count
+     * @throws java.io.IOException
+     */
+    @Override
+    public void transferFile(FileChannel file, long position, long count)
+            throws IOException
+    {
+        try
+        {
+            // Headers must leave before the file data
+            flush();
+            transferred += count;
+
+            // transferTo may send less than asked; loop until done, a piece
+            // at a time
+            while (count > 0)
+            {
+                if (channelOut.timer != null)
+                    channelOut.timer.writing();
+                long sent = file.transferTo(position,
+                        Math.min(count, Constants.TRANSFER_CHUNK_SIZE), socketChannel);
+                ServerMetrics.SHARED.addBytesSent(sent);
+                if (sent <= 0)
+                {
+                    // File shrank under us; stop rather than spin
+                    if (position >= file.size())
+                        throw new IOException("File truncated while sending");
+                    continue;
+                }
+                position += sent;
+                count -= sent;
+            }
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /**
+     * Name       : transferMapped
+     * Input      : mapping as MappedFileCache.Mapping, position as long,
+     *              count as long
+     * Output     : none
+     * Description: Flushes the buffered bytes, then writes the mapped region
+     *              to the socket
+     * @param mapping
+     * @param position
+     * @param count
+     * @throws java.io.IOException
+     */
+    @Override
+    public void transferMapped(MappedFileCache.Mapping mapping, long position,
+            long count) throws IOException
+    {
+        try
+        {
+            // Headers must leave before the file data
+            flush();
+            transferred += count;
+
+            // Write a piece at a time
+            ByteBuffer region = mapping.slice(position, count);
+            int end = region.limit();
+            while (region.hasRemaining())
+            {
+                if (channelOut.timer != null)
+                    channelOut.timer.writing();
+                region.limit(Math.min(end, region.position() + Constants.TRANSFER_CHUNK_SIZE));
+                ServerMetrics.SHARED.addBytesSent(socketChannel.write(region));
+                region.limit(end);
+            }
+        }
+        finally
+        {
+            mapping.release();
+        }
+    }
+
+    /**
+     * Name       : writeBuffer
+     * Input      : data as ByteBuffer
+     * Output     : none
+     * Description: Copies data that fits in the stream buffer behind the
+     *              headers; larger data is sent with the buffered bytes in
+     *              one gathering write
+     * @param data
+     * @throws java.io.IOException
+     */
+    @Override
+    public void writeBuffer(ByteBuffer data) throws IOException
+    {
+        if ((data.remaining() <= channelOut.buffer.remaining())
+                || !(socketChannel instanceof GatheringByteChannel))
+        {
+            super.writeBuffer(data);
+            return;
+        }
+
+        transferred += data.remaining();
+        channelOut.writeGathering((GatheringByteChannel) socketChannel, data);
+    }
+
+    /**
+     * Name       : transferStream
+     * Input      : in as InputStream, length as long, chunked as boolean
+     * Output     : none
+     * Description: Copies the stream to the socket one buffer at a time
+     * @param in
+     * @param length
+     * @param chunked
+     * @throws java.io.IOException
+     */
+    @Override
+    public void transferStream(InputStream in, long length, boolean chunked)
+            throws IOException
+    {
+        if (streamBuffer == null)
+        {
+            streamBuffer = new byte[StreamedBody.BUFFER_LENGTH];
+        }
+
+        StreamedBody body = new StreamedBody(in, length, chunked, streamBuffer);
+        try
+        {
+            while (body.next())
+            {
+                write(body.buffer, body.start, body.end - body.start);
+            }
+        }
+        finally
+        {
+            body.close();
+        }
+    }
+}
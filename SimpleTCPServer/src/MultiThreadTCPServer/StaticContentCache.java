@@ -0,0 +1,402 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Name:        StaticContentCache
+ * Type:        Class
+ * Description: Bounded in-memory cache of pre-encoded responses, keyed by the
+ *              resolved file path. Least recently used entries are evicted
+ *              once the byte budget is exceeded, and an entry is reloaded
+ *              when the size or modification time of its file changes.
+ *              Compressed variants are made once, on first request, and
+ *              kept with the plain entry. Bodies are kept in direct memory,
+ *              so sockets send them without another copy
+ */
+public class StaticContentCache
+{
+    /**
+     * Name:        Entry
+     * Type:        Class
+     * Description: Cached response of one file. The head holds the response
+     *              line and the header lines, except the Connection header
+     *              and the blank line which depend on the connection
+     */
+    public static class Entry
+    {
+        // Size and modification time of the file when it was loaded
+        final long size;
+        public final long lastModified;
+
+        // Validators of this response, sent in the head
+        public final String etag;
+
+        // Pre-encoded response line and headers
+        public final byte head[];
+
+        // File content, read-only; sent through a duplicate, as the
+        // position of the shared buffer must not move
+        public final ByteBuffer body;
+
+        // Compressed variants, made on first request; the plain entry
+        // itself if compressing doesn't make the file smaller
+        Entry gzip = null;
+        Entry deflate = null;
+
+        Entry(long size, long lastModified, String etag, byte head[], byte body[])
+        {
+            ByteBuffer content = ByteBuffer.allocateDirect(body.length);
+            content.put(body).flip();
+            this.size = size;
+            this.lastModified = lastModified;
+            this.etag = etag;
+            this.head = head;
+            this.body = content.asReadOnlyBuffer();
+        }
+
+        // Bytes charged against the budget
+        long getWeight()
+        {
+            long weight = head.length + body.capacity();
+            if ((gzip != null) && (gzip != this))
+                weight += gzip.getWeight();
+            if ((deflate != null) && (deflate != this))
+                weight += deflate.getWeight();
+            return weight;
+        }
+
+        // Variant of a content coding, null if not made yet
+        Entry getVariant(int encoding)
+        {
+            return (encoding == Constants.ENCODING_GZIP) ? gzip : deflate;
+        }
+
+        // Stores the variant of a content coding
+        void setVariant(int encoding, Entry variant)
+        {
+            if (encoding == Constants.ENCODING_GZIP)
+                gzip = variant;
+            else
+                deflate = variant;
+        }
+    }
+
+    // Entries in access order, least recently used first
+    private final LinkedHashMap<Path, Entry> entries =
+            new LinkedHashMap<>(64, 0.75f, true);
+
+    // Byte budget of the whole cache and of a single entry
+    private long maxBytes;
+    private long maxEntryBytes;
+
+    // Bytes currently held
+    private long currentBytes = 0;
+
+    /**
+     * Name       : StaticContentCache
+     * Input      : maxBytes as long, maxEntryBytes as long
+     * Output     : none
+     * Description: Constructor that sets the byte budgets
+     * @param maxBytes
+     * @param maxEntryBytes
+     */
+    public StaticContentCache(long maxBytes, long maxEntryBytes)
+    {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    /**
+     * Name       : get
+     * Input      : filePath as Path, contentTypeHeader as String
+     * Output     : Cached entry, or null if the file is too large to cache
+     * Description: Returns the response of the file, loading it on a miss or
+     *              when the file changed since it was cached
+     * @param filePath
+     * @param contentTypeHeader
+     * @return entry
+     * @throws java.io.IOException
+     */
+    public Entry get(Path filePath, String contentTypeHeader) throws IOException
+    {
+        // Current size and modification time of the file, known without a
+        // file system call while the file is unchanged
+        ResolvedPathCache.FileInfo info = ResolvedPathCache.SHARED.stat(filePath);
+        if (!info.exists)
+        {
+            throw new NoSuchFileException(filePath.toString());
+        }
+        long size = info.size;
+        long lastModified = info.lastModified;
+
+        // Resolved path used as the key
+        Path key = filePath.toAbsolutePath().normalize();
+
+        // Serve a cached entry that is still up to date
+        synchronized (this)
+        {
+            Entry entry = entries.get(key);
+            if ((entry != null) && (entry.size == size)
+                    && (entry.lastModified == lastModified))
+            {
+                return entry;
+            }
+        }
+
+        // Too large to cache; the caller streams it from disk
+        if (size > maxEntryBytes)
+        {
+            return null;
+        }
+
+        // Load the file outside of the lock
+        byte body[] = Files.readAllBytes(filePath);
+        String etag = Utilities.getETag(body.length, lastModified);
+        Entry entry = new Entry(body.length, lastModified, etag,
+                composeHead(contentTypeHeader, etag, lastModified, body.length), body);
+
+        // Store it, replacing an outdated entry
+        put(key, entry);
+        return entry;
+    }
+
+    /**
+     * Name       : get
+     * Input      : filePath as Path, contentTypeHeader as String,
+     *              encoding as int
+     * Output     : Cached entry, or null if the file is too large to cache
+     * Description: Returns the response of the file in the given content
+     *              coding. The file is compressed the first time a coding is
+     *              asked for and the result is kept next to the plain entry,
+     *              so no request pays for compressing it again
+     * @param filePath
+     * @param contentTypeHeader
+     * @param encoding
+     * @return entry
+     * @throws java.io.IOException
+     */
+    public Entry get(Path filePath, String contentTypeHeader, int encoding)
+            throws IOException
+    {
+        // Plain response, loaded or refreshed as usual
+        Entry entry = get(filePath, contentTypeHeader);
+        if ((entry == null) || (encoding == Constants.ENCODING_IDENTITY))
+        {
+            return entry;
+        }
+
+        synchronized (this)
+        {
+            Entry variant = entry.getVariant(encoding);
+            if (variant != null)
+            {
+                return variant;
+            }
+        }
+
+        // Compress outside of the lock
+        byte plain[] = new byte[entry.body.capacity()];
+        entry.body.duplicate().get(plain);
+        byte compressed[] = compress(plain, encoding);
+        Entry variant = entry;
+        if (compressed.length < plain.length)
+        {
+            // A variant has its own entity tag, derived from the plain one
+            String etag = null;
+            String encodingHeader = null;
+            if (encoding == Constants.ENCODING_GZIP)
+            {
+                etag = entry.etag.substring(0, entry.etag.length() - 1) + "-gzip\"";
+                encodingHeader = Constants.HTTP_RESPONSE_HEADER_CONTENT_ENCODING_GZIP;
+            }
+            else
+            {
+                etag = entry.etag.substring(0, entry.etag.length() - 1) + "-deflate\"";
+                encodingHeader = Constants.HTTP_RESPONSE_HEADER_CONTENT_ENCODING_DEFLATE;
+            }
+            variant = new Entry(entry.size, entry.lastModified, etag,
+                    composeHead(contentTypeHeader + encodingHeader, etag,
+                            entry.lastModified, compressed.length), compressed);
+        }
+
+        // Keep it with the plain entry, unless that was replaced meanwhile
+        synchronized (this)
+        {
+            Path key = filePath.toAbsolutePath().normalize();
+            if ((entries.get(key) == entry) && (entry.getVariant(encoding) == null))
+            {
+                entry.setVariant(encoding, variant);
+                if (variant != entry)
+                {
+                    currentBytes += variant.getWeight();
+                    evict();
+                }
+            }
+        }
+        return variant;
+    }
+
+    /**
+     * Name       : invalidate
+     * Input      : filePath as Path
+     * Output     : none
+     * Description: Removes the entry of a file
+     * @param filePath
+     */
+    public synchronized void invalidate(Path filePath)
+    {
+        Entry old = entries.remove(filePath.toAbsolutePath().normalize());
+        if (old != null)
+        {
+            currentBytes -= old.getWeight();
+        }
+    }
+
+    /**
+     * Name       : setLimits
+     * Input      : maxBytes as long, maxEntryBytes as long
+     * Output     : none
+     * Description: Changes the byte budgets, evicting entries if needed
+     * @param maxBytes
+     * @param maxEntryBytes
+     */
+    public synchronized void setLimits(long maxBytes, long maxEntryBytes)
+    {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        evict();
+    }
+
+    /**
+     * Name       : getCurrentBytes
+     * Input      : none
+     * Output     : Bytes held by the cache
+     * Description: Returns the current size of the cache
+     * @return long
+     */
+    public synchronized long getCurrentBytes()
+    {
+        return currentBytes;
+    }
+
+    /**
+     * Name       : composeHead
+     * Input      : headers as String, etag as String, lastModified as long,
+     *              contentLength as long
+     * Output     : Response line and header lines as bytes
+     * Description: Encodes the head of a cached response
+     * @param headers
+     * @param etag
+     * @param lastModified
+     * @param contentLength
+     * @return bytes
+     */
+    private static byte[] composeHead(String headers, String etag,
+            long lastModified, long contentLength)
+    {
+        String head = Constants.HTTP_RESPONSE_LINE_OK + headers
+                + Constants.HTTP_RESPONSE_HEADER_ETAG + etag + "\r\n"
+                + Constants.HTTP_RESPONSE_HEADER_LAST_MODIFIED
+                + Utilities.formatHttpDate(lastModified) + "\r\n"
+                + Constants.HTTP_RESPONSE_HEADER_CONTENT_LENGTH + contentLength + "\r\n";
+        return head.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Name       : compress
+     * Input      : data as array of bytes, encoding as int
+     * Output     : Compressed data as array of bytes
+     * Description: Compresses data with gzip or deflate (zlib format, as
+     *              HTTP defines it) at the best compression level; it is
+     *              done once per file, so the extra time doesn't matter
+     * @param data
+     * @param encoding
+     * @return bytes
+     * @throws java.io.IOException
+     */
+    private static byte[] compress(byte data[], int encoding) throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+
+        if (encoding == Constants.ENCODING_GZIP)
+        {
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed)
+            {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            })
+            {
+                out.write(data);
+            }
+        }
+        else
+        {
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater))
+            {
+                out.write(data);
+            }
+            finally
+            {
+                deflater.end();
+            }
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Name       : put
+     * Input      : key as Path, entry as Entry
+     * Output     : none
+     * Description: Stores an entry and evicts the least recently used ones
+     *              until the cache fits its budget
+     * @param key
+     * @param entry
+     */
+    private synchronized void put(Path key, Entry entry)
+    {
+        Entry old = entries.put(key, entry);
+        if (old != null)
+        {
+            currentBytes -= old.getWeight();
+        }
+        currentBytes += entry.getWeight();
+        evict();
+    }
+
+    /**
+     * Name       : evict
+     * Input      : none
+     * Output     : none
+     * Description: Drops least recently used entries while over budget
+     */
+    private void evict()
+    {
+        Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+        while ((currentBytes > maxBytes) && it.hasNext())
+        {
+            currentBytes -= it.next().getValue().getWeight();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Name:        StreamedBody
+ * Type:        Class
+ * Description: Response data read from a stream one fixed size piece at a
+ *              time, so the memory used does not depend on the size of the
+ *              data. Each piece is either sent as it is or framed as a chunk
+ *              of the chunked transfer encoding
+ */
+class StreamedBody
+{
+    // Room before the data for the chunk size line (8 hex digits and CRLF)
+    // and after it for the CRLF ending the chunk
+    static final int CHUNK_HEADER_SPACE = 10;
+    static final int CHUNK_TRAILER_SPACE = 2;
+
+    // Size of the buffer a body is read into
+    static final int BUFFER_LENGTH = CHUNK_HEADER_SPACE + Constants.BUFFER_SIZE
+            + CHUNK_TRAILER_SPACE;
+
+    // Last chunk and the empty trailer ending a chunked body
+    private static final byte LAST_CHUNK[] = { '0', '\r', '\n', '\r', '\n' };
+
+    // Digits of the chunk size
+    private static final byte HEX_DIGITS[] = {
+        '0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+    // Stream the data is read from
+    private final InputStream in;
+
+    // Bytes left to send, or -1 to send until the end of the stream
+    private long remaining;
+
+    // Whether the data is framed as chunks
+    private final boolean chunked;
+
+    // Whether the end of the data was reached
+    private boolean finished = false;
+
+    // Buffer holding the current piece, between start and end
+    final byte buffer[];
+    int start = 0;
+    int end = 0;
+
+    /**
+     * Name       : StreamedBody
+     * Input      : in as InputStream, length as long, chunked as boolean,
+     *              buffer as array of bytes
+     * Output     : none
+     * Description: Constructor; length is -1 if the size of the data isn't
+     *              known. The buffer must hold BUFFER_LENGTH bytes and is
+     *              reused by the caller for the next body
+     * @param in
+     * @param length
+     * @param chunked
+     * @param buffer
+     */
+    StreamedBody(InputStream in, long length, boolean chunked, byte buffer[])
+    {
+        this.in = in;
+        this.remaining = length;
+        this.chunked = chunked;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Name       : next
+     * Input      : none
+     * Output     : True if a piece was read, false at the end of the data
+     * Description: Reads the next piece of data into the buffer, with its
+     *              chunk framing if the body is chunked
+     * @return true/false
+     * @throws java.io.IOException
+     */
+    boolean next() throws IOException
+    {
+        if (finished)
+        {
+            return false;
+        }
+
+        // Read at most the bytes still owed to the client
+        int count = Constants.BUFFER_SIZE;
+        if (remaining >= 0)
+        {
+            count = (int) Math.min(count, remaining);
+            if (count == 0)
+            {
+                finished = true;
+                return false;
+            }
+        }
+
+        int read = in.read(buffer, CHUNK_HEADER_SPACE, count);
+
+        // End of the stream
+        if (read < 0)
+        {
+            finished = true;
+
+            // The headers promised more bytes than the stream had
+            if (remaining > 0)
+            {
+                throw new IOException("Stream ended before the announced length");
+            }
+
+            // Close a chunked body with the last chunk
+            if (chunked)
+            {
+                System.arraycopy(LAST_CHUNK, 0, buffer, 0, LAST_CHUNK.length);
+                start = 0;
+                end = LAST_CHUNK.length;
+                return true;
+            }
+            return false;
+        }
+
+        start = CHUNK_HEADER_SPACE;
+        end = CHUNK_HEADER_SPACE + read;
+        if (remaining > 0)
+        {
+            remaining -= read;
+        }
+
+        // Frame the piece as a chunk: size in hex, CRLF, data, CRLF
+        if (chunked && (read > 0))
+        {
+            buffer[--start] = '\n';
+            buffer[--start] = '\r';
+            int size = read;
+            do
+            {
+                buffer[--start] = HEX_DIGITS[size & 0xf];
+                size >>>= 4;
+            } while (size != 0);
+
+            buffer[end++] = '\r';
+            buffer[end++] = '\n';
+        }
+        return true;
+    }
+
+    /**
+     * Name       : close
+     * Input      : none
+     * Output     : none
+     * Description: Closes the stream the data is read from
+     */
+    void close()
+    {
+        try
+        {
+            in.close();
+        }
+        catch (IOException e)
+        {
+            // Nothing more to do with a stream we are done with
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Name:        ThreadPerConnectionExecutor
+ * Type:        Class
+ * Description: Original strategy; spurns a new platform thread for each
+ *              client connection. Unbounded, so it never queues
+ */
+public class ThreadPerConnectionExecutor implements ConnectionExecutor
+{
+    // Number of running connection threads
+    private final AtomicInteger activeCount = new AtomicInteger();
+
+    /**
+     * Name       : execute
+     * Input      : clientConn as Runnable
+     * Output     : none
+     * Description: Creates and starts a new thread to run the connection
+     * @param clientConn
+     */
+    @Override
+    public void execute(Runnable clientConn)
+    {
+        activeCount.incrementAndGet();
+        Thread clientConnThread = new Thread(() ->
+        {
+            try
+            {
+                clientConn.run();
+            }
+            finally
+            {
+                activeCount.decrementAndGet();
+            }
+        });
+        clientConnThread.start();
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        return 0;
+    }
+
+    @Override
+    public int getActiveCount()
+    {
+        return activeCount.get();
+    }
+
+    @Override
+    public String getName()
+    {
+        return Constants.EXECUTOR_THREAD_PER_CONNECTION;
+    }
+
+    @Override
+    public void shutdown()
+    {
+        // Nothing to stop; running threads end with their connection
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.util.ArrayList;
+
+/**
+ * Name:        TimerWheel
+ * Type:        Class
+ * Description: Hashed timer wheel for connection timeouts. Time is cut into
+ *              ticks and every timeout hangs in the slot of the tick it
+ *              expires in, linked through its own fields: scheduling and
+ *              cancelling are a few pointer updates and allocate nothing,
+ *              and advancing the wheel only looks at the slots of the ticks
+ *              that passed. The cost per connection stays constant however
+ *              many sockets are open. Expired timeouts are run outside the
+ *              lock, by the thread that advances the wheel
+ */
+public class TimerWheel
+{
+    /**
+     * Name:        Timeout
+     * Type:        Class
+     * Description: Entry of the wheel; subclasses decide what happens when
+     *              it expires. An entry is in at most one slot at a time
+     */
+    public static abstract class Timeout
+    {
+        // Tick the timeout expires at; meaningful while scheduled
+        private long deadlineTick = 0;
+
+        // Neighbours in the slot, and whether the entry is in the wheel
+        private Timeout prev = null;
+        private Timeout next = null;
+        private boolean scheduled = false;
+
+        /**
+         * Name       : expire
+         * Input      : now as long
+         * Output     : none
+         * Description: Called once the deadline passed, after the entry was
+         *              taken out of the wheel
+         * @param now
+         */
+        protected abstract void expire(long now);
+    }
+
+    // Length of a tick in milliseconds, and the time of tick 0
+    private final long tickMillis;
+    private final long startTime;
+
+    // Slots of the wheel, as heads of linked lists; a power of two
+    private final Timeout slots[];
+    private final int mask;
+
+    // Last tick that was processed
+    private long currentTick = 0;
+
+    // Number of scheduled timeouts
+    private int size = 0;
+
+    // Timeouts taken out of the wheel to be run; advancing thread only
+    private final ArrayList<Timeout> expired = new ArrayList<>();
+
+    /**
+     * Name       : TimerWheel
+     * Input      : tickMillis as long, slotCount as int
+     * Output     : none
+     * Description: Constructor; the slot count is rounded up to a power of
+     *              two. Timeouts further away than a turn of the wheel stay
+     *              in their slot until their turn comes
+     * @param tickMillis
+     * @param slotCount
+     */
+    public TimerWheel(long tickMillis, int slotCount)
+    {
+        int count = Integer.highestOneBit(Math.max(2, slotCount - 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.startTime = System.currentTimeMillis();
+        this.slots = new Timeout[count];
+        this.mask = count - 1;
+    }
+
+    /**
+     * Name       : getTickMillis
+     * Input      : none
+     * Output     : Length of a tick in milliseconds
+     * Description: Returns how often the wheel should be advanced
+     * @return long
+     */
+    public long getTickMillis()
+    {
+        return tickMillis;
+    }
+
+    /**
+     * Name       : schedule
+     * Input      : timeout as Timeout, deadline as long
+     * Output     : none
+     * Description: Schedules the timeout for the deadline, in milliseconds
+     *              since the epoch. A timeout already scheduled earlier
+     *              keeps its deadline, so concurrent callers can't push it
+     *              back; it is expected to reschedule itself if expired
+     *              too early
+     * @param timeout
+     * @param deadline
+     */
+    public synchronized void schedule(Timeout timeout, long deadline)
+    {
+        // Never before the next tick, which is the earliest that can run
+        long tick = Math.max(currentTick + 1,
+                (deadline - startTime + tickMillis - 1) / tickMillis);
+
+        if (timeout.scheduled)
+        {
+            if (timeout.deadlineTick <= tick)
+            {
+                return;
+            }
+            unlink(timeout);
+        }
+        timeout.deadlineTick = tick;
+        link(timeout);
+    }
+
+    /**
+     * Name       : cancel
+     * Input      : timeout as Timeout
+     * Output     : none
+     * Description: Takes the timeout out of the wheel if it is scheduled
+     * @param timeout
+     */
+    public synchronized void cancel(Timeout timeout)
+    {
+        if (timeout.scheduled)
+        {
+            unlink(timeout);
+        }
+    }
+
+    /**
+     * Name       : size
+     * Input      : none
+     * Output     : Number of scheduled timeouts
+     * Description: Returns how many timeouts are in the wheel
+     * @return int
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    /**
+     * Name       : advance
+     * Input      : now as long
+     * Output     : none
+     * Description: Processes the ticks up to now and runs the timeouts that
+     *              expired. Called by one thread at a time
+     * @param now
+     */
+    public void advance(long now)
+    {
+        long targetTick = (now - startTime) / tickMillis;
+
+        synchronized (this)
+        {
+            while (currentTick < targetTick)
+            {
+                currentTick += 1;
+
+                // Take the due entries of the slot; others are a turn later
+                Timeout timeout = slots[(int) currentTick & mask];
+                while (timeout != null)
+                {
+                    Timeout next = timeout.next;
+                    if (timeout.deadlineTick <= currentTick)
+                    {
+                        unlink(timeout);
+                        expired.add(timeout);
+                    }
+                    timeout = next;
+                }
+            }
+        }
+
+        // Run them without the lock, as they may schedule again; one that
+        // fails doesn't keep the others from running
+        for (int i = 0; i < expired.size(); i++)
+        {
+            try
+            {
+                expired.get(i).expire(now);
+            }
+            catch (RuntimeException e)
+            {
+                AccessLog.SHARED.logError("Timeout failed", e);
+            }
+        }
+        expired.clear();
+    }
+
+    /**
+     * Name       : start
+     * Input      : name as String
+     * Output     : none
+     * Description: Starts a daemon thread that advances the wheel every
+     *              tick, for timeouts of blocking connections
+     * @param name
+     */
+    public void start(String name)
+    {
+        Thread ticker = new Thread(() ->
+        {
+            while (true)
+            {
+                try
+                {
+                    Thread.sleep(tickMillis);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                advance(System.currentTimeMillis());
+            }
+        }, name);
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Name       : link
+     * Input      : timeout as Timeout
+     * Output     : none
+     * Description: Puts the timeout at the head of the slot of its tick
+     * @param timeout
+     */
+    private void link(Timeout timeout)
+    {
+        int slot = (int) timeout.deadlineTick & mask;
+        timeout.prev = null;
+        timeout.next = slots[slot];
+        if (slots[slot] != null)
+        {
+            slots[slot].prev = timeout;
+        }
+        slots[slot] = timeout;
+        timeout.scheduled = true;
+        size += 1;
+    }
+
+    /**
+     * Name       : unlink
+     * Input      : timeout as Timeout
+     * Output     : none
+     * Description: Takes the timeout out of its slot
+     * @param timeout
+     */
+    private void unlink(Timeout timeout)
+    {
+        if (timeout.prev != null)
+        {
+            timeout.prev.next = timeout.next;
+        }
+        else
+        {
+            slots[(int) timeout.deadlineTick & mask] = timeout.next;
+        }
+        if (timeout.next != null)
+        {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.scheduled = false;
+        size -= 1;
+    }
+}
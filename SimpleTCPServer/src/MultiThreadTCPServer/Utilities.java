@@ -8,12 +8,12 @@
 package MultiThreadTCPServer;
 
 // Imported libraries
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
 
 /**
  * Name:        Utilities
@@ -22,12 +22,18 @@ import java.nio.file.Paths;
  */
 public class Utilities 
 {
+    // Date format of the HTTP headers; eg: Sun, 06 Nov 1994 08:49:37 GMT
+    private static final DateTimeFormatter HTTP_DATE_FORMAT = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+    
     /**
      * Name       : isFilePermanentlyMoved
      * Input      : filePath as Path
      * Output     : string or null
      * Description: Returns file new location if file has been permanently moved
-     *              to a new location, otherwise, return null
+     *              to a new location, otherwise, return null. Looked up in the
+     *              in-memory redirect table, without reading the log
      * @param filename
      * @param url
      * @return string/null
@@ -37,34 +43,9 @@ public class Utilities
         // Show error message for base-html file request
         if (getContentType(filename).equals("text/html"))
         {
-            // Create an input stream to read the requested file
-            // Buffered reader will read the file
-            try (InputStream in = Files.newInputStream(Paths.get(
-                Constants.PERMANENTLY_MOVED_FILES_RECORDS));
-                BufferedReader reader =
-                        new BufferedReader(new InputStreamReader(in))) 
-            {
-                // Stores each line of the file
-                String line = null;
-
-                // Read each line until end of line
-                while ((line = reader.readLine()) != null) 
-                {
-                    // Match source vs destination path to see if the file has 
-                    // been moved
-                    String urls[] = line.split(Constants.PERMANENTLY_MOVED_FILES_MAPPING_SEPARATOR);
-                    if (urls[0].trim().equals(url.trim()))
-                    {
-                        return urls[1];
-                    }
-                }
-            }
-            // Catch an IO Exception and print it
-            catch (IOException e)   
-            {
-                e.printStackTrace(System.out);
-            }
+            return RedirectTable.lookup(url);
         }
+        
         // file hasn't been moved permanently
         return null;
     }
@@ -86,7 +67,7 @@ public class Utilities
                 ((requestMsg[requestMsg.length -1]).trim().equals(""));
              
         // Get the Host header line from request
-        String hostHeaderLine = FindHostHeaderLine(requestMsg);
+        String hostHeaderLine = findHostHeaderLine(requestMsg);
         
         // Get the host url
         //String url = hostHeaderLine.substring(hostHeaderLine.indexOf(":") + 1).trim();
@@ -138,6 +119,7 @@ public class Utilities
                 case "If-Match:":
                 case "If-Modified-Since:":
                 case "If-Non-Match:":
+                case "If-None-Match:":
                 case "If-Range:":
                 case "If-Unmodified-Since:":
                 case "Max-Forwards:":
@@ -314,6 +296,58 @@ public class Utilities
         }
     }
     
+    /**
+     * Name       : getMimeType
+     * Input      : File name to parse to get the MIME type
+     * Output     : MIME type as string; eg: image/jpeg
+     * Description: Parses file name to get the specific MIME type sent in
+     *              the Content-Type header
+     * @param filename
+     * @return 
+     */
+    public static String getMimeType(String filename)
+    {
+        // Directories and unknown files are served as html
+        if (!filename.contains("."))
+        {
+            return "text/html";
+        }
+        
+        // Switch filenames based on file extension
+        switch (filename.substring(filename.indexOf(".")).toLowerCase())
+        {
+            case ".txt":
+                return "text/plain";
+                
+            case ".jpg":
+            case ".jpeg":
+            case ".jp3":
+            case ".jfif":
+                return "image/jpeg";
+                
+            case ".png":
+                return "image/png";
+                
+            case ".gif":
+                return "image/gif";
+                
+            case ".bmp":
+            case ".dib":
+                return "image/bmp";
+                
+            case ".tif":
+            case ".tiff":
+                return "image/tiff";
+                
+            case ".ico":
+                return "image/x-icon";
+                
+            // Also return text/html for all the other file types
+            default:
+                return "text/html";
+        }
+    }
+    
     /**
      * Name       : countOccurencesOf
      * Input      : s as String, c as char
@@ -344,42 +378,37 @@ public class Utilities
     
     /**
      * Name       : parseFilePath
-     * Input      : Unparsed file path
-     * Output     : File path with compatible format as string
-     * Description: Parses file path into compatible format
+     * Input      : root as Path, path as String
+     * Output     : File path below the document root, or null
+     * Description: Resolves the path of a request target against the
+     *              document root one segment at a time, with the separator
+     *              of the file system. Targets with a '..' segment are
+     *              rejected, so nothing outside the root is served
+     * @param root
      * @param path
-     * @return path
+     * @return path/null
      */
-    public static String parseFilePath(String path)
+    public static Path parseFilePath(Path root, String path)
     {
-        // Remove any unnecessary ending slashes typed by the user
-        if (path.endsWith("/"))
-        {
-            path = path.substring(0, path.length() - 1);            
-        }
-        
-        // Make sure the path is in correct format
-        if ((countOccurrencesOf(path, '/') > 1) && (countOccurrencesOf(path, '.') > 1))
+        Path filePath = root;
+        for (String segment : path.split("/"))
         {
-            path = path.substring(path.lastIndexOf("/"));
+            // Skip the empty segments around slashes, and '.'
+            if (segment.isEmpty() || segment.equals("."))
+            {
+                continue;
+            }
+            
+            // Parent directories could lead out of the document root
+            if (segment.equals(".."))
+            {
+                return null;
+            }
+            filePath = filePath.resolve(segment);
         }
         
-        // Check to see if there are any parent directories lised 
-        // in the path message
-        if (path.substring(1).contains(("/")))
-        {
-            // Replace path with an IDE compatable path
-            path = path.replace("/", "\\" + "\\");
-            path = "." + path;
-        }
-        else
-        {
-            // No parent directory, remove path separator
-            path = path.replace("/", "");
-        }
-      
         // Return the parsed path
-        return path;
+        return filePath;
     }
     
     /**
@@ -388,21 +417,90 @@ public class Utilities
      * Output     : File name without path info
      * Description: Gets the file name without path info
      * @param path
-     * @return path
+     * @return name
      */
-    public static String getFileNameOnly(String path)
+    public static String getFileNameOnly(Path path)
     {
-        // Check to see if the path contains parent directories info
-        if (path.substring(1).contains(("\\")))
+        // The root of the file system has no name
+        Path name = path.getFileName();
+        return (name == null) ? "" : name.toString();
+    }
+    
+    /**
+     * Name       : getETag
+     * Input      : size as long, lastModified as long
+     * Output     : Entity tag as string, including the quotes
+     * Description: Derives the entity tag of a file from its size and
+     *              modification time, so no file is read to compute it
+     * @param size
+     * @param lastModified
+     * @return etag
+     */
+    public static String getETag(long size, long lastModified)
+    {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+    
+    /**
+     * Name       : formatHttpDate
+     * Input      : time as long (milliseconds)
+     * Output     : Date as string; eg: Sun, 06 Nov 1994 08:49:37 GMT
+     * Description: Formats a time for the Last-Modified header
+     * @param time
+     * @return date
+     */
+    public static String formatHttpDate(long time)
+    {
+        return HTTP_DATE_FORMAT.format(Instant.ofEpochMilli(time));
+    }
+    
+    /**
+     * Name       : parseHttpDate
+     * Input      : date as String
+     * Output     : Time in milliseconds, or -1 if not a valid date
+     * Description: Parses the date of an If-Modified-Since header
+     * @param date
+     * @return long
+     */
+    public static long parseHttpDate(String date)
+    {
+        try
         {
-            // Fileer the whole path to get file name only
-            // return the file name
-            return path.substring(path.lastIndexOf("\\"));
+            return Instant.from(HTTP_DATE_FORMAT.parse(date.trim())).toEpochMilli();
         }
-        else 
+        
+        // Dates in other formats are ignored, as if not sent
+        catch (DateTimeParseException e)
         {
-            // return the file name
-            return path;
+            return -1;
         }
     }
+    
+    /**
+     * Name       : matchesETag
+     * Input      : ifNoneMatch as String, etag as String
+     * Output     : True if the list holds the entity tag or '*'
+     * Description: Compares the entity tags of an If-None-Match header with
+     *              the current one; weak tags (W/"...") compare equal to
+     *              their strong form
+     * @param ifNoneMatch
+     * @param etag
+     * @return true/false
+     */
+    public static boolean matchesETag(String ifNoneMatch, String etag)
+    {
+        for (String tag : ifNoneMatch.split(","))
+        {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+            {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,102 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Name:        VirtualThreadConnectionExecutor
+ * Type:        Class
+ * Description: Runs each connection in its own virtual thread, so the blocking
+ *              connection code scales without a thread stack per client.
+ *              Needs Java 21; looked up reflectively so the sources still
+ *              build on older JDKs
+ */
+public class VirtualThreadConnectionExecutor implements ConnectionExecutor
+{
+    // Virtual-thread-per-task executor
+    private final ExecutorService executor;
+
+    // Number of running connections
+    private final AtomicInteger activeCount = new AtomicInteger();
+
+    /**
+     * Name       : VirtualThreadConnectionExecutor
+     * Input      : none
+     * Output     : none
+     * Description: Constructor that creates the virtual thread executor
+     * @throws java.lang.UnsupportedOperationException
+     */
+    public VirtualThreadConnectionExecutor()
+    {
+        try
+        {
+            executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+
+        catch (ReflectiveOperationException e)
+        {
+            throw new UnsupportedOperationException(
+                    "Virtual threads need Java 21 or later");
+        }
+    }
+
+    @Override
+    public void execute(Runnable clientConn)
+    {
+        activeCount.incrementAndGet();
+        try
+        {
+            executor.execute(() ->
+            {
+                try
+                {
+                    clientConn.run();
+                }
+                finally
+                {
+                    activeCount.decrementAndGet();
+                }
+            });
+        }
+
+        catch (RuntimeException e)
+        {
+            activeCount.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        // Every connection gets its own thread at once
+        return 0;
+    }
+
+    @Override
+    public int getActiveCount()
+    {
+        return activeCount.get();
+    }
+
+    @Override
+    public String getName()
+    {
+        return Constants.EXECUTOR_VIRTUAL_THREADS;
+    }
+
+    @Override
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+}
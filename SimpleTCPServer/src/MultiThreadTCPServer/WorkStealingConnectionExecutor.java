@@ -0,0 +1,67 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Name:        WorkStealingConnectionExecutor
+ * Type:        Class
+ * Description: ForkJoin work-stealing pool; idle threads take queued
+ *              connections from busy ones
+ */
+public class WorkStealingConnectionExecutor implements ConnectionExecutor
+{
+    // Work-stealing pool running the connections
+    private final ForkJoinPool pool;
+
+    /**
+     * Name       : WorkStealingConnectionExecutor
+     * Input      : parallelism as int
+     * Output     : none
+     * Description: Constructor that creates the pool in FIFO mode so that
+     *              connections are served in arrival order
+     * @param parallelism
+     */
+    public WorkStealingConnectionExecutor(int parallelism)
+    {
+        pool = new ForkJoinPool(parallelism,
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    @Override
+    public void execute(Runnable clientConn)
+    {
+        pool.execute(clientConn);
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        // Submissions not yet taken plus tasks in the worker queues
+        return (int) (pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+    }
+
+    @Override
+    public int getActiveCount()
+    {
+        return pool.getActiveThreadCount();
+    }
+
+    @Override
+    public String getName()
+    {
+        return Constants.EXECUTOR_WORK_STEALING;
+    }
+
+    @Override
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,324 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Name:        ByteRangeTest
+ * Type:        Class
+ * Description: Range headers resolved against the file size, and the
+ *              206 responses built from them: the announced length of a
+ *              multipart response must match the bytes sent
+ */
+public class ByteRangeTest
+{
+    /**
+     * Name:        MemoryStream
+     * Type:        Class
+     * Description: Response stream that keeps the response in memory
+     */
+    private static final class MemoryStream extends ResponseOutputStream
+    {
+        // Bytes of the response, and a channel over them for file regions
+        private final ByteArrayOutputStream sink;
+        private final WritableByteChannel sinkChannel;
+
+        MemoryStream()
+        {
+            this(new ByteArrayOutputStream());
+        }
+
+        private MemoryStream(ByteArrayOutputStream sink)
+        {
+            super(sink);
+            this.sink = sink;
+            this.sinkChannel = Channels.newChannel(sink);
+        }
+
+        byte[] toByteArray()
+        {
+            return sink.toByteArray();
+        }
+
+        @Override
+        public void transferFile(FileChannel file, long position, long count)
+                throws IOException
+        {
+            try
+            {
+                file.transferTo(position, count, sinkChannel);
+            }
+            finally
+            {
+                file.close();
+            }
+        }
+
+        @Override
+        public void transferMapped(MappedFileCache.Mapping mapping, long position,
+                long count) throws IOException
+        {
+            try
+            {
+                ByteBuffer region = mapping.slice(position, count);
+                while (region.hasRemaining())
+                {
+                    sinkChannel.write(region);
+                }
+            }
+            finally
+            {
+                mapping.release();
+            }
+        }
+
+        @Override
+        public void transferStream(InputStream in, long length, boolean chunked)
+        {
+            throw new UnsupportedOperationException("No streamed bodies here");
+        }
+    }
+
+    // Size of the file the ranges are taken from
+    private static final int SIZE = 1000;
+
+    // Directory of the file, its path and its bytes
+    @TempDir
+    Path directory;
+    private Path file;
+    private byte content[];
+
+    /**
+     * Name       : setUp
+     * Input      : none
+     * Output     : none
+     * Description: Writes a file whose bytes differ from their neighbours
+     * @throws java.io.IOException
+     */
+    @BeforeEach
+    public void setUp() throws IOException
+    {
+        content = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++)
+        {
+            content[i] = (byte) (i % 251);
+        }
+        file = directory.resolve("data.jpg");
+        Files.write(file, content);
+    }
+
+    @Test
+    public void resolvesSuffixRanges()
+    {
+        assertRanges(ByteRange.parse("bytes=-500", SIZE), 500, 999);
+        assertRanges(ByteRange.parse("bytes=-1", SIZE), 999, 999);
+
+        // Longer than the file: the whole file
+        assertRanges(ByteRange.parse("bytes=-2000", SIZE), 0, 999);
+
+        // Nothing to take from an empty file or an empty suffix
+        assertRanges(ByteRange.parse("bytes=-500", 0));
+        assertRanges(ByteRange.parse("bytes=-0", SIZE));
+    }
+
+    @Test
+    public void cutsRangesAtTheEnd()
+    {
+        assertRanges(ByteRange.parse("bytes=0-499", SIZE), 0, 499);
+        assertRanges(ByteRange.parse("bytes=900-", SIZE), 900, 999);
+        assertRanges(ByteRange.parse("bytes=990-2000", SIZE), 990, 999);
+        assertRanges(ByteRange.parse(" bytes= 5 - 9 ", SIZE), 5, 9);
+    }
+
+    @Test
+    public void keepsOverlappingRangesAsAsked()
+    {
+        assertRanges(ByteRange.parse("bytes=0-499,400-599,-100", SIZE),
+                0, 499, 400, 599, 900, 999);
+    }
+
+    @Test
+    public void leavesOutUnsatisfiableRanges()
+    {
+        assertRanges(ByteRange.parse("bytes=1000-1100", SIZE));
+        assertRanges(ByteRange.parse("bytes=2000-", SIZE));
+        assertRanges(ByteRange.parse("bytes=2000-2100,10-19", SIZE), 10, 19);
+    }
+
+    @Test
+    public void ignoresInvalidHeaders()
+    {
+        assertNull(ByteRange.parse("items=0-1", SIZE));
+        assertNull(ByteRange.parse("bytes=", SIZE));
+        assertNull(ByteRange.parse("bytes=5", SIZE));
+        assertNull(ByteRange.parse("bytes=5-2", SIZE));
+        assertNull(ByteRange.parse("bytes=a-b", SIZE));
+        assertNull(ByteRange.parse("bytes=--5", SIZE));
+
+        // More ranges than allowed
+        StringBuilder many = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= Constants.MAX_BYTE_RANGES; i++)
+        {
+            many.append(',').append(i).append('-').append(i);
+        }
+        assertNull(ByteRange.parse(many.toString(), SIZE));
+    }
+
+    @Test
+    public void sendsSingleRange() throws IOException
+    {
+        String response[] = send("bytes=100-199");
+        String headers = response[0];
+
+        assertTrue(headers.startsWith("HTTP/1.1 206 "), headers);
+        assertTrue(headers.contains("Content-Range: bytes 100-199/1000\r\n"), headers);
+        assertEquals(100, getContentLength(headers));
+        assertEquals(latin1(Arrays.copyOfRange(content, 100, 200)), response[1]);
+    }
+
+    @Test
+    public void announcesMultipartLength() throws IOException
+    {
+        String response[] = send("bytes=0-9,500-,-20,5-14");
+        String headers = response[0];
+        String body = response[1];
+
+        assertTrue(headers.startsWith("HTTP/1.1 206 "), headers);
+        assertEquals(body.length(), getContentLength(headers));
+
+        // Every part follows its boundary and Content-Range, in order
+        String boundary = getHeader(headers, "Content-Type")
+                .substring("multipart/byteranges; boundary=".length());
+        int pos = 0;
+        long parts[][] = { { 0, 9 }, { 500, 999 }, { 980, 999 }, { 5, 14 } };
+        for (long part[] : parts)
+        {
+            String head = "\r\n--" + boundary + "\r\nContent-Type: image/jpeg\r\n"
+                    + "Content-Range: bytes " + part[0] + "-" + part[1] + "/1000\r\n\r\n";
+            String data = latin1(Arrays.copyOfRange(content, (int) part[0],
+                    (int) part[1] + 1));
+            assertEquals(head + data, body.substring(pos, pos + head.length()
+                    + data.length()));
+            pos += head.length() + data.length();
+        }
+        assertEquals("\r\n--" + boundary + "--\r\n", body.substring(pos));
+    }
+
+    @Test
+    public void answersUnsatisfiableWith416() throws IOException
+    {
+        String headers = send("bytes=1000-")[0];
+
+        assertTrue(headers.startsWith("HTTP/1.1 416 "), headers);
+        assertTrue(headers.contains("Content-Range: bytes */1000\r\n"), headers);
+        assertEquals(0, getContentLength(headers));
+    }
+
+    /**
+     * Name       : assertRanges
+     * Input      : ranges as List, bounds as array of long
+     * Output     : none
+     * Description: Checks the first and last byte of every range, in order
+     * @param ranges
+     * @param bounds
+     */
+    private static void assertRanges(List<ByteRange> ranges, long... bounds)
+    {
+        assertEquals(bounds.length / 2, ranges.size());
+        for (int i = 0; i < ranges.size(); i++)
+        {
+            assertEquals(bounds[2 * i], ranges.get(i).first);
+            assertEquals(bounds[(2 * i) + 1], ranges.get(i).last);
+            assertEquals(bounds[(2 * i) + 1] - bounds[2 * i] + 1, ranges.get(i).getLength());
+        }
+    }
+
+    /**
+     * Name       : send
+     * Input      : range as String
+     * Output     : Headers and body of the response as array of String
+     * Description: Answers a GET request for the file with the Range header
+     * @param range
+     * @return headers and body
+     * @throws java.io.IOException
+     */
+    private String[] send(String range) throws IOException
+    {
+        byte message[] = ("GET /data.jpg HTTP/1.1\r\nHost: www.a.com\r\n"
+                + "Range: " + range + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        HttpRequest request = new HttpRequest();
+        HttpRequestParser.parse(message, 0, message.length, request);
+
+        MemoryStream out = new MemoryStream();
+        MessageHandler.sendImageResponseMsg(file, "data.jpg", request, true, out);
+        out.flush();
+
+        String response = latin1(out.toByteArray());
+        int headerEnd = response.indexOf("\r\n\r\n") + 4;
+        return new String[] { response.substring(0, headerEnd), response.substring(headerEnd) };
+    }
+
+    /**
+     * Name       : getHeader
+     * Input      : headers as String, name as String
+     * Output     : Header value as string
+     * Description: Returns the value of a response header
+     * @param headers
+     * @param name
+     * @return value
+     */
+    private static String getHeader(String headers, String name)
+    {
+        int start = headers.indexOf("\r\n" + name + ": ") + name.length() + 4;
+        return headers.substring(start, headers.indexOf("\r\n", start));
+    }
+
+    /**
+     * Name       : getContentLength
+     * Input      : headers as String
+     * Output     : Content-Length value as long
+     * Description: Returns the announced length of the body
+     * @param headers
+     * @return long
+     */
+    private static long getContentLength(String headers)
+    {
+        return Long.parseLong(getHeader(headers, "Content-Length"));
+    }
+
+    /**
+     * Name       : latin1
+     * Input      : data as array of bytes
+     * Output     : String with a char per byte
+     * Description: Decodes bytes one to one, so lengths are kept
+     * @param data
+     * @return string
+     */
+    private static String latin1(byte data[])
+    {
+        return new String(data, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Name:        HttpRequestParserTest
+ * Type:        Class
+ * Description: Request lines, Host values, Content-Length and
+ *              Accept-Encoding lists accepted and refused by the parser
+ */
+public class HttpRequestParserTest
+{
+    @Test
+    public void parsesValidRequest()
+    {
+        HttpRequest request = parse("GET /images/Dock.jpg HTTP/1.1\r\n"
+                + "Host: www.a.com\r\n\r\n");
+
+        assertFalse(request.isBad());
+        assertEquals("GET", request.getMethod());
+        assertEquals("/images/Dock.jpg", request.getTarget());
+        assertEquals("www.a.com", request.getHost());
+        assertTrue(request.isHttp11());
+        assertTrue(request.isKeepAliveRequested());
+    }
+
+    @Test
+    public void refusesMalformedRequestLines()
+    {
+        String lines[] = {
+            "GET /\r\n",                        // no version
+            "GET\r\n",                          // no target
+            "FETCH / HTTP/1.1\r\n",             // unknown method
+            "get / HTTP/1.1\r\n",               // method is case sensitive
+            "GET / HTTP/2.0\r\n",               // unsupported version
+            "GET index.html HTTP/1.1\r\n",      // target without a slash
+            "GET /a//b HTTP/1.1\r\n",           // empty segment
+            "GET /a?b=c HTTP/1.1\r\n",          // query string
+            "GET /a%20b HTTP/1.1\r\n",          // escaped character
+            "GET  / HTTP/1.1\r\n",              // two spaces
+            "\r\n"                              // empty line
+        };
+        for (String line : lines)
+        {
+            assertTrue(parse(line + "Host: www.a.com\r\n\r\n").isBad(), line.trim());
+        }
+    }
+
+    @Test
+    public void acceptsHttp10WithoutKeepAlive()
+    {
+        HttpRequest request = parse("HEAD /index.html HTTP/1.0\r\n"
+                + "Host: www.a.com\r\n\r\n");
+
+        assertFalse(request.isBad());
+        assertTrue(request.isHead());
+        assertFalse(request.isHttp11());
+        assertFalse(request.isKeepAliveRequested());
+    }
+
+    @Test
+    public void followsConnectionHeader()
+    {
+        assertFalse(parse("GET / HTTP/1.1\r\nHost: www.a.com\r\n"
+                + "Connection: close\r\n\r\n").isKeepAliveRequested());
+        assertTrue(parse("GET / HTTP/1.0\r\nHost: www.a.com\r\n"
+                + "Connection: Keep-Alive\r\n\r\n").isKeepAliveRequested());
+    }
+
+    @Test
+    public void checksHostAndPort()
+    {
+        // A host name of two labels or more, an optional protocol and a
+        // port of four digits
+        String valid[] = { "www.a.com", "a.com", "127.0.0.1:6789",
+            "www.a.com:6789", "http://www.a.com", "http://a-b.com:8080", ":6789" };
+        for (String host : valid)
+        {
+            assertFalse(parseHost(host).isBad(), host);
+        }
+
+        String invalid[] = { "localhost", "www..com", "www.a.", ".a.com", "www.a.com:80",
+            "www.a.com:67890", "www.a.com:67a9", "www.a.com:", "http://", "http://:6789",
+            "www.a_b.com/x" };
+        for (String host : invalid)
+        {
+            assertTrue(parseHost(host).isBad(), host);
+        }
+    }
+
+    @Test
+    public void requiresExactlyOneHost()
+    {
+        assertTrue(parse("GET / HTTP/1.1\r\n\r\n").isBad());
+        assertTrue(parse("GET / HTTP/1.1\r\nHost: www.a.com\r\n"
+                + "Host: www.b.com\r\n\r\n").isBad());
+    }
+
+    @Test
+    public void refusesHeadersNotAllowed()
+    {
+        assertTrue(parse("GET / HTTP/1.1\r\nHost: www.a.com\r\n"
+                + "X-Forwarded-For: 10.0.0.1\r\n\r\n").isBad());
+        assertTrue(parse("GET / HTTP/1.1\r\nHost: www.a.com\r\n"
+                + "host: www.a.com\r\n\r\n").isBad());
+    }
+
+    @Test
+    public void parsesContentLength()
+    {
+        assertEquals(0, parseContentLength().getContentLength());
+        assertEquals(42, parseContentLength("42").getContentLength());
+        assertEquals(9223372036854775807L,
+                parseContentLength("9223372036854775807").getContentLength());
+
+        // Repeated with the same value
+        HttpRequest request = parseContentLength("42", "42");
+        assertFalse(request.isBad());
+        assertEquals(42, request.getContentLength());
+    }
+
+    @Test
+    public void refusesInvalidContentLength()
+    {
+        // Not a number, or too large for one
+        String invalid[] = { "", "abc", "-1", "+1", "4 2", "0x10",
+            "9223372036854775808", "99999999999999999999" };
+        for (String value : invalid)
+        {
+            HttpRequest request = parseContentLength(value);
+            assertTrue(request.isBad(), value);
+            assertFalse(request.isKeepAliveRequested(), value);
+        }
+
+        // Repeated with another value
+        assertTrue(parseContentLength("42", "43").isBad());
+        assertTrue(parseContentLength("0", "abc").isBad());
+    }
+
+    @Test
+    public void parsesAcceptEncoding()
+    {
+        int both = Constants.ENCODING_GZIP | Constants.ENCODING_DEFLATE;
+
+        assertEquals(Constants.ENCODING_IDENTITY, parseAcceptEncoding(null));
+        assertEquals(Constants.ENCODING_IDENTITY, parseAcceptEncoding("identity"));
+        assertEquals(Constants.ENCODING_GZIP, parseAcceptEncoding("gzip"));
+        assertEquals(Constants.ENCODING_GZIP, parseAcceptEncoding("x-gzip"));
+        assertEquals(both, parseAcceptEncoding("gzip, deflate"));
+        assertEquals(both, parseAcceptEncoding("GZIP;q=0.8,Deflate;q=0.5"));
+        assertEquals(both, parseAcceptEncoding("*"));
+    }
+
+    @Test
+    public void refusesCodingsWithZeroQuality()
+    {
+        assertEquals(Constants.ENCODING_DEFLATE, parseAcceptEncoding("gzip;q=0, deflate"));
+        assertEquals(Constants.ENCODING_DEFLATE, parseAcceptEncoding("gzip; Q=0.000, deflate"));
+        assertEquals(Constants.ENCODING_DEFLATE, parseAcceptEncoding("*, gzip;q=0.0"));
+        assertEquals(Constants.ENCODING_IDENTITY, parseAcceptEncoding("*;q=0"));
+        assertEquals(Constants.ENCODING_GZIP, parseAcceptEncoding("gzip, *;q=0"));
+
+        // Small but not zero
+        assertEquals(Constants.ENCODING_GZIP, parseAcceptEncoding("gzip;q=0.001"));
+    }
+
+    /**
+     * Name       : parse
+     * Input      : message as String
+     * Output     : Parsed request
+     * Description: Parses the header section of a request message
+     * @param message
+     * @return request
+     */
+    private static HttpRequest parse(String message)
+    {
+        byte data[] = message.getBytes(StandardCharsets.ISO_8859_1);
+        HttpRequest request = new HttpRequest();
+        HttpRequestParser.parse(data, 0, data.length, request);
+        return request;
+    }
+
+    /**
+     * Name       : parseHost
+     * Input      : host as String
+     * Output     : Parsed request
+     * Description: Parses a request with the Host header value
+     * @param host
+     * @return request
+     */
+    private static HttpRequest parseHost(String host)
+    {
+        return parse("GET / HTTP/1.1\r\nHost: " + host + "\r\n\r\n");
+    }
+
+    /**
+     * Name       : parseContentLength
+     * Input      : values as array of String, none for no header
+     * Output     : Parsed request
+     * Description: Parses a request with a Content-Length header per value
+     * @param values
+     * @return request
+     */
+    private static HttpRequest parseContentLength(String... values)
+    {
+        StringBuilder message = new StringBuilder("POST / HTTP/1.1\r\nHost: www.a.com\r\n");
+        for (String value : values)
+        {
+            message.append("Content-Length: ").append(value).append("\r\n");
+        }
+        return parse(message.append("\r\n").toString());
+    }
+
+    /**
+     * Name       : parseAcceptEncoding
+     * Input      : value as String, or null for none
+     * Output     : Accepted content codings as ENCODING_* bits
+     * Description: Parses a request with the Accept-Encoding header value
+     * @param value
+     * @return integer
+     */
+    private static int parseAcceptEncoding(String value)
+    {
+        return parse("GET / HTTP/1.1\r\nHost: www.a.com\r\n"
+                + ((value != null) ? "Accept-Encoding: " + value + "\r\n" : "")
+                + "\r\n").getAcceptedEncodings();
+    }
+}
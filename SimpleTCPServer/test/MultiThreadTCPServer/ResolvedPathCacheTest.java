@@ -0,0 +1,240 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Name:        ResolvedPathCacheTest
+ * Type:        Class
+ * Description: Targets resolved against the document root, file metadata
+ *              dropped when a watched file changes but not when the logs
+ *              do, logs never served, and a full cache keeping most of its
+ *              entries
+ */
+public class ResolvedPathCacheTest
+{
+    // Longest time the watch service may take to report a change
+    private static final long WATCH_TIMEOUT_MS = 10000;
+
+    // Document root, with a page and a log directory
+    @TempDir
+    Path root;
+    private Path page;
+    private Path logs;
+
+    // Cache of the document root
+    private ResolvedPathCache cache;
+
+    /**
+     * Name       : setUp
+     * Input      : none
+     * Output     : none
+     * Description: Creates the document root and its cache
+     * @throws java.io.IOException
+     */
+    @BeforeEach
+    public void setUp() throws IOException
+    {
+        page = write(root.resolve("page.html"), "<p>one</p>");
+        logs = Files.createDirectory(root.resolve("logs"));
+        cache = new ResolvedPathCache(root, 16, 60000);
+    }
+
+    @Test
+    public void resolvesTargetsBelowTheRoot() throws BadRequestException
+    {
+        ResolvedPathCache.Resource index = cache.resolve("/");
+        assertEquals(root.resolve(Constants.DEFAULT_FILE_PATH), index.filePath);
+        assertEquals(Constants.DEFAULT_FILE_NAME, index.filename);
+
+        ResolvedPathCache.Resource image = cache.resolve("/images/./Dock.jpg");
+        assertEquals(root.resolve("images").resolve("Dock.jpg"), image.filePath);
+        assertEquals("Dock.jpg", image.filename);
+        assertEquals(Utilities.getContentType("Dock.jpg"), image.contentType);
+
+        // Resolved once
+        assertSame(image, cache.resolve("/images/./Dock.jpg"));
+    }
+
+    @Test
+    public void refusesTargetsLeavingTheRoot()
+    {
+        assertThrows(BadRequestException.class, () -> cache.resolve("/.."));
+        assertThrows(BadRequestException.class, () -> cache.resolve("/images/../../x.html"));
+    }
+
+    @Test
+    public void describesFiles() throws IOException
+    {
+        ResolvedPathCache.FileInfo info = cache.stat(page);
+        assertTrue(info.exists);
+        assertTrue(info.regular);
+        assertEquals(Files.size(page), info.size);
+        assertEquals(Files.getLastModifiedTime(page).toMillis(), info.lastModified);
+
+        info = cache.stat(logs);
+        assertTrue(info.exists);
+        assertFalse(info.regular);
+
+        info = cache.stat(root.resolve("missing.html"));
+        assertFalse(info.exists);
+
+        // Missing files are remembered for a while
+        assertSame(info, cache.stat(root.resolve("missing.html")));
+    }
+
+    @Test
+    public void dropsChangedFiles() throws Exception
+    {
+        cache.startWatching(root, Collections.singletonList(logs));
+        ResolvedPathCache.FileInfo before = cache.stat(page);
+        assertSame(before, cache.stat(page));
+
+        write(page, "<p>a longer page</p>");
+        ResolvedPathCache.FileInfo after = awaitChange(page, before);
+        assertEquals(Files.size(page), after.size);
+
+        // A file created after a missing lookup is found
+        Path created = root.resolve("created.html");
+        ResolvedPathCache.FileInfo missing = cache.stat(created);
+        assertFalse(missing.exists);
+        write(created, "<p>new</p>");
+        assertTrue(awaitChange(created, missing).exists);
+    }
+
+    @Test
+    public void dropsFilesOnRequest()
+    {
+        ResolvedPathCache.FileInfo before = cache.stat(root.resolve("missing.html"));
+        cache.invalidate(root.resolve("missing.html"));
+        assertNotSame(before, cache.stat(root.resolve("missing.html")));
+    }
+
+    @Test
+    public void ignoresTheLogDirectory() throws Exception
+    {
+        cache.startWatching(root, Collections.singletonList(logs));
+        ResolvedPathCache.FileInfo info = cache.stat(page);
+
+        // Written like a log, then a change the watcher must see, so the
+        // log events had their chance to be handled
+        Path log = logs.resolve("access.log");
+        for (int i = 0; i < 5; i++)
+        {
+            Files.write(log, ("line " + i + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+        Path marker = root.resolve("marker.html");
+        ResolvedPathCache.FileInfo missing = cache.stat(marker);
+        write(marker, "");
+        awaitChange(marker, missing);
+        Thread.sleep(200);
+
+        assertSame(info, cache.stat(page));
+
+        // Not watched, so the log is looked up every time
+        assertNotSame(cache.stat(log), cache.stat(log));
+    }
+
+    @Test
+    public void hidesTheLogDirectory() throws Exception
+    {
+        Path log = write(logs.resolve("access.log"), "127.0.0.1 GET /\n");
+        Path rootLog = write(root.resolve("error.log"), "error\n");
+        ResolvedPathCache.Resource before = cache.resolve("/logs/access.log");
+        assertTrue(cache.stat(before).exists);
+
+        // A directory, or a single file such as a log in the root itself
+        cache.startWatching(root, Arrays.asList(logs, rootLog));
+        ResolvedPathCache.Resource resource = cache.resolve("/logs/access.log");
+        assertEquals(log, resource.filePath);
+        assertFalse(cache.stat(resource).exists);
+        assertFalse(cache.stat(cache.resolve("/logs/./access.log")).exists);
+        assertFalse(cache.stat(cache.resolve("/error.log")).exists);
+
+        // Other files are still served
+        assertTrue(cache.stat(cache.resolve("/page.html")).exists);
+    }
+
+    @Test
+    public void evictsPartOfAFullCache() throws BadRequestException
+    {
+        for (int i = 0; i < 16; i++)
+        {
+            cache.resolve("/page" + i + ".html");
+        }
+        assertEquals(16, cache.getResolvedCount());
+
+        // An eighth of the entries make room for the new one
+        cache.resolve("/page16.html");
+        assertEquals(15, cache.getResolvedCount());
+
+        // Never more than the limit
+        for (int i = 17; i < 1000; i++)
+        {
+            cache.resolve("/page" + i + ".html");
+            assertTrue(cache.getResolvedCount() <= 16);
+        }
+        assertTrue(cache.getResolvedCount() >= 14);
+    }
+
+    /**
+     * Name       : awaitChange
+     * Input      : file as Path, before as FileInfo
+     * Output     : New metadata of the file
+     * Description: Waits until the cache drops the metadata of the file
+     * @param file
+     * @param before
+     * @return file info
+     * @throws java.lang.InterruptedException
+     */
+    private ResolvedPathCache.FileInfo awaitChange(Path file,
+            ResolvedPathCache.FileInfo before) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + WATCH_TIMEOUT_MS;
+        while (System.currentTimeMillis() < end)
+        {
+            ResolvedPathCache.FileInfo info = cache.stat(file);
+            if (info != before)
+            {
+                return info;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("No change of " + file + " seen");
+    }
+
+    /**
+     * Name       : write
+     * Input      : file as Path, text as String
+     * Output     : Path of the file
+     * Description: Writes a file of the document root
+     * @param file
+     * @param text
+     * @return path
+     * @throws java.io.IOException
+     */
+    private static Path write(Path file, String text) throws IOException
+    {
+        return Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+}
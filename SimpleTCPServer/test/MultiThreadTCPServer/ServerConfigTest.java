@@ -0,0 +1,174 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Name:        ServerConfigTest
+ * Type:        Class
+ * Description: Configuration files in both formats, and the order the
+ *              sources of a setting are looked up in
+ */
+public class ServerConfigTest
+{
+    // Directory the configuration files are written to
+    @TempDir
+    Path directory;
+
+    @Test
+    public void parsesYamlMapping() throws IOException
+    {
+        Map<String, String> settings = ServerConfig.parseYaml(write("server.yml",
+                "# Server settings\n"
+                + "---\n"
+                + "mode: nio\n"
+                + "reactors:   4   # one per core\n"
+                + "\n"
+                + "document-root: \"./public # not a comment\"\n"
+                + "error-page-404: './errorfiles/Error-404.html'\n"
+                + "redirect-log:\n"
+                + "metrics-path: # none\n"
+                + "url: http://127.0.0.1:6789/\n"
+                + "...\n"));
+
+        assertEquals(7, settings.size());
+        assertEquals("nio", settings.get("mode"));
+        assertEquals("4", settings.get("reactors"));
+        assertEquals("./public # not a comment", settings.get("document-root"));
+        assertEquals("./errorfiles/Error-404.html", settings.get("error-page-404"));
+        assertEquals("", settings.get("redirect-log"));
+        assertEquals("", settings.get("metrics-path"));
+        assertEquals("http://127.0.0.1:6789/", settings.get("url"));
+    }
+
+    @Test
+    public void refusesYamlThatIsNotAFlatMapping()
+    {
+        String documents[] = {
+            "server:\n  port: 6789\n",          // nested mapping
+            "- port\n",                         // list
+            "port 6789\n"                       // no separator
+        };
+        for (String document : documents)
+        {
+            IOException e = assertThrows(IOException.class,
+                    () -> ServerConfig.parseYaml(write("bad.yaml", document)));
+            assertTrue(e.getMessage().startsWith("Unsupported YAML at line "),
+                    e.getMessage());
+        }
+    }
+
+    @Test
+    public void parsesProperties() throws IOException
+    {
+        Map<String, String> settings = ServerConfig.parseProperties(write("server.properties",
+                "# Server settings\n"
+                + "mode = blocking\n"
+                + "pool-size:400\n"
+                + "  max-keep-alive-requests   50  \n"
+                + "! other comment\n"
+                + "access-log=\n"));
+
+        assertEquals(4, settings.size());
+        assertEquals("blocking", settings.get("mode"));
+        assertEquals("400", settings.get("pool-size"));
+        assertEquals("50", settings.get("max-keep-alive-requests"));
+        assertEquals("", settings.get("access-log"));
+        assertNull(settings.get("# Server settings"));
+    }
+
+    @Test
+    public void readsTheFileNamedByConfig() throws IOException
+    {
+        Path properties = write("server.properties", "port=7000\nmode=nio\n");
+        Path yaml = write("server.yaml", "port: 8000\n");
+
+        ServerConfig config = new ServerConfig();
+        config.load(new String[] { "--config=" + properties });
+        assertEquals(properties, config.getFile());
+        assertEquals(7000, config.getInt("port", Constants.PORT, 0));
+        assertEquals("nio", config.get("mode", "blocking"));
+
+        config.load(new String[] { "--config=" + yaml });
+        assertEquals(8000, config.getInt("port", Constants.PORT, 0));
+        assertEquals("blocking", config.get("mode", "blocking"));
+    }
+
+    @Test
+    public void prefersCommandLineAndSystemProperties() throws IOException
+    {
+        Path file = write("server.properties",
+                "test-setting-a=file\ntest-setting-b=file\ntest-setting-c=file\n");
+        String property = Constants.CONFIG_PROPERTY_PREFIX + "test-setting-b";
+
+        ServerConfig config = new ServerConfig();
+        System.setProperty(property, " property ");
+        try
+        {
+            config.load(new String[] { "--config=" + file, "--test-setting-a=argument" });
+            assertEquals("argument", config.get("test-setting-a", "default"));
+            assertEquals("property", config.get("test-setting-b", "default"));
+            assertEquals("file", config.get("test-setting-c", "default"));
+            assertEquals("default", config.get("test-setting-d", "default"));
+        }
+        finally
+        {
+            System.clearProperty(property);
+        }
+    }
+
+    @Test
+    public void checksValues() throws IOException
+    {
+        ServerConfig config = new ServerConfig();
+        config.load(new String[] { "--config=", "--port=x", "--backlog=-1",
+            "--pool-size=3000000000", "--reuseport=yes", "--keep-alive=false",
+            "--mode=fast" });
+        assertNull(config.getFile());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> config.getInt("port", Constants.PORT, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> config.getInt("backlog", Constants.DEFAULT_ACCEPT_BACKLOG, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> config.getInt("pool-size", Constants.DEFAULT_POOL_SIZE, 1));
+        assertEquals(3000000000L, config.getLong("pool-size", Constants.DEFAULT_POOL_SIZE, 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> config.getBoolean("reuseport", false));
+        assertFalse(config.getBoolean("keep-alive", true));
+        assertThrows(IllegalArgumentException.class,
+                () -> config.getChoice("mode", "blocking", "blocking", "nio"));
+    }
+
+    /**
+     * Name       : write
+     * Input      : name as String, text as String
+     * Output     : Path of the file
+     * Description: Writes a configuration file
+     * @param name
+     * @param text
+     * @return path
+     * @throws java.io.IOException
+     */
+    private Path write(String name, String text) throws IOException
+    {
+        return Files.write(directory.resolve(name), text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,269 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Name:        TimerWheelTest
+ * Type:        Class
+ * Description: Timeouts expiring at their tick, moved, cancelled, and
+ *              scheduled more than a turn of the wheel ahead. Times are
+ *              given in ticks from the creation of the wheel, half a tick
+ *              off the tick boundaries, so the test doesn't depend on how
+ *              fast it runs
+ */
+public class TimerWheelTest
+{
+    /**
+     * Name:        RecordingTimeout
+     * Type:        Class
+     * Description: Timeout that counts how often it expired
+     */
+    private static class RecordingTimeout extends TimerWheel.Timeout
+    {
+        int expired = 0;
+
+        @Override
+        protected void expire(long now)
+        {
+            expired += 1;
+        }
+    }
+
+    // Length of a tick, and slots of the wheel: a turn is 8 ticks
+    private static final long TICK = 1000;
+    private static final int SLOTS = 8;
+
+    // Time the wheel was created at, at the latest, and the wheel
+    private long base;
+    private TimerWheel wheel;
+
+    /**
+     * Name       : setUp
+     * Input      : none
+     * Output     : none
+     * Description: Creates the wheel
+     */
+    @BeforeEach
+    public void setUp()
+    {
+        base = System.currentTimeMillis();
+        wheel = new TimerWheel(TICK, SLOTS);
+    }
+
+    @Test
+    public void expiresAtTheDeadline()
+    {
+        RecordingTimeout timeout = new RecordingTimeout();
+        wheel.schedule(timeout, deadline(3));
+        assertEquals(1, wheel.size());
+
+        wheel.advance(time(2));
+        assertEquals(0, timeout.expired);
+
+        wheel.advance(time(3));
+        assertEquals(1, timeout.expired);
+        assertEquals(0, wheel.size());
+
+        // Once only
+        wheel.advance(time(12));
+        assertEquals(1, timeout.expired);
+    }
+
+    @Test
+    public void expiresPastDeadlinesOnTheNextTick()
+    {
+        RecordingTimeout timeout = new RecordingTimeout();
+        wheel.advance(time(2));
+        wheel.schedule(timeout, base - (10 * TICK));
+
+        wheel.advance(time(2));
+        assertEquals(0, timeout.expired);
+        wheel.advance(time(3));
+        assertEquals(1, timeout.expired);
+    }
+
+    @Test
+    public void reschedulesToAnEarlierDeadline()
+    {
+        RecordingTimeout timeout = new RecordingTimeout();
+        wheel.schedule(timeout, deadline(5));
+        wheel.schedule(timeout, deadline(2));
+        assertEquals(1, wheel.size());
+
+        wheel.advance(time(2));
+        assertEquals(1, timeout.expired);
+        wheel.advance(time(5));
+        assertEquals(1, timeout.expired);
+    }
+
+    @Test
+    public void keepsTheEarlierDeadline()
+    {
+        RecordingTimeout timeout = new RecordingTimeout();
+        wheel.schedule(timeout, deadline(2));
+        wheel.schedule(timeout, deadline(5));
+        assertEquals(1, wheel.size());
+
+        wheel.advance(time(2));
+        assertEquals(1, timeout.expired);
+
+        // Scheduled again once expired
+        wheel.schedule(timeout, deadline(5));
+        wheel.advance(time(4));
+        assertEquals(1, timeout.expired);
+        wheel.advance(time(5));
+        assertEquals(2, timeout.expired);
+    }
+
+    @Test
+    public void reschedulesFromExpire()
+    {
+        // Expires twice, the second time three ticks after the first at
+        // the earliest; deadlines are rounded up to a tick
+        List<Long> expiries = new ArrayList<>();
+        TimerWheel.Timeout timeout = new TimerWheel.Timeout()
+        {
+            @Override
+            protected void expire(long now)
+            {
+                expiries.add(now);
+                if (expiries.size() == 1)
+                {
+                    wheel.schedule(this, now + (3 * TICK));
+                }
+            }
+        };
+        wheel.schedule(timeout, deadline(1));
+
+        for (int tick = 1; tick <= 6; tick++)
+        {
+            wheel.advance(time(tick));
+        }
+        assertEquals(2, expiries.size());
+        assertEquals(time(1), (long) expiries.get(0));
+        assertEquals(time(5), (long) expiries.get(1));
+    }
+
+    @Test
+    public void cancelsTimeouts()
+    {
+        RecordingTimeout cancelled = new RecordingTimeout();
+        RecordingTimeout kept = new RecordingTimeout();
+        wheel.schedule(cancelled, deadline(2));
+        wheel.schedule(kept, deadline(2));
+
+        wheel.cancel(cancelled);
+        assertEquals(1, wheel.size());
+
+        // Cancelling twice, or a timeout never scheduled, does nothing
+        wheel.cancel(cancelled);
+        wheel.cancel(new RecordingTimeout());
+        assertEquals(1, wheel.size());
+
+        wheel.advance(time(4));
+        assertEquals(0, cancelled.expired);
+        assertEquals(1, kept.expired);
+    }
+
+    @Test
+    public void waitsForTheTurnOfLaterDeadlines()
+    {
+        // All three share a slot, a turn of the wheel apart
+        RecordingTimeout first = new RecordingTimeout();
+        RecordingTimeout second = new RecordingTimeout();
+        RecordingTimeout third = new RecordingTimeout();
+        wheel.schedule(first, deadline(3));
+        wheel.schedule(second, deadline(3 + SLOTS));
+        wheel.schedule(third, deadline(3 + (2 * SLOTS)));
+
+        wheel.advance(time(3));
+        assertEquals(1, first.expired);
+        assertEquals(0, second.expired);
+
+        wheel.advance(time(2 + SLOTS));
+        assertEquals(0, second.expired);
+        wheel.advance(time(3 + SLOTS));
+        assertEquals(1, second.expired);
+        assertEquals(0, third.expired);
+
+        wheel.advance(time(3 + (2 * SLOTS)));
+        assertEquals(1, third.expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void catchesUpOnSkippedTicks()
+    {
+        RecordingTimeout soon = new RecordingTimeout();
+        RecordingTimeout later = new RecordingTimeout();
+        RecordingTimeout turnsLater = new RecordingTimeout();
+        wheel.schedule(soon, deadline(1));
+        wheel.schedule(later, deadline(6));
+        wheel.schedule(turnsLater, deadline(30));
+
+        wheel.advance(time(40));
+        assertEquals(1, soon.expired);
+        assertEquals(1, later.expired);
+        assertEquals(1, turnsLater.expired);
+    }
+
+    @Test
+    public void keepsRunningAfterAFailingTimeout()
+    {
+        TimerWheel.Timeout failing = new TimerWheel.Timeout()
+        {
+            @Override
+            protected void expire(long now)
+            {
+                throw new IllegalStateException("expected by the test");
+            }
+        };
+        RecordingTimeout timeout = new RecordingTimeout();
+        wheel.schedule(failing, deadline(1));
+        wheel.schedule(timeout, deadline(1));
+
+        wheel.advance(time(1));
+        assertEquals(1, timeout.expired);
+
+        // The failed run isn't repeated
+        wheel.advance(time(2));
+        assertEquals(1, timeout.expired);
+    }
+
+    /**
+     * Name       : deadline
+     * Input      : tick as long
+     * Output     : Time in milliseconds
+     * Description: Returns a deadline that falls in the tick
+     * @param tick
+     * @return long
+     */
+    private long deadline(long tick)
+    {
+        return base + (tick * TICK) - (TICK / 2);
+    }
+
+    /**
+     * Name       : time
+     * Input      : tick as long
+     * Output     : Time in milliseconds
+     * Description: Returns a time at which the wheel has reached the tick
+     * @param tick
+     * @return long
+     */
+    private long time(long tick)
+    {
+        return base + (tick * TICK) + (TICK / 2);
+    }
+}
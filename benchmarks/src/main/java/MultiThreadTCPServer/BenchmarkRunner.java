@@ -0,0 +1,45 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Name:        BenchmarkRunner
+ * Type:        Class
+ * Description: Entry point of the benchmarks jar. Takes the usual JMH
+ *              command line and always adds the gc profiler, so every
+ *              result reports the bytes allocated per operation next to
+ *              the throughput
+ */
+public class BenchmarkRunner
+{
+    /**
+     * Name       : main
+     * Input      : Command line arguments into array of string
+     * Output     : none
+     * Description: Runs the benchmarks selected on the command line
+     * @param argv
+     * @throws org.openjdk.jmh.runner.RunnerException
+     * @throws org.openjdk.jmh.runner.options.CommandLineOptionException
+     */
+    public static void main(String argv[])
+            throws RunnerException, CommandLineOptionException
+    {
+        CommandLineOptions commandLine = new CommandLineOptions(argv);
+        new Runner(new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+/**
+ * Name:        LatencyHistogram
+ * Type:        Class
+ * Description: Histogram of latencies in nanoseconds with a fixed relative
+ *              precision: values below 128 are counted exactly, larger ones
+ *              in 64 linear buckets per power of two, so a percentile is off
+ *              by less than 1.6%. Recording is a few arithmetic operations
+ *              and never allocates. Not thread safe; each thread records
+ *              into its own histogram and they are added up at the end
+ */
+public class LatencyHistogram
+{
+    // Values below this are counted exactly
+    private static final int EXACT_LIMIT = 128;
+
+    // Buckets per power of two above it, and their bits
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BUCKET_BITS = 6;
+
+    // Enough buckets for any positive long
+    private static final int BUCKET_COUNT = EXACT_LIMIT + ((63 - 7) * SUB_BUCKETS);
+
+    // Number of values per bucket
+    private final long counts[] = new long[BUCKET_COUNT];
+
+    // Number, sum, smallest and largest of the recorded values
+    private long totalCount = 0;
+    private long sum = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+
+    /**
+     * Name       : record
+     * Input      : value as long
+     * Output     : none
+     * Description: Records a latency; negative values count as 0
+     * @param value
+     */
+    public void record(long value)
+    {
+        if (value < 0)
+        {
+            value = 0;
+        }
+        counts[indexOf(value)] += 1;
+        totalCount += 1;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Name       : add
+     * Input      : other as LatencyHistogram
+     * Output     : none
+     * Description: Adds the values recorded in another histogram
+     * @param other
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Name       : getCount
+     * Input      : none
+     * Output     : Number of recorded values
+     * Description: Returns how many latencies were recorded
+     * @return long
+     */
+    public long getCount()
+    {
+        return totalCount;
+    }
+
+    /**
+     * Name       : getMean
+     * Input      : none
+     * Output     : Mean of the recorded values
+     * Description: Returns the exact mean
+     * @return double
+     */
+    public double getMean()
+    {
+        return (totalCount == 0) ? 0 : ((double) sum / totalCount);
+    }
+
+    /**
+     * Name       : getMax
+     * Input      : none
+     * Output     : Largest recorded value
+     * Description: Returns the exact maximum
+     * @return long
+     */
+    public long getMax()
+    {
+        return max;
+    }
+
+    /**
+     * Name       : getValueAtPercentile
+     * Input      : percentile as double, 0 to 100
+     * Output     : Value as long
+     * Description: Returns the value that the given share of the recorded
+     *              values is at or below; the upper end of its bucket, so
+     *              percentiles are never understated
+     * @param percentile
+     * @return long
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if (totalCount == 0)
+        {
+            return 0;
+        }
+
+        // Rank of the value, at least the first one
+        long rank = Math.max(1, (long) Math.ceil((percentile / 100) * totalCount));
+
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+            {
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Name       : indexOf
+     * Input      : value as long
+     * Output     : Bucket index as int
+     * Description: Returns the bucket counting the value
+     * @param value
+     * @return int
+     */
+    private static int indexOf(long value)
+    {
+        if (value < EXACT_LIMIT)
+        {
+            return (int) value;
+        }
+
+        // value is in [2^k, 2^(k+1)); keep its top 7 bits
+        int k = 63 - Long.numberOfLeadingZeros(value);
+        int shift = k - SUB_BUCKET_BITS;
+        return EXACT_LIMIT + ((k - 7) * SUB_BUCKETS)
+                + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Name       : highestValueOf
+     * Input      : index as int
+     * Output     : Largest value counted in the bucket
+     * Description: Inverse of indexOf
+     * @param index
+     * @return long
+     */
+    private static long highestValueOf(int index)
+    {
+        if (index < EXACT_LIMIT)
+        {
+            return index;
+        }
+
+        int k = ((index - EXACT_LIMIT) / SUB_BUCKETS) + 7;
+        int shift = k - SUB_BUCKET_BITS;
+        long top = SUB_BUCKETS + ((index - EXACT_LIMIT) % SUB_BUCKETS);
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,709 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Name:        LoadGenerator
+ * Type:        Class
+ * Description: Drives a running server over loopback with a mix of html,
+ *              image, missing and moved file requests, and reports the
+ *              throughput and latency percentiles. Each connection has its
+ *              own thread.
+ *
+ *              Closed loop (no --rate): every connection sends its next
+ *              request as soon as the previous response is read; latency
+ *              is the service time.
+ *
+ *              Open loop (--rate=N requests per second in total): requests
+ *              are due on a fixed schedule, and latency is measured from
+ *              the time a request was due rather than the time it was sent.
+ *              A stall of the server then shows in the latency of every
+ *              request it delayed, instead of holding the load generator
+ *              back with it (coordinated omission). The service time is
+ *              reported next to it.
+ *
+ *              Options (all --name=value):
+ *                --host, --port           server address
+ *                --connections            concurrent connections (8)
+ *                --duration, --warmup     seconds measured and not (10, 2)
+ *                --rate                   requests per second, 0 for closed
+ *                                         loop (0)
+ *                --keep-alive             reuse connections (true)
+ *                --mix                    weights of the request kinds
+ *                                         (html:60,image:25,missing:10,moved:5)
+ *                --html-target, --image-targets, --missing-target,
+ *                --moved-target           paths requested for each kind
+ *                --max-failures           share of the requests that may
+ *                                         fail or get another status than
+ *                                         expected before the run fails (0.5)
+ *
+ *              Statuses other than expected are reported per path, so a
+ *              wrong path shows instead of being timed as a fast 404.
+ */
+public class LoadGenerator
+{
+    /**
+     * Name:        RequestKind
+     * Type:        Class
+     * Description: One kind of request of the mix and its expected status
+     */
+    static final class RequestKind
+    {
+        // Position in the mix, name, paths requested at random and expected
+        // status code
+        final int index;
+        final String name;
+        final String targets[];
+        final int expectedStatus;
+
+        // Position of the first path among the paths of all kinds
+        final int firstTarget;
+
+        // Share of the requests, as a weight
+        int weight = 0;
+
+        RequestKind(int index, String name, String targets[], int expectedStatus,
+                int firstTarget)
+        {
+            this.index = index;
+            this.name = name;
+            this.targets = targets;
+            this.expectedStatus = expectedStatus;
+            this.firstTarget = firstTarget;
+        }
+    }
+
+    /**
+     * Name:        Worker
+     * Type:        Class
+     * Description: One connection sending requests until the end of the run,
+     *              recording into its own histograms and counters
+     */
+    final class Worker implements Runnable
+    {
+        // Latency from the due time and from the send time
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram serviceTime = new LatencyHistogram();
+
+        // Measured requests per kind, those with another status than
+        // expected, and failed ones
+        final long counts[] = new long[kinds.size()];
+        final long unexpected[] = new long[kinds.size()];
+        long errors = 0;
+
+        // Measured requests per path, those with another status than
+        // expected, and the last such status
+        final long targetCounts[] = new long[targetCount];
+        final long targetUnexpected[] = new long[targetCount];
+        final int targetStatus[] = new int[targetCount];
+
+        // Bytes received in measured responses, and connections opened
+        long bytes = 0;
+        long connects = 0;
+
+        // Body bytes of the last response
+        private long received = 0;
+
+        // Time the first request of this connection is due
+        private final long firstDue;
+
+        // Connection to the server
+        private Socket socket = null;
+        private InputStream in = null;
+        private OutputStream out = null;
+
+        // Buffer for skipping response bodies
+        private final byte scratch[] = new byte[16384];
+
+        Worker(long firstDue)
+        {
+            this.firstDue = firstDue;
+        }
+
+        @Override
+        public void run()
+        {
+            long due = firstDue;
+            while (true)
+            {
+                // Wait until the request is due; in closed loop it is due now
+                long now = System.nanoTime();
+                if (interval > 0)
+                {
+                    while (now < due)
+                    {
+                        LockSupport.parkNanos(due - now);
+                        now = System.nanoTime();
+                    }
+                }
+                else
+                {
+                    due = now;
+                }
+                if (due - endTime >= 0)
+                {
+                    break;
+                }
+
+                RequestKind kind = pickKind();
+                int targetIndex = ThreadLocalRandom.current().nextInt(kind.targets.length);
+                String target = kind.targets[targetIndex];
+                targetIndex += kind.firstTarget;
+                boolean measured = due - measureStart >= 0;
+
+                long sent = System.nanoTime();
+                try
+                {
+                    int status = send(target);
+                    long done = System.nanoTime();
+                    if (measured)
+                    {
+                        latency.record(done - due);
+                        serviceTime.record(done - sent);
+                        bytes += received;
+                        counts[kind.index] += 1;
+                        targetCounts[targetIndex] += 1;
+                        if (status != kind.expectedStatus)
+                        {
+                            unexpected[kind.index] += 1;
+                            targetUnexpected[targetIndex] += 1;
+                            targetStatus[targetIndex] = status;
+                        }
+                    }
+                }
+                catch (IOException | NumberFormatException e)
+                {
+                    // Failed or garbled response; start over on a new connection
+                    closeConnection();
+                    if (measured)
+                    {
+                        errors += 1;
+                        targetCounts[targetIndex] += 1;
+                        targetUnexpected[targetIndex] += 1;
+                    }
+                }
+
+                due += interval;
+            }
+            closeConnection();
+        }
+
+        /**
+         * Name       : send
+         * Input      : target as String
+         * Output     : Status code of the response
+         * Description: Sends one request and reads the whole response,
+         *              connecting first if needed
+         * @param target
+         * @return int
+         * @throws java.io.IOException
+         */
+        private int send(String target) throws IOException
+        {
+            if (socket == null)
+            {
+                socket = new Socket();
+                socket.setTcpNoDelay(true);
+                socket.connect(address);
+                in = new BufferedInputStream(socket.getInputStream(), 16384);
+                out = socket.getOutputStream();
+                connects += 1;
+            }
+
+            out.write(("GET " + target + " HTTP/1.1\r\n"
+                    + "Host: " + hostHeader + "\r\n"
+                    + (keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n")
+                    + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            // Status line and headers
+            String statusLine = readLine();
+            if (!statusLine.startsWith("HTTP/1.") || (statusLine.length() < 12))
+            {
+                throw new IOException("Bad status line: " + statusLine);
+            }
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+
+            long length = -1;
+            boolean chunked = false;
+            boolean close = !keepAlive;
+            String line;
+            while (!(line = readLine()).isEmpty())
+            {
+                int colon = line.indexOf(':');
+                if (colon < 0)
+                {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length"))
+                {
+                    length = Long.parseLong(value);
+                }
+                else if (name.equalsIgnoreCase("Transfer-Encoding"))
+                {
+                    chunked = value.equalsIgnoreCase("chunked");
+                }
+                else if (name.equalsIgnoreCase("Connection"))
+                {
+                    close |= value.equalsIgnoreCase("close");
+                }
+            }
+
+            // Body
+            received = 0;
+            if ((status == 204) || (status == 304))
+            {
+                // No body
+            }
+            else if (chunked)
+            {
+                long size;
+                while ((size = Long.parseLong(readLine().split(";")[0].trim(), 16)) > 0)
+                {
+                    skip(size);
+                    readLine();
+                    received += size;
+                }
+                while (!readLine().isEmpty())
+                {
+                    // Trailer
+                }
+            }
+            else if (length >= 0)
+            {
+                skip(length);
+                received = length;
+            }
+            else
+            {
+                // Ends with the connection
+                int read;
+                while ((read = in.read(scratch)) > 0)
+                {
+                    received += read;
+                }
+                close = true;
+            }
+
+            if (close)
+            {
+                closeConnection();
+            }
+            return status;
+        }
+
+        /**
+         * Name       : readLine
+         * Input      : none
+         * Output     : Line without its line break
+         * Description: Reads a header line of the response
+         * @return line
+         * @throws java.io.IOException
+         */
+        private String readLine() throws IOException
+        {
+            StringBuilder line = new StringBuilder(64);
+            int b;
+            while ((b = in.read()) != '\n')
+            {
+                if (b < 0)
+                {
+                    throw new EOFException("Connection closed in the response");
+                }
+                if (b != '\r')
+                {
+                    line.append((char) b);
+                }
+            }
+            return line.toString();
+        }
+
+        /**
+         * Name       : skip
+         * Input      : count as long
+         * Output     : none
+         * Description: Reads and drops count bytes of the body
+         * @param count
+         * @throws java.io.IOException
+         */
+        private void skip(long count) throws IOException
+        {
+            while (count > 0)
+            {
+                int read = in.read(scratch, 0, (int) Math.min(scratch.length, count));
+                if (read < 0)
+                {
+                    throw new EOFException("Connection closed in the body");
+                }
+                count -= read;
+            }
+        }
+
+        /**
+         * Name       : closeConnection
+         * Input      : none
+         * Output     : none
+         * Description: Closes the connection; the next request opens another
+         */
+        private void closeConnection()
+        {
+            if (socket != null)
+            {
+                try
+                {
+                    socket.close();
+                }
+                catch (IOException e)
+                {
+                    // Nothing more to do with it
+                }
+                socket = null;
+            }
+        }
+    }
+
+    // Server address and the Host header naming it
+    private final InetSocketAddress address;
+    private final String hostHeader;
+
+    // Concurrent connections and whether they are reused
+    private final int connections;
+    private final boolean keepAlive;
+
+    // Time between the requests of one connection, 0 in closed loop
+    private final long interval;
+
+    // Kinds of requests and the sum of their weights
+    private final List<RequestKind> kinds;
+    private final int totalWeight;
+
+    // Number of paths of all kinds
+    private int targetCount = 0;
+
+    // Share of failed or unexpected responses that fails the run
+    private final double maxFailures;
+
+    // Start of the measurement and end of the run (System.nanoTime)
+    private long measureStart;
+    private long endTime;
+
+    /**
+     * Name       : LoadGenerator
+     * Input      : argv as array of String
+     * Output     : none
+     * Description: Constructor that reads the options
+     * @param argv
+     */
+    LoadGenerator(String argv[])
+    {
+        String host = MultiThreadTCPServer.getArgValue(argv, "--host", "127.0.0.1");
+        int port = Integer.parseInt(MultiThreadTCPServer.getArgValue(argv, "--port",
+                String.valueOf(Constants.PORT)));
+        address = new InetSocketAddress(host, port);
+        hostHeader = host + ":" + port;
+
+        connections = Integer.parseInt(
+                MultiThreadTCPServer.getArgValue(argv, "--connections", "8"));
+        keepAlive = Boolean.parseBoolean(
+                MultiThreadTCPServer.getArgValue(argv, "--keep-alive", "true"));
+
+        // Each connection sends its share of the total rate
+        double rate = Double.parseDouble(
+                MultiThreadTCPServer.getArgValue(argv, "--rate", "0"));
+        interval = (rate > 0) ? (long) (connections * 1e9 / rate) : 0;
+
+        // Kinds of requests, with the paths that give their status here
+        kinds = new ArrayList<>();
+        addKind("html", MultiThreadTCPServer.getArgValue(argv,
+                "--html-target", "/"), 200);
+        addKind("image", MultiThreadTCPServer.getArgValue(argv,
+                "--image-targets", "/images/Waterfall.jpg,/images/Dock.jpg"), 200);
+        addKind("missing", MultiThreadTCPServer.getArgValue(argv,
+                "--missing-target", "/missing.html"), 404);
+        addKind("moved", MultiThreadTCPServer.getArgValue(argv,
+                "--moved-target", "/index1.html"), 301);
+        maxFailures = Double.parseDouble(
+                MultiThreadTCPServer.getArgValue(argv, "--max-failures", "0.5"));
+
+        // Weights of the mix
+        int weights = 0;
+        for (String entry : split(MultiThreadTCPServer.getArgValue(argv, "--mix",
+                "html:60,image:25,missing:10,moved:5")))
+        {
+            String parts[] = entry.split(":");
+            RequestKind kind = findKind(parts[0].trim());
+            kind.weight = Integer.parseInt(parts[1].trim());
+            weights += kind.weight;
+        }
+        if (weights <= 0)
+        {
+            throw new IllegalArgumentException("--mix has no weight");
+        }
+        totalWeight = weights;
+    }
+
+    /**
+     * Name       : main
+     * Input      : Command line arguments into array of string
+     * Output     : none
+     * Description: Runs the load and prints the report; exits with status
+     *              1 if too many requests failed
+     * @param argv
+     * @throws java.lang.InterruptedException
+     */
+    public static void main(String argv[]) throws InterruptedException
+    {
+        LoadGenerator generator = new LoadGenerator(argv);
+        int warmup = Integer.parseInt(MultiThreadTCPServer.getArgValue(argv, "--warmup", "2"));
+        int duration = Integer.parseInt(MultiThreadTCPServer.getArgValue(argv, "--duration", "10"));
+        if (!generator.run(warmup, duration))
+        {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Name       : addKind
+     * Input      : name as String, targets as String, expectedStatus as int
+     * Output     : none
+     * Description: Adds a kind of request to the mix, with its comma
+     *              separated paths
+     * @param name
+     * @param targets
+     * @param expectedStatus
+     */
+    private void addKind(String name, String targets, int expectedStatus)
+    {
+        String paths[] = split(targets);
+        kinds.add(new RequestKind(kinds.size(), name, paths, expectedStatus,
+                targetCount));
+        targetCount += paths.length;
+    }
+
+    /**
+     * Name       : run
+     * Input      : warmup as int, duration as int
+     * Output     : False if too many requests failed
+     * Description: Sends requests for warmup + duration seconds, measuring
+     *              the requests due after the warmup, and prints the report
+     * @param warmup
+     * @param duration
+     * @return true/false
+     * @throws java.lang.InterruptedException
+     */
+    boolean run(int warmup, int duration) throws InterruptedException
+    {
+        long start = System.nanoTime();
+        measureStart = start + (warmup * 1000000000L);
+        endTime = measureStart + (duration * 1000000000L);
+
+        // Connections start a fraction of the interval apart, so the load
+        // is spread evenly instead of arriving in bursts
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < connections; i++)
+        {
+            Worker worker = new Worker(start + ((interval * i) / connections));
+            Thread thread = new Thread(worker, "load-" + i);
+            workers.add(worker);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        return report(workers, System.nanoTime() - measureStart);
+    }
+
+    /**
+     * Name       : report
+     * Input      : workers as list of Worker, elapsed as long
+     * Output     : False if too many requests failed
+     * Description: Adds up the results of the connections and prints them,
+     *              with the paths that got another status than expected
+     * @param workers
+     * @param elapsed
+     * @return true/false
+     */
+    private boolean report(List<Worker> workers, long elapsed)
+    {
+        LatencyHistogram latency = new LatencyHistogram();
+        LatencyHistogram serviceTime = new LatencyHistogram();
+        long counts[] = new long[kinds.size()];
+        long unexpected[] = new long[kinds.size()];
+        long targetCounts[] = new long[targetCount];
+        long targetUnexpected[] = new long[targetCount];
+        int targetStatus[] = new int[targetCount];
+        long errors = 0;
+        long bytes = 0;
+        long connects = 0;
+        for (Worker worker : workers)
+        {
+            for (int i = 0; i < targetCount; i++)
+            {
+                targetCounts[i] += worker.targetCounts[i];
+                targetUnexpected[i] += worker.targetUnexpected[i];
+                if (worker.targetStatus[i] != 0)
+                {
+                    targetStatus[i] = worker.targetStatus[i];
+                }
+            }
+            latency.add(worker.latency);
+            serviceTime.add(worker.serviceTime);
+            for (int i = 0; i < counts.length; i++)
+            {
+                counts[i] += worker.counts[i];
+                unexpected[i] += worker.unexpected[i];
+            }
+            errors += worker.errors;
+            bytes += worker.bytes;
+            connects += worker.connects;
+        }
+
+        double seconds = elapsed / 1e9;
+        System.out.println("Load: " + connections + " connections, "
+                + ((interval > 0) ? String.format("open loop at %.0f req/s",
+                        connections * 1e9 / interval) : "closed loop")
+                + ", keep-alive " + (keepAlive ? "on" : "off"));
+        System.out.println(String.format("Requests: %d in %.1f s = %.0f req/s, %.1f MB/s, "
+                + "%d errors, %d connections opened", latency.getCount(), seconds,
+                latency.getCount() / seconds, bytes / seconds / 1e6, errors, connects));
+        for (int i = 0; i < counts.length; i++)
+        {
+            System.out.println(String.format("  %-8s %d (%d with another status than %d)",
+                    kinds.get(i).name, counts[i], unexpected[i], kinds.get(i).expectedStatus));
+        }
+        if (interval > 0)
+        {
+            printLatency("Latency (from due time)", latency);
+        }
+        printLatency((interval > 0) ? "Service time" : "Latency", serviceTime);
+
+        // Paths that failed or got another status, such as a missing image
+        // answered quickly with a 404
+        long attempts = 0;
+        long failures = 0;
+        for (RequestKind kind : kinds)
+        {
+            for (int i = 0; i < kind.targets.length; i++)
+            {
+                int index = kind.firstTarget + i;
+                attempts += targetCounts[index];
+                failures += targetUnexpected[index];
+                if (targetUnexpected[index] > 0)
+                {
+                    System.out.println(String.format("Warning: %s %s: %d of %d requests "
+                            + "failed or got another status than %d%s", kind.name,
+                            kind.targets[i], targetUnexpected[index], targetCounts[index],
+                            kind.expectedStatus, (targetStatus[index] != 0)
+                                    ? " (last " + targetStatus[index] + ")" : ""));
+                }
+            }
+        }
+
+        // Timings of mostly failed requests say nothing about the server
+        if ((attempts > 0) && (failures > attempts * maxFailures))
+        {
+            System.out.println(String.format("Failed: %d of %d requests failed or got "
+                    + "another status than expected", failures, attempts));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Name       : printLatency
+     * Input      : title as String, histogram as LatencyHistogram
+     * Output     : none
+     * Description: Prints the percentiles of a histogram in milliseconds
+     * @param title
+     * @param histogram
+     */
+    private static void printLatency(String title, LatencyHistogram histogram)
+    {
+        System.out.println(String.format("%s ms: mean %.3f  p50 %.3f  p90 %.3f  "
+                + "p99 %.3f  p99.9 %.3f  max %.3f", title,
+                histogram.getMean() / 1e6,
+                histogram.getValueAtPercentile(50) / 1e6,
+                histogram.getValueAtPercentile(90) / 1e6,
+                histogram.getValueAtPercentile(99) / 1e6,
+                histogram.getValueAtPercentile(99.9) / 1e6,
+                histogram.getMax() / 1e6));
+    }
+
+    /**
+     * Name       : pickKind
+     * Input      : none
+     * Output     : Kind of the next request
+     * Description: Picks a request kind at random, by weight
+     * @return kind
+     */
+    private RequestKind pickKind()
+    {
+        int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (RequestKind kind : kinds)
+        {
+            pick -= kind.weight;
+            if (pick < 0)
+            {
+                return kind;
+            }
+        }
+        return kinds.get(kinds.size() - 1);
+    }
+
+    /**
+     * Name       : findKind
+     * Input      : name as String
+     * Output     : Request kind with the name
+     * Description: Looks a kind of the mix up by name
+     * @param name
+     * @return kind
+     */
+    private RequestKind findKind(String name)
+    {
+        for (RequestKind kind : kinds)
+        {
+            if (kind.name.equals(name))
+            {
+                return kind;
+            }
+        }
+        throw new IllegalArgumentException("Unknown request kind in --mix: " + name);
+    }
+
+    /**
+     * Name       : split
+     * Input      : list as String
+     * Output     : Array of string
+     * Description: Splits a comma separated option value
+     * @param list
+     * @return array of string
+     */
+    private static String[] split(String list)
+    {
+        return list.split(",");
+    }
+}
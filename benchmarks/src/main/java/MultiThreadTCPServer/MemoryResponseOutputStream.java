@@ -0,0 +1,170 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Name:        MemoryResponseOutputStream
+ * Type:        Class
+ * Description: Response stream that collects the response in memory, so the
+ *              send methods can be measured without a socket. The buffer is
+ *              kept between responses, so once it has grown writing to it
+ *              allocates nothing
+ */
+public class MemoryResponseOutputStream extends ResponseOutputStream
+{
+    // Bytes of the responses sent since the last reset
+    private final ByteArrayOutputStream sink;
+
+    // Channel over the sink for file regions
+    private final WritableByteChannel sinkChannel;
+
+    // Buffer of streamed bodies
+    private final byte streamBuffer[] = new byte[StreamedBody.BUFFER_LENGTH];
+
+    /**
+     * Name       : MemoryResponseOutputStream
+     * Input      : none
+     * Output     : none
+     * Description: Constructor
+     */
+    public MemoryResponseOutputStream()
+    {
+        this(new ByteArrayOutputStream(1024 * 1024));
+    }
+
+    private MemoryResponseOutputStream(ByteArrayOutputStream sink)
+    {
+        super(sink);
+        this.sink = sink;
+        this.sinkChannel = Channels.newChannel(sink);
+    }
+
+    /**
+     * Name       : reset
+     * Input      : none
+     * Output     : none
+     * Description: Drops the bytes written so far, keeping the buffer
+     */
+    public void reset()
+    {
+        sink.reset();
+        written = 0;
+    }
+
+    /**
+     * Name       : getBytes
+     * Input      : none
+     * Output     : Number of bytes in the buffer
+     * Description: Returns how much was written since the last reset
+     * @return int
+     */
+    public int getBytes()
+    {
+        return sink.size();
+    }
+
+    /**
+     * Name       : transferFile
+     * Input      : file as FileChannel, position as long, count as long
+     * Output     : none
+     * Description: Copies the region of the file into the buffer and closes
+     *              the file
+     * @param file
+     * @param position
+     * @param count
+     * @throws java.io.IOException
+     */
+    @Override
+    public void transferFile(FileChannel file, long position, long count)
+            throws IOException
+    {
+        try
+        {
+            while (count > 0)
+            {
+                long sent = file.transferTo(position, count, sinkChannel);
+                if (sent <= 0)
+                {
+                    throw new IOException("File shorter than the announced length");
+                }
+                position += sent;
+                count -= sent;
+            }
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    /**
+     * Name       : transferMapped
+     * Input      : mapping as MappedFileCache.Mapping, position as long,
+     *              count as long
+     * Output     : none
+     * Description: Copies the region of the mapping into the buffer and
+     *              releases the mapping
+     * @param mapping
+     * @param position
+     * @param count
+     * @throws java.io.IOException
+     */
+    @Override
+    public void transferMapped(MappedFileCache.Mapping mapping, long position,
+            long count) throws IOException
+    {
+        try
+        {
+            ByteBuffer region = mapping.slice(position, count);
+            while (region.hasRemaining())
+            {
+                sinkChannel.write(region);
+            }
+        }
+        finally
+        {
+            mapping.release();
+        }
+    }
+
+    /**
+     * Name       : transferStream
+     * Input      : in as InputStream, length as long, chunked as boolean
+     * Output     : none
+     * Description: Copies the stream into the buffer one piece at a time
+     * @param in
+     * @param length
+     * @param chunked
+     * @throws java.io.IOException
+     */
+    @Override
+    public void transferStream(InputStream in, long length, boolean chunked)
+            throws IOException
+    {
+        StreamedBody body = new StreamedBody(in, length, chunked, streamBuffer);
+        try
+        {
+            while (body.next())
+            {
+                write(body.buffer, body.start, body.end - body.start);
+            }
+        }
+        finally
+        {
+            body.close();
+        }
+    }
+}
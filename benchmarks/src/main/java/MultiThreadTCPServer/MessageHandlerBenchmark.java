@@ -0,0 +1,147 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Name:        MessageHandlerBenchmark
+ * Type:        Class
+ * Description: Throughput of the send methods writing whole responses to
+ *              an in-memory stream: cached html, plain and compressed, an
+ *              image sent from disk, and the error and redirect messages.
+ *              Must run from the SimpleTCPServer directory, which holds the
+ *              files served
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageHandlerBenchmark
+{
+    // Files served
+    private static final Path HTML_PATH = Paths.get(Constants.DEFAULT_FILE_PATH);
+    private static final Path IMAGE_PATH = Paths.get("images", "Waterfall.jpg");
+
+    // Stream the responses are written to
+    private final MemoryResponseOutputStream out = new MemoryResponseOutputStream();
+
+    // Requests for plain html, compressed html and an image
+    private final HttpRequest htmlRequest = new HttpRequest();
+    private final HttpRequest gzipRequest = new HttpRequest();
+    private final HttpRequest imageRequest = new HttpRequest();
+
+    /**
+     * Name       : setup
+     * Input      : none
+     * Output     : none
+     * Description: Loads what the server loads at start up and parses the
+     *              requests
+     * @throws java.io.IOException
+     */
+    @Setup
+    public void setup() throws IOException
+    {
+        ErrorResponses.setPages(ErrorResponses.readPages(Constants.HTTP_ERROR_400_HTML_FILE,
+                Constants.HTTP_ERROR_404_HTML_FILE, Constants.HTTP_ERROR_503_HTML_FILE,
+                Constants.HTTP_MOVED_PERMANENTLY_MESSAGE_HTML_FILE));
+        RedirectTable.reload();
+        ResolvedPathCache.SHARED.startWatching(Paths.get(Constants.DOCUMENT_ROOT),
+                Collections.<Path>emptyList());
+
+        parse("GET / HTTP/1.1\r\nHost: www.a.com\r\n\r\n", htmlRequest);
+        parse("GET / HTTP/1.1\r\nHost: www.a.com\r\nAccept-Encoding: gzip\r\n\r\n",
+                gzipRequest);
+        parse("GET /Waterfall.jpg HTTP/1.1\r\nHost: www.a.com\r\n\r\n", imageRequest);
+    }
+
+    @Benchmark
+    public MemoryResponseOutputStream sendHtmlResponseMsg() throws IOException
+    {
+        out.reset();
+        MessageHandler.sendHtmlResponseMsg(HTML_PATH, htmlRequest, true, out);
+        return out;
+    }
+
+    @Benchmark
+    public MemoryResponseOutputStream sendHtmlResponseMsgGzip() throws IOException
+    {
+        out.reset();
+        MessageHandler.sendHtmlResponseMsg(HTML_PATH, gzipRequest, true, out);
+        return out;
+    }
+
+    @Benchmark
+    public MemoryResponseOutputStream sendImageResponseMsg() throws IOException
+    {
+        out.reset();
+        MessageHandler.sendImageResponseMsg(IMAGE_PATH, "Waterfall.jpg",
+                imageRequest, true, out);
+        return out;
+    }
+
+    @Benchmark
+    public MemoryResponseOutputStream sendErrorMsg_404() throws IOException
+    {
+        out.reset();
+        MessageHandler.sendErrorMsg_404(HTML_PATH, "missing.html", false, true, out);
+        return out;
+    }
+
+    @Benchmark
+    public MemoryResponseOutputStream sendErrorMsg_400() throws IOException
+    {
+        out.reset();
+        MessageHandler.sendErrorMsg_400("index.html", out);
+        return out;
+    }
+
+    @Benchmark
+    public MemoryResponseOutputStream sendMsg_301() throws IOException
+    {
+        out.reset();
+        MessageHandler.sendMsg_301("index1.html",
+                "http://127.0.0.1:6789/new_loc/index1.html", false, true, out);
+        return out;
+    }
+
+    /**
+     * Name       : parse
+     * Input      : message as String, request as HttpRequest
+     * Output     : none
+     * Description: Parses a request message into a request
+     * @param message
+     * @param request
+     */
+    private static void parse(String message, HttpRequest request)
+    {
+        byte data[] = message.getBytes(StandardCharsets.US_ASCII);
+        HttpRequestParser.parse(data, 0, data.length, request);
+        if (request.isBad())
+        {
+            throw new IllegalStateException("Bad benchmark request: " + message);
+        }
+    }
+}
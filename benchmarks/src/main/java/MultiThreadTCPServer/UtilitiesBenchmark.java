@@ -0,0 +1,111 @@
+/**
+ *
+ * @author Gaurab R. Gautam
+ */
+
+// Package name
+package MultiThreadTCPServer;
+
+// Imported libraries
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Name:        UtilitiesBenchmark
+ * Type:        Class
+ * Description: Throughput of the per request helpers: checking the request
+ *              message, resolving the file path and content type, and
+ *              looking up moved files. Parsing the request bytes is measured
+ *              next to the string based check it replaced
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class UtilitiesBenchmark
+{
+    // Request message split into lines, as the string based check takes it
+    private String requestMsg[];
+
+    // The same request as raw bytes, and the request it is parsed into
+    private byte requestBytes[];
+    private final HttpRequest request = new HttpRequest();
+
+    // Directory the targets are resolved against
+    private static final Path DOCUMENT_ROOT = Paths.get(Constants.DOCUMENT_ROOT);
+
+    // Moved and not moved html files
+    private static final String MOVED_URL = "http://127.0.0.1:6789/index1.html";
+    private static final String NOT_MOVED_URL = "http://127.0.0.1:6789/index2.html";
+
+    /**
+     * Name       : setup
+     * Input      : none
+     * Output     : none
+     * Description: Builds the request and loads the moved files log
+     */
+    @Setup
+    public void setup()
+    {
+        String message = "GET /images/Waterfall.jpg HTTP/1.1\r\n"
+                + "Host: www.a.com\r\n"
+                + "Connection: keep-alive\r\n"
+                + "Accept-Encoding: gzip, deflate\r\n"
+                + "\r\n";
+        requestMsg = (message + " ").split("\r\n");
+        requestBytes = message.getBytes(StandardCharsets.US_ASCII);
+
+        RedirectTable.reload();
+    }
+
+    @Benchmark
+    public boolean checkForRequestMsgErrors()
+    {
+        return Utilities.checkForRequestMsgErrors(requestMsg);
+    }
+
+    @Benchmark
+    public HttpRequest parseRequest()
+    {
+        HttpRequestParser.parse(requestBytes, 0, requestBytes.length, request);
+        return request;
+    }
+
+    @Benchmark
+    public Path parseFilePath()
+    {
+        return Utilities.parseFilePath(DOCUMENT_ROOT, "/images/Waterfall.jpg");
+    }
+
+    @Benchmark
+    public String getContentType()
+    {
+        return Utilities.getContentType("Waterfall.jpg");
+    }
+
+    @Benchmark
+    public String isFileMovedPermanentlyHit()
+    {
+        return Utilities.isFileMovedPermanently("index1.html", MOVED_URL);
+    }
+
+    @Benchmark
+    public String isFileMovedPermanentlyMiss()
+    {
+        return Utilities.isFileMovedPermanently("index2.html", NOT_MOVED_URL);
+    }
+}